@@ -0,0 +1,53 @@
+#!/usr/bin/env bash
+#
+# Сборка и запуск бенчмарков конвейера без дисплея.
+#
+# Требуются JDK 17+ и Java-биндинги OpenCV:
+#   OPENCV_JAR      путь к opencv-490.jar
+#   OPENCV_LIB_DIR  каталог с libopencv_java490.so
+#
+# Пример:
+#   OPENCV_JAR=/usr/share/java/opencv4/opencv-490.jar \
+#   OPENCV_LIB_DIR=/usr/lib/jni \
+#   bench/run.sh --mp 1,6,24 --threads 1,8 --filter 'match|full'
+#
+# Ядро сравнения на Vector API (simd/src) собирается и измеряется, если JDK
+# содержит модуль jdk.incubator.vector; сравнение движков:
+#   bench/run.sh --filter 'matchTemplateFast|matchKernel'
+#
+# Проверка совпадения движков сравнения с попарным перебором окон на синтетических
+# платах (код возврата 1 при любом отличающемся пикселе):
+#   bench/run.sh --golden [--mp 0.3,1]
+set -euo pipefail
+
+: "${OPENCV_JAR:?Не задан путь к opencv-490.jar (OPENCV_JAR)}"
+: "${OPENCV_LIB_DIR:?Не задан каталог нативной библиотеки OpenCV (OPENCV_LIB_DIR)}"
+
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+OUT="$ROOT/bench/out"
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+
+# Бенчмарки компилируются вместе с исходниками приложения, кроме GUI
+find "$ROOT/src" "$ROOT/bench/src" -name '*.java' \
+    ! -path "$ROOT/src/gui/*" ! -name 'DefectDetectionApp.java' > "$OUT/sources.txt"
+javac -encoding UTF-8 -d "$OUT" -cp "$OPENCV_JAR" @"$OUT/sources.txt"
+
+VECTOR_OPTS=()
+if java --add-modules jdk.incubator.vector -version > /dev/null 2>&1; then
+    VECTOR_OPTS=(--add-modules jdk.incubator.vector)
+    javac -encoding UTF-8 "${VECTOR_OPTS[@]}" -d "$OUT" -cp "$OUT:$OPENCV_JAR" \
+        $(find "$ROOT/simd/src" -name '*.java')
+fi
+
+MAIN=bench.PipelineBenchmark
+if [ "${1:-}" = "--golden" ]; then
+    MAIN=bench.GoldenMatchCheck
+    shift
+fi
+
+exec java ${VECTOR_OPTS[@]+"${VECTOR_OPTS[@]}"} -Djava.awt.headless=true \
+    -Djava.library.path="$OPENCV_LIB_DIR" \
+    -cp "$OUT:$OPENCV_JAR" \
+    "$MAIN" "$@"
@@ -0,0 +1,227 @@
+package bench;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import util.Filters;
+import util.MatBuffers;
+import util.MatchKernel;
+import util.MatchKernels;
+import util.MatchSettings;
+import util.Processing;
+import util.TemplatePixels;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Проверка совпадения результатов движков сравнения с шаблоном с попарным перебором окон
+ * ({@link Processing#matchTemplate(Mat, Mat)}) на синтетических платах.
+ * <p>
+ * Для каждой платы и каждых параметров окна с эталоном сравниваются {@link Processing#matchTemplateFast},
+ * {@link Processing#matchTemplateTiled} и {@link Processing#matchTemplateKernel} с ядрами на Java
+ * и на Vector API, если модуль {@code jdk.incubator.vector} доступен. Для параметров по умолчанию
+ * эталоном служит {@link Processing#matchTemplate(Mat, Mat)}, для остальных — тот же перебор окон
+ * с заданными окном и шагом. Процесс завершается с кодом 1, если хотя бы один пиксель результата
+ * какого-либо движка отличается от эталона.
+ * <p>
+ * Запуск: {@code bench/run.sh --golden [--mp 0.3,1]}
+ */
+public class GoldenMatchCheck {
+
+    /**
+     * Высота полосы для {@link Processing#matchTemplateTiled}; не кратна шагу окон,
+     * поэтому проверяется и выравнивание полос по сетке окон
+     */
+    private static final int TILE_ROWS = 37;
+
+    /**
+     * Проверяемые параметры окна: по умолчанию и нечетные окно и шаг
+     */
+    private static final MatchSettings[] SETTINGS = {
+            MatchSettings.DEFAULT,
+            new MatchSettings(7, 3, MatchSettings.DEFAULT.getDilateSize(), MatchSettings.DEFAULT.getThreshold())
+    };
+
+    public static void main(String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        // Разбор параметров
+        double[] megapixels = {0.3, 1};
+        for (int i = 0; i < args.length; i += 2) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            if (args[i].equals("--mp")) {
+                megapixels = parseDoubles(value);
+            } else {
+                throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+            }
+        }
+
+        int failures = 0;
+        System.out.printf(Locale.ROOT, "%-18s %-11s %-18s %10s %10s%n",
+                "Board", "Window", "Engine", "Pixels", "Differ");
+        for (double mp : megapixels) {
+            Mat template = preprocess(SyntheticBoards.generate(mp, 1, false));
+            Mat target = preprocess(SyntheticBoards.generate(mp, 1, true));
+
+            // Плата в исходном размере и обрезанная до нечетных ширины и высоты
+            failures += checkBoard(template, target);
+            Rect odd = new Rect(0, 0, template.cols() - 1 + template.cols() % 2, template.rows() - 1 + template.rows() % 2);
+            if (odd.width == template.cols() && odd.height == template.rows()) {
+                odd = new Rect(0, 0, odd.width - 2, odd.height - 2);
+            }
+            Mat oddTemplate = template.submat(odd).clone();
+            Mat oddTarget = target.submat(odd).clone();
+            failures += checkBoard(oddTemplate, oddTarget);
+
+            for (Mat mat : new Mat[]{template, target, oddTemplate, oddTarget}) {
+                mat.release();
+            }
+        }
+
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " engine result(s) differ from the reference");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Метод для сравнения всех движков с эталоном на одной плате для всех параметров окна
+     *
+     * @param template подготовленный шаблон
+     * @param target   подготовленное целевое изображение того же размера
+     * @return количество движков, результат которых отличается от эталона
+     */
+    private static int checkBoard(Mat template, Mat target) {
+        String board = template.cols() + "x" + template.rows();
+        int failures = 0;
+        for (MatchSettings settings : SETTINGS) {
+            Mat reference = settings == MatchSettings.DEFAULT
+                    ? Processing.matchTemplate(template, target)
+                    : matchTemplateLoop(template, target, settings);
+            Mat sqSum = Processing.computeWindowSqSum(template, settings);
+            TemplatePixels pixels = TemplatePixels.of(template, settings);
+
+            Map<String, Supplier<Mat>> engines = new LinkedHashMap<>();
+            engines.put("matchTemplateFast", () -> {
+                Mat result = new Mat();
+                try (MatBuffers buffers = new MatBuffers()) {
+                    Processing.matchTemplateFast(template, sqSum, target, null, settings, result, buffers);
+                }
+                return result;
+            });
+            engines.put("matchTemplateTiled", () ->
+                    Processing.matchTemplateTiled(template, target, TILE_ROWS, null, settings, ForkJoinPool.commonPool()));
+            engines.put("matchKernelJava", () -> matchKernel(pixels, target, MatchKernels.scalar()));
+            if (MatchKernels.isVectorAvailable()) {
+                engines.put("matchKernelVector", () -> matchKernel(pixels, target, MatchKernels.vector()));
+            }
+
+            String window = settings.getWindow() + "x" + settings.getWindow() + "/" + settings.getStride();
+            for (Map.Entry<String, Supplier<Mat>> engine : engines.entrySet()) {
+                Mat result = engine.getValue().get();
+                int differ = countDifferent(reference, result);
+                System.out.printf(Locale.ROOT, "%-18s %-11s %-18s %10d %10d%n",
+                        board, window, engine.getKey(), reference.total(), differ);
+                if (differ != 0) {
+                    failures++;
+                }
+                result.release();
+            }
+
+            reference.release();
+            sqSum.release();
+        }
+        return failures;
+    }
+
+    /**
+     * Метод для поиска дефектов попарным перебором окон, как в {@link Processing#matchTemplate(Mat, Mat)},
+     * с заданными окном и шагом сетки окон
+     *
+     * @param template шаблонное изображение
+     * @param target   целевое изображение
+     * @param settings параметры окна и шага сетки окон
+     * @return изображение в оттенках серого с выделенными дефектами
+     */
+    private static Mat matchTemplateLoop(Mat template, Mat target, MatchSettings settings) {
+        Mat result = Mat.zeros(template.size(), CvType.CV_32F);
+        int window = settings.getWindow();
+        int half = settings.getHalf();
+        Mat matchResult = new Mat(1, 1, CvType.CV_32F);
+        for (int y = 0; y < template.rows() - window + 1; y += settings.getStride()) {
+            for (int x = 0; x < template.cols() - window + 1; x += settings.getStride()) {
+                Rect roi = new Rect(x, y, window, window);
+                Mat templateRegion = template.submat(roi);
+                Mat targetRegion = target.submat(roi);
+                Imgproc.matchTemplate(templateRegion, targetRegion, matchResult, Imgproc.TM_SQDIFF_NORMED);
+                result.put(y + half, x + half, matchResult.get(0, 0)[0]);
+                templateRegion.release();
+                targetRegion.release();
+            }
+        }
+        matchResult.release();
+
+        Core.normalize(result, result, 0, 255, Core.NORM_MINMAX, -1);
+        result.convertTo(result, CvType.CV_8UC1);
+        return result;
+    }
+
+    private static Mat matchKernel(TemplatePixels pixels, Mat target, MatchKernel kernel) {
+        Mat result = new Mat();
+        try (MatBuffers buffers = new MatBuffers()) {
+            Processing.matchTemplateKernel(pixels, target, kernel, result, buffers);
+        }
+        return result;
+    }
+
+    /**
+     * Метод для подсчета пикселей, различающихся в двух изображениях CV_8UC1
+     *
+     * @param expected эталонное изображение
+     * @param actual   проверяемое изображение
+     * @return количество различающихся пикселей или общее количество пикселей при несовпадении размеров
+     */
+    private static int countDifferent(Mat expected, Mat actual) {
+        if (!expected.size().equals(actual.size()) || expected.type() != actual.type()) {
+            return (int) expected.total();
+        }
+        Mat diff = new Mat();
+        Core.compare(expected, actual, diff, Core.CMP_NE);
+        int count = Core.countNonZero(diff);
+        diff.release();
+        return count;
+    }
+
+    /**
+     * Метод для подготовки изображения так же, как в пакетной обработке:
+     * уменьшение вдвое, перевод в оттенки серого, размытие и выравнивание гистограммы
+     *
+     * @param src цветное изображение платы; освобождается методом
+     * @return подготовленное изображение CV_8UC1
+     */
+    private static Mat preprocess(Mat src) {
+        Mat resized = new Mat();
+        Imgproc.resize(src, resized, new Size((double) src.cols() / 2, (double) src.rows() / 2));
+        Mat gray = new Mat();
+        Imgproc.cvtColor(resized, gray, Imgproc.COLOR_BGR2GRAY);
+        Mat blurred = Filters.applyGaussianBlur(gray);
+        Mat result = Filters.applyCLAHE(blurred);
+        for (Mat mat : new Mat[]{src, resized, gray, blurred}) {
+            mat.release();
+        }
+        return result;
+    }
+
+    private static double[] parseDoubles(String value) {
+        String[] parts = value.split(",");
+        double[] result = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Double.parseDouble(parts[i].trim());
+        }
+        return result;
+    }
+}
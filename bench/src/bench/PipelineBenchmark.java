@@ -0,0 +1,434 @@
+package bench;
+
+import batch.InspectionPipeline;
+import batch.PreparedTemplate;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import util.DataConversions;
+import util.Filters;
+import util.MatBuffers;
+import util.MatchKernels;
+import util.MatchSettings;
+import util.Processing;
+import util.TemplatePixels;
+
+import javax.swing.ImageIcon;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Набор бенчмарков этапов конвейера проверки плат.
+ * <p>
+ * Каждый бенчмарк выполняется на синтетических платах нескольких разрешений и при нескольких
+ * количествах потоков. Как и в JMH, измерение состоит из итераций прогрева и измерительных
+ * итераций фиксированной длительности; результатом является пропускная способность
+ * (операций в секунду по всем потокам) с погрешностью на уровне 99.9% и среднее время операции.
+ * <p>
+ * Параметры командной строки:
+ * <pre>
+ *   --mp 1,6,24         разрешения исходных плат в мегапикселях
+ *   --threads 1,4       количества потоков
+ *   --warmup 3          количество итераций прогрева
+ *   --iterations 5      количество измерительных итераций
+ *   --time 1000         длительность итерации в миллисекундах
+ *   --filter regex      регулярное выражение для отбора бенчмарков по имени
+ * </pre>
+ * Запуск без дисплея выполняется скриптом {@code bench/run.sh}
+ */
+public class PipelineBenchmark {
+
+    /**
+     * Интерфейс измеряемой операции. Экземпляр создается отдельно для каждого потока
+     */
+    private interface Operation extends AutoCloseable {
+
+        /**
+         * Метод для однократного выполнения операции
+         */
+        void run();
+
+        @Override
+        default void close() {
+        }
+    }
+
+    /**
+     * Размер области предпросмотра платы, соответствующий экрану 1920x1080
+     */
+    private static final int PREVIEW_WIDTH = 1280;
+    private static final int PREVIEW_HEIGHT = 540;
+
+    private static final Map<String, Function<Inputs, Operation>> BENCHMARKS = new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("gaussianBlur", inputs -> {
+            MatBuffers buffers = new MatBuffers();
+            return operation(() -> Filters.applyGaussianBlur(inputs.targetGray, buffers.get("dst")), buffers);
+        });
+        BENCHMARKS.put("clahe", inputs -> {
+            MatBuffers buffers = new MatBuffers();
+            return operation(() -> Filters.applyCLAHE(inputs.targetBlur, buffers.get("dst")), buffers);
+        });
+        BENCHMARKS.put("matchTemplateLoop", inputs ->
+                operation(() -> Processing.matchTemplate(inputs.templateCLAHE, inputs.targetCLAHE).release()));
+        BENCHMARKS.put("matchTemplateFast", inputs -> {
+            MatBuffers buffers = new MatBuffers();
+            return operation(() -> Processing.matchTemplateFast(
+                    inputs.templateCLAHE, inputs.templateSqSum, inputs.targetCLAHE, buffers.get("dst"), buffers), buffers);
+        });
+        BENCHMARKS.put("matchKernelJava", inputs -> {
+            MatBuffers buffers = new MatBuffers();
+            return operation(() -> Processing.matchTemplateKernel(
+                    inputs.templatePixels, inputs.targetCLAHE, MatchKernels.scalar(), buffers.get("dst"), buffers), buffers);
+        });
+        if (MatchKernels.isVectorAvailable()) {
+            BENCHMARKS.put("matchKernelVector", inputs -> {
+                MatBuffers buffers = new MatBuffers();
+                return operation(() -> Processing.matchTemplateKernel(
+                        inputs.templatePixels, inputs.targetCLAHE, MatchKernels.vector(), buffers.get("dst"), buffers),
+                        buffers);
+            });
+        }
+        BENCHMARKS.put("dilate", inputs -> {
+            MatBuffers buffers = new MatBuffers();
+            return operation(() -> Processing.dilateImage(inputs.matched, buffers.get("dst")), buffers);
+        });
+        BENCHMARKS.put("findContours", inputs -> {
+            MatBuffers buffers = new MatBuffers();
+            return operation(() -> Processing.findContours(inputs.dilated, buffers).forEach(Mat::release), buffers);
+        });
+        BENCHMARKS.put("matToBufferedImage", inputs ->
+                operation(() -> DataConversions.matToBufferedImage(inputs.targetResized)));
+        BENCHMARKS.put("matToBufferedImageReuse", inputs -> {
+            BufferedImage[] reuse = new BufferedImage[1];
+            return operation(() -> reuse[0] = DataConversions.matToBufferedImage(inputs.targetResized, reuse[0]));
+        });
+        BENCHMARKS.put("previewAwtScaled", inputs -> operation(() -> {
+            // Прежний способ отображения: преобразование полного изображения и масштабирование AWT
+            BufferedImage image = DataConversions.matToBufferedImage(inputs.targetResized);
+            Image scaled = image.getScaledInstance(PREVIEW_WIDTH, PREVIEW_HEIGHT, Image.SCALE_SMOOTH);
+            new ImageIcon(scaled);
+        }));
+        BENCHMARKS.put("previewCvScaled", inputs -> {
+            BufferedImage[] reuse = new BufferedImage[1];
+            return operation(() -> reuse[0] = DataConversions.matToScaledBufferedImage(
+                    inputs.targetResized, PREVIEW_WIDTH, PREVIEW_HEIGHT, reuse[0]));
+        });
+        BENCHMARKS.put("stagesAllocating", inputs -> operation(() -> {
+            // Этапы от размытия до поиска контуров с новой матрицей на каждом этапе
+            Mat blurred = Filters.applyGaussianBlur(inputs.targetGray);
+            Mat equalized = Filters.applyCLAHE(blurred);
+            Mat matched = Processing.matchTemplateFast(inputs.templateCLAHE, inputs.templateSqSum, equalized);
+            Mat dilated = Processing.dilateImage(matched);
+            Processing.findContours(dilated).forEach(Mat::release);
+            for (Mat mat : new Mat[]{blurred, equalized, matched, dilated}) {
+                mat.release();
+            }
+        }));
+        BENCHMARKS.put("stagesBuffers", inputs -> {
+            // Те же этапы с матрицами из буферов потока
+            MatBuffers buffers = new MatBuffers();
+            return operation(() -> {
+                Mat blurred = buffers.get("blurred");
+                Mat equalized = buffers.get("equalized");
+                Mat matched = buffers.get("matched");
+                Mat dilated = buffers.get("dilated");
+                Filters.applyGaussianBlur(inputs.targetGray, blurred);
+                Filters.applyCLAHE(blurred, equalized);
+                Processing.matchTemplateFast(inputs.templateCLAHE, inputs.templateSqSum, equalized, matched, buffers);
+                Processing.dilateImage(matched, dilated);
+                Processing.findContours(dilated, buffers).forEach(Mat::release);
+            }, buffers);
+        });
+        BENCHMARKS.put("fullPipeline", inputs -> operation(() -> runPanelPipeline(inputs)));
+        BENCHMARKS.put("inspectionPipeline", inputs -> {
+            // Тот же конвейер в виде InspectionPipeline с матрицами из буферов потока
+            InspectionPipeline pipeline = InspectionPipeline.parse("halve,gray,blur,clahe,match,dilate");
+            PreparedTemplate template = PreparedTemplate.fromPreprocessed(
+                    inputs.templateCLAHE.clone(), 1, null, null, MatchSettings.DEFAULT);
+            MatBuffers buffers = new MatBuffers();
+            return new Operation() {
+                @Override
+                public void run() {
+                    List<Rect> defects = pipeline.inspect(inputs.targetSrc, template, buffers);
+                    pipeline.renderDefects(inputs.targetSrc, defects).release();
+                }
+
+                @Override
+                public void close() {
+                    buffers.close();
+                    template.release();
+                }
+            };
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        // Разбор параметров
+        double[] megapixels = {1, 6, 24};
+        int[] threads = {1, Runtime.getRuntime().availableProcessors()};
+        int warmup = 3;
+        int iterations = 5;
+        long iterationMillis = 1000;
+        Pattern filter = Pattern.compile(".*");
+        for (int i = 0; i < args.length; i += 2) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--mp" -> megapixels = parseDoubles(value);
+                case "--threads" -> threads = parseInts(value);
+                case "--warmup" -> warmup = Integer.parseInt(value);
+                case "--iterations" -> iterations = Integer.parseInt(value);
+                case "--time" -> iterationMillis = Long.parseLong(value);
+                case "--filter" -> filter = Pattern.compile(value);
+                default -> throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-24s %6s %8s %14s %12s %12s%n",
+                "Benchmark", "MP", "Threads", "Score(ops/s)", "Error", "ms/op");
+        for (double mp : megapixels) {
+            Inputs inputs = new Inputs(mp);
+            for (Map.Entry<String, Function<Inputs, Operation>> benchmark : BENCHMARKS.entrySet()) {
+                if (!filter.matcher(benchmark.getKey()).find()) {
+                    continue;
+                }
+                for (int threadCount : threads) {
+                    // Прогрев
+                    for (int i = 0; i < warmup; i++) {
+                        runIteration(benchmark.getValue(), inputs, threadCount, iterationMillis);
+                    }
+
+                    // Измерение
+                    double[] scores = new double[iterations];
+                    for (int i = 0; i < iterations; i++) {
+                        scores[i] = runIteration(benchmark.getValue(), inputs, threadCount, iterationMillis);
+                    }
+                    report(benchmark.getKey(), mp, threadCount, scores);
+                }
+            }
+            inputs.release();
+        }
+    }
+
+    /**
+     * Метод для выполнения одной итерации бенчмарка
+     *
+     * @param factory         фабрика операций
+     * @param inputs          входные данные
+     * @param threadCount     количество потоков
+     * @param iterationMillis длительность итерации в миллисекундах
+     * @return пропускная способность в операциях в секунду по всем потокам
+     * @throws InterruptedException если ожидание потоков было прервано
+     */
+    private static double runIteration(Function<Inputs, Operation> factory,
+                                       Inputs inputs,
+                                       int threadCount,
+                                       long iterationMillis) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch ready = new CountDownLatch(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threadCount];
+        long[] elapsed = new long[threadCount];
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                try (Operation operation = factory.apply(inputs)) {
+                    ready.countDown();
+                    start.await();
+
+                    // Операции выполняются до окончания итерации, но не менее одной
+                    long begin = System.nanoTime();
+                    do {
+                        operation.run();
+                        counts[index]++;
+                    } while (running.get());
+                    elapsed[index] = System.nanoTime() - begin;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        ready.await();
+        start.countDown();
+        Thread.sleep(iterationMillis);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        double score = 0;
+        for (int t = 0; t < threadCount; t++) {
+            score += counts[t] / (elapsed[t] / 1e9);
+        }
+        return score;
+    }
+
+    /**
+     * Метод для вывода результата бенчмарка
+     *
+     * @param name        имя бенчмарка
+     * @param mp          разрешение платы в мегапикселях
+     * @param threadCount количество потоков
+     * @param scores      пропускная способность в каждой измерительной итерации
+     */
+    private static void report(String name, double mp, int threadCount, double[] scores) {
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        variance = scores.length > 1 ? variance / (scores.length - 1) : 0;
+
+        // Полуширина доверительного интервала 99.9% в нормальном приближении
+        double error = 3.291 * Math.sqrt(variance / scores.length);
+        System.out.printf(Locale.ROOT, "%-24s %6.1f %8d %14.3f %12.3f %12.3f%n",
+                name, mp, threadCount, mean, error, 1000.0 * threadCount / mean);
+    }
+
+    /**
+     * Метод для выполнения конвейера в том виде, в котором его выполняют панели приложения
+     *
+     * @param inputs входные данные
+     */
+    private static void runPanelPipeline(Inputs inputs) {
+        List<Mat> mats = new ArrayList<>();
+
+        // Изменение размеров и преобразование к оттенкам серого
+        Mat targetCopy = track(mats, inputs.targetSrc.clone());
+        Imgproc.resize(targetCopy, targetCopy,
+                new Size((double) targetCopy.cols() / 2, (double) targetCopy.rows() / 2));
+        Mat targetGray = track(mats, new Mat());
+        Imgproc.cvtColor(targetCopy, targetGray, Imgproc.COLOR_BGR2GRAY);
+
+        // Фильтрация и сравнение с шаблоном
+        Mat targetBlur = track(mats, Filters.applyGaussianBlur(targetGray));
+        Mat targetCLAHE = track(mats, Filters.applyCLAHE(targetBlur));
+        Mat matched = track(mats, Processing.matchTemplateFast(inputs.templateCLAHE, inputs.templateSqSum, targetCLAHE));
+        Mat dilated = track(mats, Processing.dilateImage(matched));
+
+        // Поиск и отрисовка дефектов
+        List<MatOfPoint> contours = Processing.findContours(dilated);
+        mats.addAll(contours);
+        Mat bounded = track(mats, new Mat());
+        targetCopy.copyTo(bounded);
+        for (Rect rect : Processing.getBoundingRects(contours)) {
+            Imgproc.rectangle(bounded, rect, new Scalar(255, 0, 255), 2);
+        }
+
+        mats.forEach(Mat::release);
+    }
+
+    private static Mat track(List<Mat> mats, Mat mat) {
+        mats.add(mat);
+        return mat;
+    }
+
+    private static Operation operation(Runnable body, MatBuffers... buffers) {
+        return new Operation() {
+            @Override
+            public void run() {
+                body.run();
+            }
+
+            @Override
+            public void close() {
+                for (MatBuffers buffer : buffers) {
+                    buffer.close();
+                }
+            }
+        };
+    }
+
+    private static double[] parseDoubles(String value) {
+        String[] parts = value.split(",");
+        double[] result = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Double.parseDouble(parts[i].trim());
+        }
+        return result;
+    }
+
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Класс, содержащий входные данные каждого этапа для одного разрешения платы
+     */
+    private static class Inputs {
+
+        private final Mat targetSrc;
+        private final Mat targetResized;
+        private final Mat targetGray;
+        private final Mat targetBlur;
+        private final Mat targetCLAHE;
+        private final Mat templateCLAHE;
+        private final Mat templateSqSum;
+        private final TemplatePixels templatePixels;
+        private final Mat matched;
+        private final Mat dilated;
+
+        private Inputs(double megapixels) {
+            Mat templateSrc = SyntheticBoards.generate(megapixels, 1, false);
+            targetSrc = SyntheticBoards.generate(megapixels, 1, true);
+
+            // Шаблон подготавливается так же, как в пакетной обработке
+            Mat templateResized = new Mat();
+            Imgproc.resize(templateSrc, templateResized,
+                    new Size((double) templateSrc.cols() / 2, (double) templateSrc.rows() / 2));
+            Mat templateGray = new Mat();
+            Imgproc.cvtColor(templateResized, templateGray, Imgproc.COLOR_BGR2GRAY);
+            templateCLAHE = Filters.applyCLAHE(Filters.applyGaussianBlur(templateGray));
+            templateSqSum = Processing.computeWindowSqSum(templateCLAHE);
+            templatePixels = TemplatePixels.of(templateCLAHE);
+
+            // Входы этапов для целевого изображения
+            targetResized = new Mat();
+            Imgproc.resize(targetSrc, targetResized,
+                    new Size((double) targetSrc.cols() / 2, (double) targetSrc.rows() / 2));
+            targetGray = new Mat();
+            Imgproc.cvtColor(targetResized, targetGray, Imgproc.COLOR_BGR2GRAY);
+            targetBlur = Filters.applyGaussianBlur(targetGray);
+            targetCLAHE = Filters.applyCLAHE(targetBlur);
+            matched = Processing.matchTemplateFast(templateCLAHE, templateSqSum, targetCLAHE);
+            dilated = Processing.dilateImage(matched);
+
+            templateSrc.release();
+            templateResized.release();
+            templateGray.release();
+        }
+
+        private void release() {
+            for (Mat mat : new Mat[]{targetSrc, targetResized, targetGray, targetBlur, targetCLAHE,
+                    templateCLAHE, templateSqSum, matched, dilated}) {
+                mat.release();
+            }
+        }
+    }
+}
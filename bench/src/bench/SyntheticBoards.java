@@ -0,0 +1,64 @@
+package bench;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Random;
+
+/**
+ * Утилитный класс для генерации синтетических изображений, похожих на печатные платы
+ */
+public class SyntheticBoards {
+
+    /**
+     * Метод для генерации изображения платы заданного разрешения
+     *
+     * @param megapixels разрешение в мегапикселях (соотношение сторон 4:3)
+     * @param seed       зерно генератора; платы с одинаковым зерном совпадают без учета дефектов и шума
+     * @param defects    {@code true}, если на плату необходимо нанести дефекты
+     * @return цветное изображение платы в формате BGR
+     */
+    public static Mat generate(double megapixels, long seed, boolean defects) {
+        int width = (int) Math.round(Math.sqrt(megapixels * 1_000_000 * 4 / 3));
+        int height = width * 3 / 4;
+        Random random = new Random(seed);
+
+        // Подложка платы
+        Mat board = new Mat(height, width, CvType.CV_8UC3, new Scalar(30, 90, 30));
+
+        // Контактные площадки, дорожки и переходные отверстия
+        int elements = width * height / 4000;
+        for (int i = 0; i < elements; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            Imgproc.rectangle(board,
+                    new Point(x, y),
+                    new Point(x + 5 + random.nextInt(40), y + 5 + random.nextInt(20)),
+                    new Scalar(180, 180, 190), -1);
+            Imgproc.line(board,
+                    new Point(x, y),
+                    new Point(random.nextInt(width), y),
+                    new Scalar(60, 160, 200), 2);
+            if (i % 7 == 0) {
+                Imgproc.circle(board, new Point(x, y), 4, new Scalar(10, 10, 10), -1);
+            }
+        }
+
+        // Дефекты: обрыв дорожки и лишняя перемычка
+        if (defects) {
+            Imgproc.circle(board, new Point(width / 3.0, height / 3.0), 6, new Scalar(30, 90, 30), -1);
+            Imgproc.line(board,
+                    new Point(width / 2.0, height / 2.0),
+                    new Point(width / 2.0 + 30, height / 2.0 + 10),
+                    new Scalar(0, 0, 0), 3);
+        }
+
+        // Шум сенсора
+        Mat noise = new Mat(board.size(), CvType.CV_8UC3);
+        Core.randu(noise, 0, 6);
+        Core.add(board, noise, board);
+        noise.release();
+
+        return board;
+    }
+}
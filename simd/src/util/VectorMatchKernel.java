@@ -0,0 +1,138 @@
+package util;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Ядро сравнения с шаблоном на Vector API.
+ * <p>
+ * Суммы по столбцам окон вычисляются сразу для нескольких столбцов: байты пикселей
+ * расширяются до int в векторе той же длины, а суммы по окнам и мера вычисляются
+ * для нескольких центров строки одновременно. Все операции над float выполняются
+ * поэлементно по IEEE 754, поэтому результат совпадает со скалярным ядром.
+ * <p>
+ * Класс собирается и загружается только с модулем {@code jdk.incubator.vector}:
+ * <pre>
+ *   javac --add-modules jdk.incubator.vector ...
+ *   java --add-modules jdk.incubator.vector -Dsurfacescout.matchEngine=vector ...
+ * </pre>
+ *
+ * @see MatchKernels#vector()
+ */
+public class VectorMatchKernel implements MatchKernel {
+
+    /**
+     * Длина векторов выбирается по предпочтительной ширине int, но не менее восьми байтов
+     */
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, IntVector.SPECIES_PREFERRED.length() * Byte.SIZE)));
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class,
+            VectorShape.forBitSize(BYTES.length() * Integer.SIZE));
+    private static final VectorSpecies<Float> FLOATS = VectorSpecies.of(float.class, INTS.vectorShape());
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    @Override
+    public void computeRatio(TemplatePixels template, byte[] target, float[] ratio) {
+        int rows = template.getRows();
+        int cols = template.getCols();
+        byte[] pixels = template.getPixels();
+        int[] templateSqSums = template.getWindowSqSums();
+        int half = template.getSettings().getHalf();
+        int step = template.getSettings().getStride();
+        int[] diffColumns = new int[cols];
+        int[] targetColumns = new int[cols];
+        int columnBound = INTS.loopBound(cols);
+        int centers = cols - 2 * half;
+        int centerBound = INTS.loopBound(Math.max(0, centers));
+
+        for (int cy = half; cy < rows - half; cy += step) {
+            // Суммы по столбцам окна для строки центров
+            int x = 0;
+            for (; x < columnBound; x += INTS.length()) {
+                IntVector diffSum = IntVector.zero(INTS);
+                IntVector targetSum = IntVector.zero(INTS);
+                for (int y = cy - half; y <= cy + half; y++) {
+                    int offset = y * cols + x;
+                    IntVector value = widen(target, offset);
+                    IntVector diff = widen(pixels, offset).sub(value);
+                    diffSum = diffSum.add(diff.mul(diff));
+                    targetSum = targetSum.add(value.mul(value));
+                }
+                diffSum.intoArray(diffColumns, x);
+                targetSum.intoArray(targetColumns, x);
+            }
+            for (; x < cols; x++) {
+                int diffSum = 0;
+                int targetSum = 0;
+                for (int y = cy - half; y <= cy + half; y++) {
+                    int value = target[y * cols + x] & 0xFF;
+                    int diff = (pixels[y * cols + x] & 0xFF) - value;
+                    diffSum += diff * diff;
+                    targetSum += value * value;
+                }
+                diffColumns[x] = diffSum;
+                targetColumns[x] = targetSum;
+            }
+
+            // Суммы по окнам и мера для всех центров строки; значения вне сетки не используются
+            int row = cy * cols;
+            int i = 0;
+            for (; i < centerBound; i += INTS.length()) {
+                int cx = half + i;
+                IntVector diffSum = IntVector.zero(INTS);
+                IntVector targetSum = IntVector.zero(INTS);
+                for (int dx = -half; dx <= half; dx++) {
+                    diffSum = diffSum.add(IntVector.fromArray(INTS, diffColumns, cx + dx));
+                    targetSum = targetSum.add(IntVector.fromArray(INTS, targetColumns, cx + dx));
+                }
+                FloatVector denominator = toFloat(IntVector.fromArray(INTS, templateSqSums, row + cx))
+                        .mul(toFloat(targetSum))
+                        .lanewise(VectorOperators.SQRT);
+                VectorMask<Float> zeroEnergy = denominator.compare(VectorOperators.LE, 0f);
+                toFloat(diffSum).div(denominator).min(1f).blend(1f, zeroEnergy).intoArray(ratio, row + cx);
+            }
+            for (; i < centers; i++) {
+                int cx = half + i;
+                int diffSum = 0;
+                int targetSum = 0;
+                for (int dx = -half; dx <= half; dx++) {
+                    diffSum += diffColumns[cx + dx];
+                    targetSum += targetColumns[cx + dx];
+                }
+                ratio[row + cx] = MatchKernels.ratio(diffSum, templateSqSums[row + cx], targetSum);
+            }
+        }
+    }
+
+    /**
+     * Метод для загрузки байтов без знака в вектор int той же длины
+     *
+     * @param data   массив пикселей
+     * @param offset индекс первого пикселя
+     * @return вектор яркостей
+     */
+    private static IntVector widen(byte[] data, int offset) {
+        return ((IntVector) ByteVector.fromArray(BYTES, data, offset)
+                .convertShape(VectorOperators.B2I, INTS, 0))
+                .and(0xFF);
+    }
+
+    /**
+     * Метод для преобразования вектора int в вектор float
+     *
+     * @param vector вектор целых чисел
+     * @return вектор тех же значений
+     */
+    private static FloatVector toFloat(IntVector vector) {
+        return (FloatVector) vector.convertShape(VectorOperators.I2F, FLOATS, 0);
+    }
+}
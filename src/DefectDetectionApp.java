@@ -13,10 +13,16 @@ public class DefectDetectionApp {
 
     static {
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
-        FlatGradiantoNatureGreenIJTheme.setup();
     }
 
     public static void main(String[] args) {
+        // Пакетная проверка из командной строки без сплэш-скрина и инициализации AWT
+        if (args.length > 0) {
+            System.exit(DefectDetectionCli.run(args, System.err));
+        }
+
+        FlatGradiantoNatureGreenIJTheme.setup();
+
         // Отображение сплэш-скрина
         SwingUtilities.invokeLater(DefectDetectionApp::showSplashScreen);
 
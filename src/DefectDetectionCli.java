@@ -0,0 +1,366 @@
+import batch.BatchInspector;
+import batch.BatchListener;
+import batch.InspectionCoordinator;
+import batch.InspectionNode;
+import batch.InspectionPipeline;
+import batch.ResultSink;
+import batch.StrideTuner;
+import batch.TemplateRegistry;
+import exception.ClusterException;
+import exception.ImageReadException;
+import org.opencv.core.Core;
+import org.opencv.core.Rect;
+import store.DefectRecord;
+import store.DefectStore;
+import util.MatchSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Точка входа пакетной проверки плат из командной строки.
+ * <p>
+ * Выполняет тот же конвейер, что и панель обработки множества изображений,
+ * без инициализации AWT и без сплэш-скрина. Код завершения:
+ * {@value #EXIT_CLEAN} — дефекты не найдены, {@value #EXIT_DEFECTS} — найден
+ * хотя бы один дефект, {@value #EXIT_ERROR} — ошибка параметров или обработки.
+ * С параметром {@code --query} вместо проверки выполняется поиск в хранилище дефектов,
+ * а с параметром {@code --calibrate} — подбор шага окон по размеченному набору ({@link StrideTuner}).
+ * С параметром {@code --serve} запускается узел распределенной проверки ({@link InspectionNode}),
+ * а с параметром {@code --nodes} платы проверяются узлами под управлением координатора
+ * ({@link InspectionCoordinator})
+ */
+public class DefectDetectionCli {
+
+    public static final int EXIT_CLEAN = 0;
+    public static final int EXIT_DEFECTS = 1;
+    public static final int EXIT_ERROR = 2;
+
+    private static final String USAGE = """
+            Использование: SurfaceScout --images <директория> --templates <директория> --output <директория> [--workers N] [--format F] [--store <директория>] [--nodes <адреса>]
+                           SurfaceScout --serve <порт> --templates <директория> [--workers N]
+                           SurfaceScout --query <директория> [--code C] [--region x,y,w,h] [--days N] [--limit N]
+                           SurfaceScout --calibrate <файл разметки> --images <директория> --templates <директория> [--recall R]
+              --images     директория с изображениями плат (JPG, PNG)
+              --templates  директория с шаблонами, имена которых начинаются с кода шаблона
+              --output     директория для файла логов
+              --workers    количество рабочих потоков (по умолчанию — количество процессоров)
+              --format     формат результатов: text, csv, jsonl или binary (по умолчанию — text)
+              --store      хранилище дефектов, в которое добавляются результаты проверки
+              --query      хранилище дефектов для поиска; результаты выводятся в CSV
+              --code       код шаблона
+              --region     область, с которой пересекаются дефекты
+              --days       количество последних суток
+              --limit      максимальное количество результатов (по умолчанию — 1000)
+              --calibrate  разметка дефектов калибровочного набора: строки имя_файла,x,y,ширина,высота
+              --recall     целевая полнота при подборе шага окон (по умолчанию — 1.0)
+              --nodes      узлы распределенной проверки через запятую: хост:порт,хост:порт
+              --serve      порт, на котором узел распределенной проверки принимает партии плат""";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.err));
+    }
+
+    /**
+     * Метод для выполнения пакетной проверки по аргументам командной строки
+     *
+     * @param args аргументы командной строки
+     * @param err  поток для вывода прогресса и сообщений об ошибках
+     * @return код завершения
+     */
+    public static int run(String[] args, PrintStream err) {
+        System.setProperty("java.awt.headless", "true");
+
+        // Разбор аргументов
+        String images = null, templates = null, output = null, store = null, query = null, code = null;
+        String calibrate = null;
+        List<InetSocketAddress> nodes = null;
+        Integer serve = null;
+        double recall = 1.0;
+        Rect region = null;
+        long days = -1;
+        int limit = 1000;
+        int workers = BatchInspector.getConfiguredWorkerCount();
+        ResultSink.Format format;
+        try {
+            format = ResultSink.getConfiguredFormat();
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--images" -> images = value;
+                    case "--templates" -> templates = value;
+                    case "--output" -> output = value;
+                    case "--workers" -> workers = Integer.parseInt(String.valueOf(value));
+                    case "--format" -> format = ResultSink.Format.parse(String.valueOf(value));
+                    case "--store" -> store = value;
+                    case "--query" -> query = value;
+                    case "--code" -> code = value;
+                    case "--region" -> region = parseRect(String.valueOf(value));
+                    case "--days" -> days = Long.parseLong(String.valueOf(value));
+                    case "--limit" -> limit = Integer.parseInt(String.valueOf(value));
+                    case "--calibrate" -> calibrate = value;
+                    case "--recall" -> recall = Double.parseDouble(String.valueOf(value));
+                    case "--nodes" -> nodes = InspectionCoordinator.parseNodes(String.valueOf(value));
+                    case "--serve" -> serve = Integer.parseInt(String.valueOf(value));
+                    default -> throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+                }
+                i++;
+            }
+            if (serve != null ? templates == null
+                    : query == null && (images == null || templates == null || (output == null && calibrate == null))) {
+                throw new IllegalArgumentException("Не заданы обязательные параметры");
+            }
+            if (workers < 1) {
+                throw new IllegalArgumentException("Количество рабочих потоков должно быть положительным: " + workers);
+            }
+            if (!(recall >= 0 && recall <= 1)) {
+                throw new IllegalArgumentException("Целевая полнота должна быть от 0 до 1: " + recall);
+            }
+
+            // Проверка конфигурации конвейера проверки и координатора до начала обработки
+            InspectionPipeline.fromConfig();
+            if (nodes != null) {
+                InspectionCoordinator.fromConfig(nodes);
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_ERROR;
+        }
+
+        if (query != null) {
+            long from = days < 0 ? Long.MIN_VALUE : System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+            return runQuery(Paths.get(query), code, region, from, limit, err);
+        }
+        if (serve != null) {
+            return runNode(serve, Paths.get(templates), workers, err);
+        }
+
+        // Получение изображений и шаблонов; директории просматриваются параллельно
+        String imageDirectory = images;
+        CompletableFuture<File[]> imageScan =
+                CompletableFuture.supplyAsync(() -> BatchInspector.listImageFiles(new File(imageDirectory)));
+        TemplateRegistry templateRegistry;
+        try {
+            templateRegistry = TemplateRegistry.open(Paths.get(templates));
+        } catch (IOException e) {
+            err.println("Ошибка чтения директории с шаблонами: " + e.getMessage());
+            return EXIT_ERROR;
+        }
+        File[] imageFiles = imageScan.join();
+        if (imageFiles == null || imageFiles.length == 0) {
+            templateRegistry.close();
+            err.println("Директория с изображениями пуста!");
+            return EXIT_ERROR;
+        }
+        if (templateRegistry.size() == 0) {
+            templateRegistry.close();
+            err.println("Директория с шаблонами пуста!");
+            return EXIT_ERROR;
+        }
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        if (calibrate != null) {
+            try (templateRegistry) {
+                return runCalibration(Paths.get(calibrate), imageFiles, templateRegistry, recall, err);
+            }
+        }
+
+        // Пакетная проверка в текущей JVM или узлами распределенной проверки
+        AtomicInteger defectiveBoards = new AtomicInteger();
+        BatchInspector inspector = null;
+        InspectionCoordinator coordinator = null;
+        Path logPath;
+        try (templateRegistry;
+             ResultSink sink = ResultSink.open(Paths.get(output), format);
+             DefectStore defectStore = store == null ? null : DefectStore.open(Paths.get(store))) {
+            if (Boolean.getBoolean(TemplateRegistry.WATCH_PROPERTY)) {
+                templateRegistry.startWatching();
+            }
+            logPath = sink.getPath();
+            BatchListener listener = (result, processed, total) -> {
+                if (!result.getDefects().isEmpty()) {
+                    defectiveBoards.incrementAndGet();
+                }
+                if (defectStore != null) {
+                    try {
+                        defectStore.append(result.getImageFile().getName(), result.getTemplateCode(),
+                                System.currentTimeMillis(), result.getDefects());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                err.printf("[%d/%d] %s: дефектов %d%n",
+                        processed, total, result.getImageFile().getName(), result.getDefects().size());
+            };
+            if (nodes != null) {
+                coordinator = InspectionCoordinator.fromConfig(nodes);
+                coordinator.inspect(imageFiles, templateRegistry, sink, listener);
+            } else {
+                inspector = new BatchInspector(workers);
+                inspector.inspect(imageFiles, templateRegistry, sink, listener);
+            }
+        } catch (ImageReadException | ClusterException e) {
+            err.println(e.getMessage());
+            if (coordinator != null) {
+                coordinator.getNodeStatistics().forEach(err::println);
+            }
+            return EXIT_ERROR;
+        } catch (UncheckedIOException e) {
+            err.println("Ошибка записи результатов: " + e.getCause().getMessage());
+            return EXIT_ERROR;
+        } catch (InterruptedIOException e) {
+            err.println(e.getMessage());
+            return EXIT_ERROR;
+        } catch (IOException e) {
+            err.println("Ошибка записи результатов: " + e.getMessage());
+            return EXIT_ERROR;
+        } catch (RuntimeException e) {
+            // Непредвиденная ошибка проверки не должна приводить к коду завершения EXIT_DEFECTS
+            err.println("Ошибка проверки: " + e);
+            return EXIT_ERROR;
+        }
+
+        // Показатели стадий конвейера или узлов распределенной проверки
+        if (inspector != null) {
+            inspector.getStageMetrics().forEach(err::println);
+            if (inspector.getPrescreen() != null) {
+                err.println(inspector.getPrescreen());
+            }
+        } else {
+            coordinator.getNodeStatistics().forEach(err::println);
+        }
+        err.println("Плат с дефектами: " + defectiveBoards.get() + " из " + imageFiles.length + ", лог: " + logPath);
+        return defectiveBoards.get() > 0 ? EXIT_DEFECTS : EXIT_CLEAN;
+    }
+
+    /**
+     * Метод для поиска дефектов в хранилище и вывода их в CSV
+     *
+     * @param directory  директория хранилища
+     * @param code       код шаблона или {@code null}
+     * @param region     область или {@code null}
+     * @param fromMillis начало интервала времени
+     * @param limit      максимальное количество результатов
+     * @param err        поток для вывода сообщений об ошибках
+     * @return код завершения
+     */
+    private static int runQuery(Path directory, String code, Rect region, long fromMillis, int limit, PrintStream err) {
+        try (DefectStore defectStore = DefectStore.open(directory)) {
+            System.out.println("image,code,time,x,y,width,height");
+            for (DefectRecord record : defectStore.query(code, region, fromMillis, Long.MAX_VALUE, limit)) {
+                Rect rect = record.getRect();
+                System.out.println(record.getBoardName() + "," + record.getTemplateCode() + ","
+                        + Instant.ofEpochMilli(record.getTimestamp()) + ","
+                        + rect.x + "," + rect.y + "," + rect.width + "," + rect.height);
+            }
+            return EXIT_CLEAN;
+        } catch (IOException e) {
+            err.println("Ошибка чтения хранилища дефектов: " + e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+    /**
+     * Метод для подбора шага окон по размеченному калибровочному набору и вывода результатов
+     *
+     * @param labelsPath   файл разметки
+     * @param imageFiles   изображения плат калибровочного набора
+     * @param templates    реестр шаблонов
+     * @param targetRecall целевая полнота
+     * @param err          поток для вывода результатов и сообщений об ошибках
+     * @return код завершения: {@value #EXIT_CLEAN}, если найден шаг с целевой полнотой
+     */
+    private static int runCalibration(Path labelsPath,
+                                      File[] imageFiles,
+                                      TemplateRegistry templates,
+                                      double targetRecall,
+                                      PrintStream err) {
+        try {
+            InspectionPipeline pipeline = InspectionPipeline.fromConfig();
+            StrideTuner tuner = new StrideTuner(pipeline, templates, imageFiles, StrideTuner.readLabels(labelsPath));
+            err.println("Подбор шага окон: " + pipeline.getSettings() + ", плат " + imageFiles.length);
+            List<StrideTuner.Result> results = tuner.evaluateAll();
+            results.forEach(err::println);
+
+            StrideTuner.Result best = StrideTuner.choose(results, targetRecall);
+            if (best == null) {
+                err.println("Ни один шаг не обеспечивает полноту " + targetRecall);
+                return EXIT_ERROR;
+            }
+            err.println("Рекомендуемый шаг: " + best.getStride()
+                    + " (-D" + MatchSettings.STRIDE_PROPERTY + "=" + best.getStride() + ")");
+            return EXIT_CLEAN;
+        } catch (IOException e) {
+            err.println("Ошибка чтения разметки: " + e.getMessage());
+            return EXIT_ERROR;
+        } catch (ImageReadException | IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return EXIT_ERROR;
+        } catch (RuntimeException e) {
+            err.println("Ошибка проверки: " + e);
+            return EXIT_ERROR;
+        }
+    }
+
+    /**
+     * Метод для запуска узла распределенной проверки, принимающего партии плат до завершения процесса
+     *
+     * @param port      порт для подключения координаторов
+     * @param templates директория с шаблонами
+     * @param workers   количество рабочих потоков
+     * @param err       поток для вывода сообщений
+     * @return код завершения {@value #EXIT_ERROR}, если узел не удалось запустить
+     */
+    private static int runNode(int port, Path templates, int workers, PrintStream err) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        try (TemplateRegistry templateRegistry = TemplateRegistry.open(templates)) {
+            if (templateRegistry.size() == 0) {
+                err.println("Директория с шаблонами пуста!");
+                return EXIT_ERROR;
+            }
+            if (Boolean.getBoolean(TemplateRegistry.WATCH_PROPERTY)) {
+                templateRegistry.startWatching();
+            }
+            try (InspectionNode node = new InspectionNode(port, templateRegistry, workers)) {
+                err.println("Узел проверки принимает партии на порту " + node.getPort()
+                        + ", рабочих потоков " + node.getWorkerCount() + ", шаблонов " + templateRegistry.size());
+                node.serve();
+            }
+            return EXIT_CLEAN;
+        } catch (IOException e) {
+            err.println("Ошибка запуска узла проверки: " + e.getMessage());
+            return EXIT_ERROR;
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+    /**
+     * Метод для разбора прямоугольника вида {@code x,y,w,h}
+     *
+     * @param value строковое представление прямоугольника
+     * @return прямоугольник
+     */
+    private static Rect parseRect(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Область должна быть задана как x,y,w,h: " + value);
+        }
+        return new Rect(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+    }
+}
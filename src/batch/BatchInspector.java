@@ -0,0 +1,701 @@
+package batch;
+
+import exception.ImageReadException;
+import metrics.InspectionMetrics;
+import metrics.StageMetrics;
+import org.opencv.core.*;
+import util.ImageIO;
+import util.ImageReader;
+import util.InspectionMask;
+import util.MatBuffers;
+import util.MatScope;
+import util.Processing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Сервис пакетной проверки плат, распределяющий изображения
+ * по ограниченному пулу рабочих потоков.
+ * <p>
+ * Декодирование изображений, проверка плат и вывод результатов выполняются
+ * отдельными стадиями, показатели которых доступны через {@link #getStageMetrics()}.
+ * Изображения декодируются заранее отдельным пулом потоков ввода-вывода в пределах
+ * заданных количества ({@value #PREFETCH_DEPTH_PROPERTY}) и объема памяти
+ * ({@value #PREFETCH_BYTES_PROPERTY}), чтобы рабочие потоки не ожидали чтения с диска.
+ * <p>
+ * Шаблоны находятся по коду через {@link TemplateRegistry}, а загружаются
+ * и подготавливаются через {@link TemplateCache} не более одного раза на код,
+ * независимо от порядка изображений в директории и количества рабочих потоков.
+ * Результаты логируются и передаются получателю
+ * в исходном порядке изображений, независимо от порядка завершения задач
+ */
+public class BatchInspector {
+
+    /**
+     * Системное свойство, задающее количество рабочих потоков
+     */
+    public static final String WORKERS_PROPERTY = "surfacescout.workers";
+
+    /**
+     * Системное свойство, задающее высоту полосы для сравнения с шаблоном по полосам.
+     * Изображения выше этого значения обрабатываются {@link Processing#matchTemplateTiled};
+     * нулевое значение отключает режим полос
+     */
+    public static final String TILE_ROWS_PROPERTY = "surfacescout.tileRows";
+
+    /**
+     * Системное свойство, задающее количество уровней пирамиды для поиска дефектов от грубого
+     * уровня к точному ({@link Processing#matchTemplatePyramid}). Нулевым уровнем пирамиды является
+     * изображение исходного разрешения без уменьшения вдвое, поэтому координаты дефектов в логе
+     * и изображение с выделенными дефектами также относятся к исходному разрешению.
+     * Значения меньше двух отключают режим пирамиды
+     */
+    public static final String PYRAMID_LEVELS_PROPERTY = "surfacescout.pyramidLevels";
+
+    /**
+     * Системное свойство, задающее через запятую пороги меры для отбора областей-кандидатов
+     * на уровнях пирамиды, начиная с первого. Если порогов меньше, чем уровней,
+     * для оставшихся уровней используется последний
+     */
+    public static final String PYRAMID_THRESHOLDS_PROPERTY = "surfacescout.pyramidThresholds";
+
+    private static final String DEFAULT_PYRAMID_THRESHOLDS = "0.02";
+
+    /**
+     * Системное свойство, задающее количество потоков декодирования изображений
+     */
+    public static final String DECODERS_PROPERTY = "surfacescout.decoders";
+
+    private static final int DEFAULT_DECODERS = 2;
+
+    /**
+     * Системное свойство, задающее количество изображений, декодируемых заранее, до передачи
+     * рабочим потокам. По умолчанию — удвоенное количество рабочих потоков
+     */
+    public static final String PREFETCH_DEPTH_PROPERTY = "surfacescout.prefetchDepth";
+
+    /**
+     * Системное свойство, задающее объем памяти в байтах, который могут занимать изображения,
+     * декодированные заранее. Потоки декодирования не начинают новое изображение, пока объем
+     * не опустится ниже заданного, но одно изображение декодируется всегда
+     */
+    public static final String PREFETCH_BYTES_PROPERTY = "surfacescout.prefetchBytes";
+
+    private static final long DEFAULT_PREFETCH_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * Период проверки ошибок стадий потоком вывода результатов
+     */
+    private static final long FAILURE_CHECK_MILLIS = 100;
+
+    private final int workerCount;
+    private volatile List<StageMetrics> stageMetrics = List.of();
+    private volatile Prescreen prescreen;
+
+    public BatchInspector(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Количество рабочих потоков должно быть положительным: " + workerCount);
+        }
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Метод для получения количества рабочих потоков из конфигурации
+     *
+     * @return значение свойства {@value #WORKERS_PROPERTY} или количество доступных процессоров
+     */
+    public static int getConfiguredWorkerCount() {
+        return Integer.getInteger(WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Метод для получения количества уровней пирамиды из конфигурации
+     *
+     * @return значение свойства {@value #PYRAMID_LEVELS_PROPERTY}; единица, если режим пирамиды отключен
+     */
+    public static int getConfiguredPyramidLevels() {
+        return Math.max(1, Integer.getInteger(PYRAMID_LEVELS_PROPERTY, 1));
+    }
+
+    /**
+     * Метод для получения порогов отбора кандидатов для уровней пирамиды из конфигурации
+     *
+     * @param levels количество уровней пирамиды
+     * @return пороги для уровней с первого по последний
+     */
+    public static double[] getConfiguredPyramidThresholds(int levels) {
+        String[] values = System.getProperty(PYRAMID_THRESHOLDS_PROPERTY, DEFAULT_PYRAMID_THRESHOLDS).split(",");
+        double[] thresholds = new double[Math.max(0, levels - 1)];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = Double.parseDouble(values[Math.min(i, values.length - 1)].trim());
+        }
+        return thresholds;
+    }
+
+    /**
+     * Метод для получения изображений JPG и PNG в директории
+     *
+     * @param directory директория с изображениями
+     * @return массив файлов изображений или {@code null}, если директория не может быть прочитана
+     */
+    public static File[] listImageFiles(File directory) {
+        List<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), path -> {
+            String name = path.getFileName().toString().toLowerCase();
+            return name.endsWith(".jpg") || name.endsWith(".png");
+        })) {
+            for (Path path : stream) {
+                files.add(path.toFile());
+            }
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+        return files.toArray(new File[0]);
+    }
+
+    /**
+     * Метод для получения показателей стадий последнего или текущего запуска
+     *
+     * @return показатели стадий декодирования, проверки и вывода результатов
+     */
+    public List<StageMetrics> getStageMetrics() {
+        return stageMetrics;
+    }
+
+    /**
+     * Метод для получения предварительной проверки последнего или текущего запуска
+     *
+     * @return предварительная проверка или {@code null}, если она не выполнялась
+     */
+    public Prescreen getPrescreen() {
+        return prescreen;
+    }
+
+    /**
+     * Метод для пакетной проверки изображений. Блокирует вызывающий поток до завершения обработки.
+     * <p>
+     * Обработка разделена на три стадии, связанные ограниченными очередями: декодирование
+     * изображений, проверку плат и вывод результатов в вызывающем потоке. Стадия, опережающая
+     * следующую, блокируется на заполненной очереди, а общее количество изображений между
+     * декодированием и выводом ограничено, поэтому чтение с диска и вычисления перекрываются
+     * без неограниченного роста потребления памяти
+     *
+     * @param imageFiles    изображения плат
+     * @param templates     реестр шаблонов; изменения шаблонов, о которых сообщает реестр
+     *                      во время проверки, сбрасывают соответствующие подготовленные шаблоны
+     * @param sink          получатель результатов для записи найденных дефектов
+     * @param listener      получатель прогресса обработки
+     * @throws ImageReadException если не удалось загрузить шаблонное или исходное изображение
+     * @throws IOException        если не удалось записать результаты или вызывающий поток
+     *                            был прерван ({@link InterruptedIOException})
+     */
+    public void inspect(File[] imageFiles,
+                        TemplateRegistry templates,
+                        ResultSink sink,
+                        BatchListener listener) throws ImageReadException, IOException {
+        int total = imageFiles.length;
+        int decoderCount = Math.max(1, Integer.getInteger(DECODERS_PROPERTY, DEFAULT_DECODERS));
+        int prefetchDepth = Math.max(1, Integer.getInteger(PREFETCH_DEPTH_PROPERTY, workerCount * 2));
+        long prefetchBytes = Long.getLong(PREFETCH_BYTES_PROPERTY, DEFAULT_PREFETCH_BYTES);
+        InspectionPipeline pipeline = InspectionPipeline.fromConfig().fuseLoad();
+        ImageIO.LoadMode boardLoadMode = pipeline.getLoadMode();
+        prescreen = pipeline.getPrescreen();
+
+        StageMetrics decodeMetrics = new StageMetrics("decode");
+        StageMetrics inspectMetrics = new StageMetrics("inspect");
+        StageMetrics sinkMetrics = new StageMetrics("sink");
+        List<StageMetrics> metrics = new ArrayList<>(List.of(decodeMetrics, inspectMetrics, sinkMetrics));
+        metrics.addAll(pipeline.getStageMetrics());
+        stageMetrics = List.copyOf(metrics);
+        InspectionMetrics.getInstance().beginRun(stageMetrics);
+
+        TemplateCache templateCache = new TemplateCache(
+                templateCode -> loadTemplate(templateCode, templates, boardLoadMode),
+                templateCode -> loadTemplateMask(templateCode, templates),
+                TemplateCache.getConfiguredCapacity(),
+                pipeline::prepareTemplate
+        );
+        Consumer<String> invalidation = templateCache::invalidate;
+        templates.addListener(invalidation);
+
+        // Очереди между стадиями и ограничение количества изображений в обработке,
+        // чтобы завершенные, но еще не выведенные результаты не накапливались в памяти.
+        // Количество и объем заранее декодированных изображений ограничиваются отдельно
+        PrefetchBudget prefetch = new PrefetchBudget(prefetchDepth, prefetchBytes);
+        BlockingQueue<DecodedBoard> decoded = new ArrayBlockingQueue<>(prefetchDepth + workerCount);
+        BlockingQueue<InspectedBoard> inspected = new ArrayBlockingQueue<>(workerCount);
+        Semaphore inFlight = new Semaphore(prefetchDepth + workerCount * 2);
+        AtomicInteger nextIndex = new AtomicInteger();
+        AtomicInteger activeDecoders = new AtomicInteger(decoderCount);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ExecutorService decoders = Executors.newFixedThreadPool(decoderCount, createThreadFactory("batch-decoder-"));
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount, createThreadFactory("batch-worker-"));
+        Runnable abort = () -> {
+            decoders.shutdownNow();
+            workers.shutdownNow();
+        };
+
+        // Стадия декодирования; каждый поток читает файлы через собственный буфер
+        for (int i = 0; i < decoderCount; i++) {
+            decoders.execute(() -> {
+                ImageReader reader = new ImageReader();
+                try {
+                    while (true) {
+                        inFlight.acquire();
+                        int index = nextIndex.getAndIncrement();
+                        if (index >= total) {
+                            inFlight.release();
+                            break;
+                        }
+                        prefetch.acquire();
+                        long start = System.nanoTime();
+                        DecodedBoard board;
+                        try {
+                            board = decodeBoard(index, imageFiles[index], reader, boardLoadMode, templates, templateCache);
+                        } catch (ImageReadException | RuntimeException e) {
+                            prefetch.release(0);
+                            throw e;
+                        }
+                        prefetch.add(board.getSourceBytes());
+                        decodeMetrics.record(System.nanoTime() - start, total - index - 1);
+                        decodeMetrics.recordAllocation(board.getSourceBytes());
+                        try {
+                            decoded.put(board);
+                        } catch (InterruptedException e) {
+                            board.release();
+                            throw e;
+                        }
+                    }
+
+                    // Последний завершившийся поток декодирования останавливает стадию проверки
+                    if (activeDecoders.decrementAndGet() == 0) {
+                        for (int j = 0; j < workerCount; j++) {
+                            decoded.put(DecodedBoard.END);
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                    // Обработка прервана
+                } catch (Throwable t) {
+                    fail(failure, t, abort);
+                }
+            });
+        }
+
+        // Стадия проверки плат; каждый рабочий поток владеет собственными буферами
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(() -> {
+                try (MatBuffers buffers = new MatBuffers()) {
+                    while (true) {
+                        DecodedBoard board = decoded.take();
+                        if (board == DecodedBoard.END) {
+                            break;
+                        }
+                        prefetch.release(board.getSourceBytes());
+                        int queueDepth = decoded.size();
+                        long start = System.nanoTime();
+                        BoardResult result = inspectBoard(board, pipeline, buffers);
+                        inspectMetrics.record(System.nanoTime() - start, queueDepth);
+                        Mat boundedImage = result.getBoundedImage();
+                        inspectMetrics.recordAllocation(boundedImage.total() * boundedImage.elemSize());
+                        try {
+                            inspected.put(new InspectedBoard(board.index, result));
+                        } catch (InterruptedException e) {
+                            MatScope.release(result.getBoundedImage());
+                            throw e;
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                    // Обработка прервана
+                } catch (Throwable t) {
+                    fail(failure, t, abort);
+                }
+            });
+        }
+
+        // Стадия вывода результатов в исходном порядке изображений
+        Map<Integer, BoardResult> pending = new HashMap<>();
+        try {
+            int processed = 0;
+            while (processed < total) {
+                InspectedBoard board = inspected.poll(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (board != null) {
+                    pending.put(board.index, board.result);
+                }
+                rethrow(failure.get());
+                if (board == null) {
+                    continue;
+                }
+
+                BoardResult result;
+                while ((result = pending.remove(processed)) != null) {
+                    int queueDepth = inspected.size() + pending.size();
+                    long start = System.nanoTime();
+                    complete(result, sink, listener, ++processed, total);
+                    inFlight.release();
+                    sinkMetrics.record(System.nanoTime() - start, queueDepth);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Проверка прервана");
+            interrupted.initCause(e);
+            throw interrupted;
+        } finally {
+            shutdown(decoders);
+            shutdown(workers);
+            releasePending(decoded, inspected, pending);
+            templates.removeListener(invalidation);
+            templateCache.close();
+            MatScope.printLeaks(System.err);
+        }
+    }
+
+    /**
+     * Метод для фиксации первой ошибки стадии и остановки остальных стадий
+     *
+     * @param failure ссылка на первую ошибку
+     * @param t       ошибка стадии
+     * @param abort   действие по остановке стадий
+     */
+    private static void fail(AtomicReference<Throwable> failure, Throwable t, Runnable abort) {
+        if (failure.compareAndSet(null, t)) {
+            abort.run();
+        }
+    }
+
+    /**
+     * Метод для передачи ошибки стадии в вызывающий поток
+     *
+     * @param failure ошибка стадии или {@code null}
+     * @throws ImageReadException если стадия завершилась ошибкой загрузки изображения
+     */
+    private static void rethrow(Throwable failure) throws ImageReadException {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof ImageReadException ire) {
+            throw ire;
+        }
+        if (failure instanceof RuntimeException re) {
+            throw re;
+        }
+        if (failure instanceof Error error) {
+            throw error;
+        }
+        throw new RuntimeException(failure);
+    }
+
+    /**
+     * Метод для остановки пула с ожиданием завершения выполняющихся задач,
+     * после которого буферы рабочих потоков освобождены
+     *
+     * @param pool пул потоков стадии
+     */
+    private static void shutdown(ExecutorService pool) {
+        pool.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Метод для освобождения изображений, оставшихся в очередях
+     * при досрочном прекращении обработки
+     *
+     * @param decoded   очередь декодированных изображений
+     * @param inspected очередь проверенных плат
+     * @param pending   проверенные платы, ожидающие вывода
+     */
+    private static void releasePending(BlockingQueue<DecodedBoard> decoded,
+                                       BlockingQueue<InspectedBoard> inspected,
+                                       Map<Integer, BoardResult> pending) {
+        decoded.forEach(DecodedBoard::release);
+        decoded.clear();
+        inspected.forEach(board -> MatScope.release(board.result.getBoundedImage()));
+        inspected.clear();
+        pending.values().forEach(result -> MatScope.release(result.getBoundedImage()));
+        pending.clear();
+    }
+
+    /**
+     * Метод для записи результата проверки платы и его передачи получателю.
+     * После возврата из получателя изображение платы освобождается
+     *
+     * @param result    результат проверки платы
+     * @param sink      получатель результатов
+     * @param listener  получатель прогресса обработки
+     * @param processed количество обработанных изображений с учетом текущего
+     * @param total     общее количество изображений
+     * @throws IOException если не удалось записать результат
+     */
+    private static void complete(BoardResult result,
+                                 ResultSink sink,
+                                 BatchListener listener,
+                                 int processed,
+                                 int total) throws IOException {
+        try {
+            sink.write(result);
+            InspectionMetrics.getInstance().recordImage();
+            listener.boardInspected(result, processed, total);
+        } finally {
+            MatScope.release(result.getBoundedImage());
+        }
+    }
+
+    /**
+     * Метод для загрузки шаблона по коду и его приведения к виду, пригодному для сравнения
+     *
+     * @param templateCode  код шаблона
+     * @param templates     реестр шаблонов
+     * @param loadMode      представление, в котором ожидает шаблон конвейер проверки
+     * @return шаблон в представлении конвейера
+     * @throws ImageReadException если шаблон не найден или не может быть загружен
+     */
+    static Mat loadTemplate(String templateCode,
+                            TemplateRegistry templates,
+                            ImageIO.LoadMode loadMode) throws ImageReadException {
+        // Шаблон декодируется сразу в представлении, которое ожидает конвейер
+        try {
+            File templateFile = templates.resolve(templateCode);
+            if (templateFile == null) {
+                throw new ImageReadException("Шаблон не найден для кода: " + templateCode);
+            }
+            return ImageIO.loadImage(templateFile.toString(), loadMode);
+        } catch (ImageReadException ire) {
+            throw new ImageReadException("Ошибка при загрузке шаблонного изображения: " + ire.getMessage());
+        }
+    }
+
+    /**
+     * Метод для загрузки маски проверяемой области шаблона из масок проверяемых
+     * и игнорируемых областей, лежащих рядом с файлом шаблона
+     *
+     * @param templateCode код шаблона
+     * @param templates    реестр шаблонов
+     * @return маска исходного разрешения шаблона или {@code null}, если масок нет
+     * @throws ImageReadException если не удалось загрузить маску
+     */
+    static Mat loadTemplateMask(String templateCode,
+                                TemplateRegistry templates) throws ImageReadException {
+        File roiFile = templates.resolveMask(templateCode, TemplateRegistry.ROI_SUFFIX);
+        File ignoreFile = templates.resolveMask(templateCode, TemplateRegistry.IGNORE_SUFFIX);
+        if (roiFile == null && ignoreFile == null) {
+            return null;
+        }
+        try (MatScope scope = new MatScope()) {
+            Mat roi = roiFile == null
+                    ? null
+                    : scope.track(ImageIO.loadImage(roiFile.toString(), ImageIO.LoadMode.GRAYSCALE));
+            Mat ignore = ignoreFile == null
+                    ? null
+                    : scope.track(ImageIO.loadImage(ignoreFile.toString(), ImageIO.LoadMode.GRAYSCALE));
+            return InspectionMask.combine(roi, ignore);
+        } catch (ImageReadException ire) {
+            throw new ImageReadException("Ошибка при загрузке маски шаблона: " + ire.getMessage());
+        }
+    }
+
+    /**
+     * Метод для декодирования изображения платы и получения соответствующего ей шаблона
+     *
+     * @param index         порядковый номер изображения
+     * @param imageFile     изображение платы
+     * @param reader        буфер чтения изображений потока декодирования
+     * @param loadMode      представление, в котором декодируется изображение
+     * @param templates     реестр шаблонов, определяющий код шаблона платы
+     * @param templateCache кэш подготовленных шаблонов
+     * @return декодированная плата с подготовленным шаблоном
+     * @throws ImageReadException если не удалось загрузить изображение или шаблон
+     */
+    private static DecodedBoard decodeBoard(int index,
+                                            File imageFile,
+                                            ImageReader reader,
+                                            ImageIO.LoadMode loadMode,
+                                            TemplateRegistry templates,
+                                            TemplateCache templateCache) throws ImageReadException {
+        // Получение подготовленного шаблона
+        String templateCode = templates.keyOf(imageFile);
+        if (templateCode == null) {
+            throw new ImageReadException("Не удалось определить код шаблона для изображения: " + imageFile.getName());
+        }
+        PreparedTemplate template = templateCache.get(templateCode);
+
+        // Загрузка исходного изображения
+        try {
+            return new DecodedBoard(index, imageFile, templateCode,
+                    reader.read(imageFile.toPath(), loadMode), template);
+        } catch (ImageReadException ire) {
+            template.release();
+            throw new ImageReadException("Ошибка при загрузке исходного изображения: " + ire.getMessage());
+        }
+    }
+
+    /**
+     * Метод для проверки одной платы конвейером проверки. Промежуточные матрицы берутся
+     * из буферов рабочего потока, поэтому после первого изображения нативная память
+     * выделяется только для итогового изображения с выделенными дефектами.
+     * Декодированное изображение и ссылка на шаблон освобождаются по завершении проверки
+     *
+     * @param board    декодированная плата с подготовленным шаблоном
+     * @param pipeline конвейер проверки, объединенный с декодированием
+     * @param buffers  буферы промежуточных матриц рабочего потока
+     * @return результат проверки платы
+     */
+    private static BoardResult inspectBoard(DecodedBoard board, InspectionPipeline pipeline, MatBuffers buffers) {
+        try (MatScope scope = new MatScope()) {
+            Mat source = scope.track(board.source);
+            List<Rect> defects = pipeline.inspect(source, board.template, buffers);
+            return new BoardResult(board.imageFile, board.templateCode, pipeline.renderDefects(source, defects), defects);
+        } finally {
+            board.template.release();
+        }
+    }
+
+    /**
+     * Метод для создания фабрики именованных фоновых потоков
+     *
+     * @param namePrefix префикс имени потоков
+     * @return фабрика потоков
+     */
+    static ThreadFactory createThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Декодированное изображение платы, ожидающее проверки
+     */
+    private static final class DecodedBoard {
+
+        /**
+         * Маркер завершения стадии декодирования
+         */
+        static final DecodedBoard END = new DecodedBoard(-1, null, null, null, null);
+
+        final int index;
+        final File imageFile;
+        final String templateCode;
+        final Mat source;
+        final PreparedTemplate template;
+
+        DecodedBoard(int index, File imageFile, String templateCode, Mat source, PreparedTemplate template) {
+            this.index = index;
+            this.imageFile = imageFile;
+            this.templateCode = templateCode;
+            this.source = source;
+            this.template = template;
+        }
+
+        /**
+         * @return размер данных декодированного изображения в байтах
+         */
+        long getSourceBytes() {
+            return source.total() * source.elemSize();
+        }
+
+        /**
+         * Метод для освобождения изображения и ссылки на шаблон без проверки платы
+         */
+        void release() {
+            if (this != END) {
+                MatScope.release(source);
+                template.release();
+            }
+        }
+    }
+
+    /**
+     * Ограничение количества и объема изображений, декодированных заранее и еще не взятых
+     * рабочими потоками. Место резервируется до декодирования, а объем изображения
+     * учитывается после него, поэтому ограничение объема может быть превышено не более
+     * чем на одно изображение на поток декодирования
+     */
+    private static final class PrefetchBudget {
+
+        private final int depth;
+        private final long capacityBytes;
+        private int count;
+        private long bytes;
+
+        PrefetchBudget(int depth, long capacityBytes) {
+            this.depth = depth;
+            this.capacityBytes = capacityBytes;
+        }
+
+        /**
+         * Метод для резервирования места под изображение. Блокирует поток, пока
+         * количество или объем заранее декодированных изображений достигает ограничения
+         *
+         * @throws InterruptedException если поток был прерван во время ожидания
+         */
+        synchronized void acquire() throws InterruptedException {
+            while (count >= depth || (count > 0 && bytes >= capacityBytes)) {
+                wait();
+            }
+            count++;
+        }
+
+        /**
+         * Метод для учета объема декодированного изображения
+         *
+         * @param imageBytes размер данных изображения в байтах
+         */
+        synchronized void add(long imageBytes) {
+            bytes += imageBytes;
+        }
+
+        /**
+         * Метод для освобождения места, занятого изображением
+         *
+         * @param imageBytes учтенный размер данных изображения в байтах
+         */
+        synchronized void release(long imageBytes) {
+            count--;
+            bytes -= imageBytes;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Результат проверки платы с ее порядковым номером
+     */
+    private static final class InspectedBoard {
+
+        final int index;
+        final BoardResult result;
+
+        InspectedBoard(int index, BoardResult result) {
+            this.index = index;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package batch;
+
+/**
+ * Интерфейс получателя прогресса пакетной обработки.
+ * Методы вызываются из потока, запустившего обработку, строго в порядке
+ * следования изображений, поэтому реализации, работающие со Swing,
+ * должны самостоятельно передавать управление в EDT. Изображение платы
+ * освобождается сразу после возврата из метода, поэтому получатель, которому оно
+ * нужно позже, должен преобразовать или скопировать его внутри вызова
+ */
+public interface BatchListener {
+
+    /**
+     * Метод, вызываемый после проверки очередной платы
+     *
+     * @param result    результат проверки платы
+     * @param processed количество уже обработанных изображений
+     * @param total     общее количество изображений
+     */
+    void boardInspected(BoardResult result, int processed, int total);
+}
@@ -0,0 +1,54 @@
+package batch;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Класс, описывающий результат проверки одной платы в пакетном режиме
+ */
+public class BoardResult {
+
+    private final File imageFile;
+    private final String templateCode;
+    private final Mat boundedImage;
+    private final List<Rect> defects;
+
+    public BoardResult(File imageFile, String templateCode, Mat boundedImage, List<Rect> defects) {
+        this.imageFile = imageFile;
+        this.templateCode = templateCode;
+        this.boundedImage = boundedImage;
+        this.defects = defects;
+    }
+
+    /**
+     * @return файл изображения проверенной платы
+     */
+    public File getImageFile() {
+        return imageFile;
+    }
+
+    /**
+     * @return код шаблона, с которым сравнивалась плата
+     */
+    public String getTemplateCode() {
+        return templateCode;
+    }
+
+    /**
+     * @return изображение платы с выделенными дефектами или {@code null} для результатов,
+     * полученных от узлов распределенной проверки ({@link InspectionCoordinator})
+     */
+    public Mat getBoundedImage() {
+        return boundedImage;
+    }
+
+    /**
+     * @return список прямоугольников, ограничивающих найденные дефекты
+     */
+    public List<Rect> getDefects() {
+        return defects;
+    }
+}
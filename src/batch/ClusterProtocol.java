@@ -0,0 +1,168 @@
+package batch;
+
+import org.opencv.core.Rect;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Класс, определяющий протокол обмена координатора ({@link InspectionCoordinator})
+ * с узлами проверки ({@link InspectionNode}) поверх TCP.
+ * <p>
+ * Числа передаются в порядке байтов big-endian, строки — в модифицированной UTF-8
+ * ({@link DataOutputStream#writeUTF}). После подключения координатор передает {@link #MAGIC},
+ * узел отвечает тем же значением и количеством своих рабочих потоков. Далее координатор передает:
+ * <ul>
+ *     <li>{@link #SHARD}: {@code int} номер партии, {@code int} количество плат и пути к изображениям плат;</li>
+ *     <li>{@link #CLOSE}: завершение сеанса.</li>
+ * </ul>
+ * На каждую партию узел отвечает в порядке завершения партий:
+ * <ul>
+ *     <li>{@link #RESULT}: {@code int} номер партии, {@code int} количество плат и для каждой платы
+ *     в порядке запроса {@code int} количество дефектов и по четыре {@code int} (x, y, width, height) на дефект;</li>
+ *     <li>{@link #ERROR}: {@code int} номер партии и описание ошибки.</li>
+ * </ul>
+ */
+final class ClusterProtocol {
+
+    /**
+     * Признак протокола {@code SSW1}
+     */
+    static final int MAGIC = 0x53535731;
+
+    static final byte CLOSE = 0;
+    static final byte SHARD = 1;
+    static final byte RESULT = 1;
+    static final byte ERROR = 2;
+
+    /**
+     * Наибольшая длина передаваемого описания ошибки в символах
+     */
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+
+    private ClusterProtocol() {
+    }
+
+    /**
+     * Метод для чтения и проверки признака протокола
+     *
+     * @param in поток чтения
+     * @throws IOException если признак не совпадает или возникла ошибка чтения
+     */
+    static void readMagic(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Неизвестный протокол: " + Integer.toHexString(magic));
+        }
+    }
+
+    /**
+     * Метод для записи партии плат
+     *
+     * @param out   поток записи
+     * @param id    номер партии
+     * @param paths пути к изображениям плат
+     * @throws IOException если возникла ошибка записи
+     */
+    static void writeShard(DataOutputStream out, int id, List<String> paths) throws IOException {
+        out.writeByte(SHARD);
+        out.writeInt(id);
+        out.writeInt(paths.size());
+        for (String path : paths) {
+            out.writeUTF(path);
+        }
+    }
+
+    /**
+     * Метод для чтения путей к изображениям партии после ее номера
+     *
+     * @param in поток чтения
+     * @return пути к изображениям плат
+     * @throws IOException если возникла ошибка чтения
+     */
+    static List<String> readPaths(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<String> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            paths.add(in.readUTF());
+        }
+        return paths;
+    }
+
+    /**
+     * Метод для записи результата партии
+     *
+     * @param out     поток записи
+     * @param id      номер партии
+     * @param defects прямоугольники дефектов плат в порядке запроса
+     * @throws IOException если возникла ошибка записи
+     */
+    static void writeResult(DataOutputStream out, int id, List<List<Rect>> defects) throws IOException {
+        out.writeByte(RESULT);
+        out.writeInt(id);
+        out.writeInt(defects.size());
+        for (List<Rect> board : defects) {
+            out.writeInt(board.size());
+            for (Rect rect : board) {
+                out.writeInt(rect.x);
+                out.writeInt(rect.y);
+                out.writeInt(rect.width);
+                out.writeInt(rect.height);
+            }
+        }
+    }
+
+    /**
+     * Метод для чтения дефектов плат результата партии после ее номера
+     *
+     * @param in поток чтения
+     * @return прямоугольники дефектов плат в порядке запроса
+     * @throws IOException если возникла ошибка чтения
+     */
+    static List<List<Rect>> readDefects(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<List<Rect>> defects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int rects = readCount(in);
+            List<Rect> board = new ArrayList<>(rects);
+            for (int j = 0; j < rects; j++) {
+                board.add(new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            }
+            defects.add(board);
+        }
+        return defects;
+    }
+
+    /**
+     * Метод для записи ошибки обработки партии
+     *
+     * @param out     поток записи
+     * @param id      номер партии
+     * @param message описание ошибки
+     * @throws IOException если возникла ошибка записи
+     */
+    static void writeError(DataOutputStream out, int id, String message) throws IOException {
+        String text = String.valueOf(message);
+        out.writeByte(ERROR);
+        out.writeInt(id);
+        out.writeUTF(text.length() > MAX_MESSAGE_LENGTH ? text.substring(0, MAX_MESSAGE_LENGTH) : text);
+    }
+
+    /**
+     * Метод для чтения неотрицательного количества элементов
+     *
+     * @param in поток чтения
+     * @return количество элементов
+     * @throws IOException если количество отрицательно или возникла ошибка чтения
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Некорректное количество элементов в сообщении: " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,449 @@
+package batch;
+
+import exception.ClusterException;
+import exception.ImageReadException;
+import org.opencv.core.Rect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Координатор распределенной пакетной проверки, передающий изображения плат
+ * узлам проверки ({@link InspectionNode}) в других JVM по протоколу {@link ClusterProtocol}.
+ * <p>
+ * Изображения группируются по коду шаблона и делятся на партии не больше
+ * {@value #SHARD_SIZE_PROPERTY} плат. Группы целиком распределяются по очередям узлов
+ * от больших к меньшим, поэтому каждый узел подготавливает шаблон кода один раз и затем
+ * находит его в своем кэше. Узлу одновременно передается не более двух партий, чтобы
+ * его рабочие потоки не простаивали между партиями. Неравномерность нагрузки выравнивается
+ * перехватом партий и повторным выполнением партий медленных узлов, а партии узлов,
+ * вернувших ошибку, не ответивших за {@value #TIMEOUT_PROPERTY} или потерявших соединение,
+ * выполняются повторно другими узлами ({@link ShardScheduler}).
+ * <p>
+ * Узлы читают изображения и шаблоны по тем же путям, что и координатор, поэтому директории
+ * должны быть доступны узлам по одинаковым путям, а узлы — запущены с той же конфигурацией
+ * конвейера проверки. Результаты логируются и передаются получателю в исходном порядке
+ * изображений без изображения платы ({@link BoardResult#getBoundedImage()} равно {@code null})
+ */
+public class InspectionCoordinator {
+
+    /**
+     * Системное свойство, задающее наибольшее количество плат в партии
+     */
+    public static final String SHARD_SIZE_PROPERTY = "surfacescout.clusterShardSize";
+
+    /**
+     * Системное свойство, задающее время ожидания подключения и ответа узла в миллисекундах
+     */
+    public static final String TIMEOUT_PROPERTY = "surfacescout.clusterTimeoutMillis";
+
+    /**
+     * Системное свойство, задающее количество ошибок партии, после которого обработка прекращается
+     */
+    public static final String MAX_ATTEMPTS_PROPERTY = "surfacescout.clusterMaxAttempts";
+
+    private static final int DEFAULT_SHARD_SIZE = 16;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 120_000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /**
+     * Количество партий, одновременно передаваемых одному узлу
+     */
+    private static final int SHARDS_IN_FLIGHT = 2;
+
+    private final List<InetSocketAddress> nodes;
+    private final int shardSize;
+    private final int timeoutMillis;
+    private final int maxAttempts;
+    private volatile List<NodeStatistics> nodeStatistics = List.of();
+
+    /**
+     * Класс, описывающий показатели узла проверки за последний запуск
+     */
+    public static class NodeStatistics {
+
+        private final String address;
+        private final int threads;
+        private final int shards;
+        private final int boards;
+        private final int stolen;
+        private final int speculative;
+        private final int failures;
+        private final String lastError;
+
+        NodeStatistics(String address, int threads, int shards, int boards,
+                       int stolen, int speculative, int failures, String lastError) {
+            this.address = address;
+            this.threads = threads;
+            this.shards = shards;
+            this.boards = boards;
+            this.stolen = stolen;
+            this.speculative = speculative;
+            this.failures = failures;
+            this.lastError = lastError;
+        }
+
+        /**
+         * @return адрес узла
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return количество плат, результаты которых получены от узла
+         */
+        public int getBoards() {
+            return boards;
+        }
+
+        /**
+         * @return количество ошибок партий узла
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("узел %s (потоков %d): партий %d, плат %d, перехвачено %d, выполнено повторно %d,"
+                            + " ошибок %d%s",
+                    address, threads, shards, boards, stolen, speculative, failures,
+                    lastError == null ? "" : ", последняя ошибка: " + lastError);
+        }
+    }
+
+    /**
+     * @param nodes         адреса узлов проверки
+     * @param shardSize     наибольшее количество плат в партии
+     * @param timeoutMillis время ожидания подключения и ответа узла в миллисекундах
+     * @param maxAttempts   количество ошибок партии, после которого обработка прекращается
+     */
+    public InspectionCoordinator(List<InetSocketAddress> nodes, int shardSize, int timeoutMillis, int maxAttempts) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Не заданы узлы проверки");
+        }
+        if (shardSize < 1) {
+            throw new IllegalArgumentException("Размер партии должен быть положительным: " + shardSize);
+        }
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("Время ожидания узла должно быть положительным: " + timeoutMillis);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Количество попыток должно быть положительным: " + maxAttempts);
+        }
+        this.nodes = List.copyOf(nodes);
+        this.shardSize = shardSize;
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Метод для создания координатора с параметрами из конфигурации
+     *
+     * @param nodes адреса узлов проверки
+     * @return координатор
+     */
+    public static InspectionCoordinator fromConfig(List<InetSocketAddress> nodes) {
+        return new InspectionCoordinator(nodes,
+                Integer.getInteger(SHARD_SIZE_PROPERTY, DEFAULT_SHARD_SIZE),
+                Integer.getInteger(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MILLIS),
+                Integer.getInteger(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS));
+    }
+
+    /**
+     * Метод для разбора списка адресов узлов вида {@code хост:порт,хост:порт}
+     *
+     * @param spec список адресов через запятую
+     * @return адреса узлов
+     * @throws IllegalArgumentException если адрес некорректен
+     */
+    public static List<InetSocketAddress> parseNodes(String spec) {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String address = part.trim();
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0 || colon == address.length() - 1) {
+                throw new IllegalArgumentException("Адрес узла должен иметь вид хост:порт: " + address);
+            }
+            try {
+                int port = Integer.parseInt(address.substring(colon + 1));
+                nodes.add(InetSocketAddress.createUnresolved(address.substring(0, colon), port));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Некорректный порт узла: " + address);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Метод для получения показателей узлов последнего запуска
+     *
+     * @return показатели узлов в порядке их адресов
+     */
+    public List<NodeStatistics> getNodeStatistics() {
+        return nodeStatistics;
+    }
+
+    /**
+     * Метод для распределенной проверки изображений. Блокирует вызывающий поток до завершения обработки
+     *
+     * @param imageFiles изображения плат
+     * @param templates  реестр шаблонов, определяющий коды шаблонов плат
+     * @param sink       получатель результатов для записи найденных дефектов
+     * @param listener   получатель прогресса обработки
+     * @throws ImageReadException если не удалось определить код шаблона изображения
+     * @throws ClusterException   если партия не обработана узлами после всех попыток
+     *                            или не осталось доступных узлов
+     * @throws IOException        если не удалось записать результаты или вызывающий поток
+     *                            был прерван ({@link InterruptedIOException})
+     */
+    public void inspect(File[] imageFiles,
+                        TemplateRegistry templates,
+                        ResultSink sink,
+                        BatchListener listener) throws ImageReadException, ClusterException, IOException {
+        int total = imageFiles.length;
+        String[] templateCodes = new String[total];
+        ShardScheduler scheduler = new ShardScheduler(
+                createQueues(imageFiles, templates, templateCodes), total, maxAttempts);
+
+        // Поток соединения для каждого узла
+        Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            int node = i;
+            Thread thread = new Thread(() -> runNode(node, scheduler, sockets), "cluster-node-" + (i + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        // Вывод результатов в исходном порядке изображений
+        try {
+            for (int index = 0; index < total; index++) {
+                List<Rect> defects = scheduler.awaitResult(index);
+                BoardResult result = new BoardResult(imageFiles[index], templateCodes[index], null, defects);
+                sink.write(result);
+                listener.boardInspected(result, index + 1, total);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Проверка прервана");
+            interrupted.initCause(e);
+            throw interrupted;
+        } finally {
+            // Соединения закрываются, чтобы прервать ожидание ответов повторно выполняемых партий
+            scheduler.finish();
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+            for (Thread thread : threads) {
+                joinUninterruptibly(thread);
+            }
+            List<NodeStatistics> statistics = new ArrayList<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                statistics.add(scheduler.getStatistics(i, format(nodes.get(i))));
+            }
+            nodeStatistics = List.copyOf(statistics);
+        }
+    }
+
+    /**
+     * Метод для разбиения изображений на партии по кодам шаблонов и распределения
+     * групп партий одного кода по очередям узлов
+     *
+     * @param imageFiles    изображения плат
+     * @param templates     реестр шаблонов
+     * @param templateCodes массив, в который записываются коды шаблонов изображений
+     * @return очереди партий узлов
+     * @throws ImageReadException если не удалось определить код шаблона изображения
+     */
+    private List<Deque<ShardScheduler.Shard>> createQueues(File[] imageFiles,
+                                                           TemplateRegistry templates,
+                                                           String[] templateCodes) throws ImageReadException {
+        // Группировка изображений по коду шаблона в порядке первого появления кода
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < imageFiles.length; i++) {
+            String templateCode = templates.keyOf(imageFiles[i]);
+            if (templateCode == null) {
+                throw new ImageReadException("Не удалось определить код шаблона для изображения: "
+                        + imageFiles[i].getName());
+            }
+            templateCodes[i] = templateCode;
+            groups.computeIfAbsent(templateCode, code -> new ArrayList<>()).add(i);
+        }
+
+        // Группы от больших к меньшим назначаются наименее загруженному узлу
+        List<List<Integer>> ordered = new ArrayList<>(groups.values());
+        ordered.sort(Comparator.comparingInt((List<Integer> group) -> group.size()).reversed());
+        List<List<ShardScheduler.Shard>> assigned = new ArrayList<>();
+        int[] load = new int[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            assigned.add(new ArrayList<>());
+        }
+        int nextId = 0;
+        for (List<Integer> group : ordered) {
+            int node = 0;
+            for (int i = 1; i < load.length; i++) {
+                if (load[i] < load[node]) {
+                    node = i;
+                }
+            }
+            load[node] += group.size();
+            for (int from = 0; from < group.size(); from += shardSize) {
+                List<Integer> part = group.subList(from, Math.min(group.size(), from + shardSize));
+                int[] indices = new int[part.size()];
+                List<String> paths = new ArrayList<>(part.size());
+                for (int i = 0; i < indices.length; i++) {
+                    indices[i] = part.get(i);
+                    paths.add(imageFiles[indices[i]].getAbsolutePath());
+                }
+                assigned.get(node).add(new ShardScheduler.Shard(nextId++, indices, paths));
+            }
+        }
+
+        // Партии узла выполняются в порядке изображений, чтобы результаты выводились без задержек
+        List<Deque<ShardScheduler.Shard>> queues = new ArrayList<>();
+        for (List<ShardScheduler.Shard> shards : assigned) {
+            shards.sort(Comparator.comparingInt(shard -> shard.indices[0]));
+            queues.add(new ArrayDeque<>(shards));
+        }
+        return queues;
+    }
+
+    /**
+     * Метод для обмена партиями с узлом до завершения обработки или потери соединения
+     *
+     * @param node      номер узла
+     * @param scheduler планировщик партий
+     * @param sockets   открытые соединения, закрываемые по завершении обработки
+     */
+    private void runNode(int node, ShardScheduler scheduler, Set<Socket> sockets) {
+        Map<Integer, ShardScheduler.Shard> outstanding = new HashMap<>();
+        Socket socket = new Socket();
+        sockets.add(socket);
+        try (socket) {
+            // Подключение и приветствие
+            InetSocketAddress address = nodes.get(node);
+            socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(ClusterProtocol.MAGIC);
+            out.flush();
+            ClusterProtocol.readMagic(in);
+            scheduler.connected(node, in.readInt());
+
+            while (true) {
+                // Передача партий; свободный узел ожидает партию, занятый — только берет свободную
+                while (outstanding.size() < SHARDS_IN_FLIGHT) {
+                    ShardScheduler.Shard shard = outstanding.isEmpty() ? scheduler.take(node) : scheduler.poll(node);
+                    if (shard == null) {
+                        break;
+                    }
+                    outstanding.put(shard.id, shard);
+                    ClusterProtocol.writeShard(out, shard.id, shard.paths);
+                }
+                out.flush();
+                if (outstanding.isEmpty()) {
+                    break;
+                }
+
+                // Ответ на одну из переданных партий
+                byte type = in.readByte();
+                ShardScheduler.Shard shard = outstanding.remove(in.readInt());
+                if (shard == null) {
+                    throw new IOException("Ответ на неизвестную партию");
+                }
+                if (type == ClusterProtocol.RESULT) {
+                    List<List<Rect>> defects = ClusterProtocol.readDefects(in);
+                    if (defects.size() != shard.indices.length) {
+                        outstanding.put(shard.id, shard);
+                        throw new IOException("Количество плат в ответе не совпадает с партией");
+                    }
+                    scheduler.complete(node, shard, defects);
+                } else if (type == ClusterProtocol.ERROR) {
+                    scheduler.fail(node, shard, in.readUTF());
+                } else {
+                    outstanding.put(shard.id, shard);
+                    throw new IOException("Неизвестный тип ответа: " + type);
+                }
+            }
+            out.writeByte(ClusterProtocol.CLOSE);
+            out.flush();
+        } catch (IOException e) {
+            // Соединение, закрытое после завершения обработки, не считается ошибкой узла
+            if (!scheduler.isFinished()) {
+                String message = e instanceof EOFException ? "соединение закрыто узлом"
+                        : e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+                scheduler.retire(node, outstanding.values(), message);
+            }
+        } catch (InterruptedException ignored) {
+            // Обработка прервана
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    /**
+     * Метод для получения строкового представления адреса узла
+     *
+     * @param address адрес узла
+     * @return адрес вида {@code хост:порт}
+     */
+    private static String format(InetSocketAddress address) {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    /**
+     * Метод для закрытия соединения без обработки ошибок
+     *
+     * @param socket соединение
+     */
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Соединение закрывается только при завершении обработки
+        }
+    }
+
+    /**
+     * Метод для ожидания завершения потока с сохранением признака прерывания
+     *
+     * @param thread поток
+     */
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
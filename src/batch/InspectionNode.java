@@ -0,0 +1,303 @@
+package batch;
+
+import exception.ImageReadException;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import util.ImageIO;
+import util.ImageReader;
+import util.MatBuffers;
+import util.MatScope;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Узел распределенной пакетной проверки, выполняющий партии плат, полученные
+ * от координатора ({@link InspectionCoordinator}) по протоколу {@link ClusterProtocol}.
+ * <p>
+ * Платы всех принятых партий проверяются общим пулом рабочих потоков, каждый из которых
+ * владеет собственными буферами и буфером чтения изображений. Подготовленные шаблоны хранятся
+ * в {@link TemplateCache} все время работы узла, поэтому партии одного кода шаблона,
+ * которые координатор направляет одному узлу, не подготавливают шаблон повторно.
+ * Изображение с выделенными дефектами не формируется: координатору передаются только
+ * прямоугольники дефектов в координатах результата конвейера проверки
+ */
+public class InspectionNode implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final TemplateRegistry templates;
+    private final int workerCount;
+    private final InspectionPipeline pipeline;
+    private final ImageIO.LoadMode loadMode;
+    private final TemplateCache templateCache;
+    private final Consumer<String> invalidation;
+    private final BlockingQueue<BoardTask> tasks = new LinkedBlockingQueue<>();
+    private final ExecutorService workers;
+    private final ExecutorService connections;
+
+    /**
+     * @param port        порт для подключения координаторов; ноль — любой свободный порт
+     * @param templates   реестр шаблонов; изменения шаблонов сбрасывают подготовленные шаблоны
+     * @param workerCount количество рабочих потоков
+     * @throws IOException если не удалось открыть порт
+     */
+    public InspectionNode(int port, TemplateRegistry templates, int workerCount) throws IOException {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Количество рабочих потоков должно быть положительным: " + workerCount);
+        }
+        this.templates = templates;
+        this.workerCount = workerCount;
+        this.pipeline = InspectionPipeline.fromConfig().fuseLoad();
+        this.loadMode = pipeline.getLoadMode();
+        this.templateCache = new TemplateCache(
+                templateCode -> BatchInspector.loadTemplate(templateCode, templates, loadMode),
+                templateCode -> BatchInspector.loadTemplateMask(templateCode, templates),
+                TemplateCache.getConfiguredCapacity(),
+                pipeline::prepareTemplate
+        );
+        this.invalidation = templateCache::invalidate;
+        this.serverSocket = new ServerSocket(port);
+        templates.addListener(invalidation);
+
+        workers = Executors.newFixedThreadPool(workerCount, BatchInspector.createThreadFactory("node-worker-"));
+        connections = Executors.newCachedThreadPool(BatchInspector.createThreadFactory("node-connection-"));
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::runWorker);
+        }
+    }
+
+    /**
+     * @return порт, на котором узел принимает подключения
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return количество рабочих потоков
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Метод для приема подключений координаторов. Блокирует вызывающий поток до закрытия узла
+     *
+     * @throws IOException если возникла ошибка приема подключения
+     */
+    public void serve() throws IOException {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                // Порт закрыт методом close
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    /**
+     * Метод для остановки узла: закрывает порт и соединения, прерывает рабочие потоки
+     * и снимает ссылки кэша на подготовленные шаблоны
+     */
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // Порт закрывается только при остановке узла
+        }
+        connections.shutdownNow();
+        workers.shutdownNow();
+        tasks.clear();
+        templates.removeListener(invalidation);
+        templateCache.close();
+    }
+
+    /**
+     * Метод для обмена сообщениями с координатором до завершения сеанса или потери соединения.
+     * Партии, не завершенные к моменту потери соединения, отменяются
+     *
+     * @param socket соединение с координатором
+     */
+    private void handle(Socket socket) {
+        List<CompletableFuture<List<Rect>>> submitted = new ArrayList<>();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            ClusterProtocol.readMagic(in);
+            synchronized (out) {
+                out.writeInt(ClusterProtocol.MAGIC);
+                out.writeInt(workerCount);
+                out.flush();
+            }
+
+            while (true) {
+                byte type = in.readByte();
+                if (type == ClusterProtocol.CLOSE) {
+                    break;
+                }
+                if (type != ClusterProtocol.SHARD) {
+                    throw new IOException("Неизвестный тип сообщения: " + type);
+                }
+                int id = in.readInt();
+                List<String> paths = ClusterProtocol.readPaths(in);
+                submitted.removeIf(CompletableFuture::isDone);
+                submitted.addAll(submit(id, paths, out));
+            }
+        } catch (IOException ignored) {
+            // Координатор повторит незавершенные партии на других узлах
+        } finally {
+            submitted.forEach(future -> future.cancel(false));
+        }
+    }
+
+    /**
+     * Метод для постановки плат партии в очередь рабочих потоков. Ответ координатору
+     * отправляется после проверки всех плат или при первой ошибке, после которой
+     * оставшиеся платы партии не проверяются
+     *
+     * @param id    номер партии
+     * @param paths пути к изображениям плат
+     * @param out   поток записи ответов координатору
+     * @return результаты проверки плат партии
+     */
+    private List<CompletableFuture<List<Rect>>> submit(int id, List<String> paths, DataOutputStream out) {
+        List<CompletableFuture<List<Rect>>> results = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            BoardTask task = new BoardTask(new File(path));
+            results.add(task.result);
+            tasks.add(task);
+        }
+        results.forEach(result -> result.whenComplete((defects, error) -> {
+            if (error != null) {
+                results.forEach(other -> other.cancel(false));
+            }
+        }));
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+            try {
+                synchronized (out) {
+                    if (error == null) {
+                        List<List<Rect>> defects = new ArrayList<>(results.size());
+                        results.forEach(result -> defects.add(result.join()));
+                        ClusterProtocol.writeResult(out, id, defects);
+                    } else {
+                        ClusterProtocol.writeError(out, id, describe(results));
+                    }
+                    out.flush();
+                }
+            } catch (IOException ignoredWrite) {
+                // Соединение потеряно; партия будет повторена координатором
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Метод для получения описания первой ошибки проверки плат партии
+     *
+     * @param results результаты проверки плат партии
+     * @return описание ошибки
+     */
+    private static String describe(List<CompletableFuture<List<Rect>>> results) {
+        for (CompletableFuture<List<Rect>> result : results) {
+            if (result.isCompletedExceptionally() && !result.isCancelled()) {
+                try {
+                    result.join();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    return cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+                }
+            }
+        }
+        return "Партия отменена";
+    }
+
+    /**
+     * Метод рабочего потока, проверяющего платы из очереди до остановки узла
+     */
+    private void runWorker() {
+        ImageReader reader = new ImageReader();
+        try (MatBuffers buffers = new MatBuffers()) {
+            while (true) {
+                BoardTask task = tasks.take();
+                // Платы отмененных партий пропускаются
+                if (task.result.isDone()) {
+                    continue;
+                }
+                try {
+                    task.result.complete(inspectBoard(task.imageFile, reader, buffers));
+                } catch (ImageReadException | RuntimeException e) {
+                    task.result.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // Узел остановлен
+        }
+    }
+
+    /**
+     * Метод для проверки одной платы
+     *
+     * @param imageFile изображение платы
+     * @param reader    буфер чтения изображений рабочего потока
+     * @param buffers   буферы промежуточных матриц рабочего потока
+     * @return прямоугольники дефектов
+     * @throws ImageReadException если не удалось загрузить изображение или шаблон
+     */
+    private List<Rect> inspectBoard(File imageFile, ImageReader reader, MatBuffers buffers) throws ImageReadException {
+        String templateCode = templates.keyOf(imageFile);
+        if (templateCode == null) {
+            throw new ImageReadException("Не удалось определить код шаблона для изображения: " + imageFile.getName());
+        }
+        PreparedTemplate template = templateCache.get(templateCode);
+        try (MatScope scope = new MatScope()) {
+            Mat source;
+            try {
+                source = scope.track(reader.read(imageFile.toPath(), loadMode));
+            } catch (ImageReadException ire) {
+                throw new ImageReadException("Ошибка при загрузке исходного изображения "
+                        + imageFile.getName() + ": " + ire.getMessage());
+            }
+            return pipeline.inspect(source, template, buffers);
+        } finally {
+            template.release();
+        }
+    }
+
+    /**
+     * Плата партии, ожидающая проверки
+     */
+    private static final class BoardTask {
+
+        final File imageFile;
+        final CompletableFuture<List<Rect>> result = new CompletableFuture<>();
+
+        BoardTask(File imageFile) {
+            this.imageFile = imageFile;
+        }
+    }
+}
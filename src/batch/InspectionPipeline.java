@@ -0,0 +1,453 @@
+package batch;
+
+import metrics.StageMetrics;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import util.Alignment;
+import util.ImageIO;
+import util.InspectionMask;
+import util.MatBuffers;
+import util.MatScope;
+import util.MatchKernel;
+import util.MatchKernels;
+import util.MatchSettings;
+import util.Processing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Класс, определяющий скомпилированный конвейер проверки платы: последовательность
+ * стадий {@link InspectionStage}, после которой по контурам результата находятся
+ * прямоугольники дефектов.
+ * <p>
+ * При компиляции каждой стадии назначается одна из двух матриц для результата:
+ * стадии, выполняемые на месте, пишут результат в свою исходную матрицу, остальные —
+ * в другую матрицу пары. Поэтому промежуточные результаты цепочки любой длины
+ * занимают не более двух матриц из буферов вызывающего потока, а входное изображение
+ * не изменяется. Ведущие стадии, которые может выполнить декодер изображений,
+ * объединяются с декодированием методом {@link #fuseLoad()}.
+ * <p>
+ * Перед сравнением с шаблоном может выполняться предварительная проверка {@link Prescreen},
+ * которая завершает проверку платы, близкой к шаблону, без поиска дефектов.
+ * Если для шаблона задана маска проверяемой области ({@link InspectionMask}), сравнение
+ * с шаблоном, дилатация и поиск контуров выполняются только внутри нее. Окно, шаг,
+ * примитив дилатации и порог дефектов задаются параметрами {@link MatchSettings},
+ * с которыми конвейер подготавливает шаблоны.
+ * <p>
+ * Конвейер не изменяется после создания и используется всеми рабочими потоками;
+ * время каждой стадии накапливается в {@link #getStageMetrics()}
+ */
+public class InspectionPipeline {
+
+    /**
+     * Системное свойство, задающее стадии конвейера через запятую: halve, gray, align, blur, clahe,
+     * match и dilate. Стадии до match применяются и к шаблону; align совмещает плату с шаблоном
+     * и, если положение плат на снимках может меняться, указывается перед blur. Движок сравнения
+     * задается свойством {@link util.MatchKernels#ENGINE_PROPERTY}. Режимы сравнения задаются
+     * свойствами {@link BatchInspector#TILE_ROWS_PROPERTY} и {@link BatchInspector#PYRAMID_LEVELS_PROPERTY}
+     */
+    public static final String PIPELINE_PROPERTY = "surfacescout.pipeline";
+
+    private static final String DEFAULT_PIPELINE = "halve,gray,blur,clahe,match,dilate";
+
+    /**
+     * Конвейер по умолчанию в режиме пирамиды, в котором изображение не уменьшается вдвое
+     */
+    private static final String DEFAULT_PYRAMID_PIPELINE = "gray,blur,clahe,match,dilate";
+
+    private static final String[] BUFFER_NAMES = {"pipeline.0", "pipeline.1"};
+
+    private final List<InspectionStage> stages;
+    private final int[] outputSlots;
+    private final int matchIndex;
+    private final int alignIndex;
+    private final ImageIO.LoadMode loadMode;
+    private final Prescreen prescreen;
+    private final MatchSettings settings;
+    private final List<StageMetrics> stageTimings;
+    private final List<StageMetrics> stageMetrics;
+    private final StageMetrics contourMetrics = new StageMetrics("contours");
+
+    private InspectionPipeline(List<InspectionStage> stages,
+                               ImageIO.LoadMode loadMode,
+                               Prescreen prescreen,
+                               MatchSettings settings) {
+        this.stages = List.copyOf(stages);
+        this.loadMode = loadMode;
+        this.prescreen = prescreen;
+        this.settings = settings;
+
+        // Поиск стадии сравнения с шаблоном
+        int match = -1;
+        for (int i = 0; i < this.stages.size(); i++) {
+            if (this.stages.get(i).isMatching()) {
+                if (match >= 0) {
+                    throw new IllegalArgumentException("Конвейер содержит несколько стадий сравнения с шаблоном");
+                }
+                match = i;
+            }
+        }
+        if (match < 0) {
+            throw new IllegalArgumentException("Конвейер не содержит стадии сравнения с шаблоном");
+        }
+        matchIndex = match;
+
+        // Поиск стадии совмещения с шаблоном
+        int align = -1;
+        for (int i = 0; i < this.stages.size(); i++) {
+            if (this.stages.get(i).isAligning()) {
+                if (align >= 0 || i > matchIndex) {
+                    throw new IllegalArgumentException(
+                            "Конвейер может содержать одну стадию совмещения перед сравнением с шаблоном");
+                }
+                align = i;
+            }
+        }
+        alignIndex = align;
+
+        // Назначение матриц результатов; -1 обозначает входное изображение
+        outputSlots = new int[this.stages.size()];
+        int slot = -1;
+        for (int i = 0; i < outputSlots.length; i++) {
+            if (!this.stages.get(i).supportsInPlace() || slot < 0) {
+                slot = slot == 0 ? 1 : 0;
+            }
+            outputSlots[i] = slot;
+        }
+
+        List<StageMetrics> timings = new ArrayList<>();
+        for (InspectionStage stage : this.stages) {
+            timings.add(new StageMetrics(stage.getName()));
+        }
+        stageTimings = List.copyOf(timings);
+
+        List<StageMetrics> metrics = new ArrayList<>(stageTimings);
+        if (prescreen != null) {
+            metrics.add(matchIndex, prescreen.getMetrics());
+        }
+        metrics.add(contourMetrics);
+        stageMetrics = List.copyOf(metrics);
+    }
+
+    /**
+     * Метод для создания конвейера из стадий
+     *
+     * @param stages стадии конвейера, ровно одна из которых сравнивает изображение с шаблоном
+     * @return конвейер, входом которого является цветное изображение исходного размера
+     */
+    public static InspectionPipeline of(List<InspectionStage> stages) {
+        return of(stages, MatchSettings.DEFAULT);
+    }
+
+    /**
+     * Метод для создания конвейера из стадий с заданными параметрами сравнения
+     *
+     * @param stages   стадии конвейера, ровно одна из которых сравнивает изображение с шаблоном
+     * @param settings параметры сравнения с шаблоном и выделения дефектов
+     * @return конвейер, входом которого является цветное изображение исходного размера
+     */
+    public static InspectionPipeline of(List<InspectionStage> stages, MatchSettings settings) {
+        return new InspectionPipeline(stages, ImageIO.LoadMode.COLOR, null, settings);
+    }
+
+    /**
+     * Метод для создания конвейера по описанию стадий. Режимы сравнения с шаблоном
+     * берутся из конфигурации {@link BatchInspector}, параметры окна — из {@link MatchSettings#fromConfig()}
+     *
+     * @param spec названия стадий через запятую
+     * @return конвейер, входом которого является цветное изображение исходного размера
+     */
+    public static InspectionPipeline parse(String spec) {
+        int tileRows = Integer.getInteger(BatchInspector.TILE_ROWS_PROPERTY, 0);
+        int pyramidLevels = BatchInspector.getConfiguredPyramidLevels();
+        double[] pyramidThresholds = BatchInspector.getConfiguredPyramidThresholds(pyramidLevels);
+        MatchKernel kernel = MatchKernels.fromConfig();
+
+        List<InspectionStage> stages = new ArrayList<>();
+        for (String name : spec.split(",")) {
+            if (!name.isBlank()) {
+                stages.add(InspectionStages.forName(name.trim(), tileRows, kernel, pyramidLevels, pyramidThresholds));
+            }
+        }
+        return of(stages, MatchSettings.fromConfig());
+    }
+
+    /**
+     * Метод для создания конвейера из конфигурации
+     *
+     * @return конвейер по значению свойства {@value #PIPELINE_PROPERTY} или конвейер по умолчанию
+     * с предварительной проверкой, если она задана свойством {@value Prescreen#BOUND_PROPERTY}
+     */
+    public static InspectionPipeline fromConfig() {
+        String defaultSpec = BatchInspector.getConfiguredPyramidLevels() > 1
+                ? DEFAULT_PYRAMID_PIPELINE
+                : DEFAULT_PIPELINE;
+        return parse(System.getProperty(PIPELINE_PROPERTY, defaultSpec)).withPrescreen(Prescreen.fromConfig());
+    }
+
+    /**
+     * Метод для создания конвейера с предварительной проверкой перед сравнением с шаблоном
+     *
+     * @param prescreen предварительная проверка или {@code null}, чтобы ее отключить
+     * @return конвейер с теми же стадиями и новыми показателями
+     */
+    public InspectionPipeline withPrescreen(Prescreen prescreen) {
+        return prescreen == this.prescreen ? this : new InspectionPipeline(stages, loadMode, prescreen, settings);
+    }
+
+    /**
+     * Метод для создания конвейера с другими параметрами сравнения, например, при подборе шага окон
+     *
+     * @param settings параметры сравнения с шаблоном и выделения дефектов
+     * @return конвейер с теми же стадиями и новыми показателями; шаблоны для него
+     * подготавливаются заново
+     */
+    public InspectionPipeline withSettings(MatchSettings settings) {
+        return settings == this.settings ? this : new InspectionPipeline(stages, loadMode, prescreen, settings);
+    }
+
+    /**
+     * Метод для объединения ведущих стадий с декодированием изображения. Стадии
+     * удаляются из конвейера, пока декодер может выполнить их сам, например,
+     * уменьшение вдвое и преобразование к оттенкам серого заменяются декодированием
+     * в представлении {@link ImageIO.LoadMode#GRAYSCALE_HALF}
+     *
+     * @return конвейер, входом которого является изображение в представлении {@link #getLoadMode()}
+     */
+    public InspectionPipeline fuseLoad() {
+        ImageIO.LoadMode mode = loadMode;
+        int fused = 0;
+        while (fused < matchIndex) {
+            ImageIO.LoadMode next = stages.get(fused).fuseIntoLoad(mode);
+            if (next == null) {
+                break;
+            }
+            mode = next;
+            fused++;
+        }
+        return fused == 0
+                ? this
+                : new InspectionPipeline(stages.subList(fused, stages.size()), mode, prescreen, settings);
+    }
+
+    /**
+     * @return представление, в котором конвейер ожидает входное изображение и шаблон
+     */
+    public ImageIO.LoadMode getLoadMode() {
+        return loadMode;
+    }
+
+    /**
+     * @return во сколько раз стадии конвейера уменьшают входное изображение
+     */
+    public int getDownscale() {
+        int downscale = 1;
+        for (InspectionStage stage : stages) {
+            downscale *= stage.getDownscale();
+        }
+        return downscale;
+    }
+
+    /**
+     * @return количество уровней пирамиды, которое стадия сравнения требует от шаблона
+     */
+    public int getPyramidLevels() {
+        return stages.get(matchIndex).getPyramidLevels();
+    }
+
+    /**
+     * @return стадии конвейера
+     */
+    public List<InspectionStage> getStages() {
+        return stages;
+    }
+
+    /**
+     * @return параметры сравнения с шаблоном и выделения дефектов
+     */
+    public MatchSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return предварительная проверка или {@code null}, если она не выполняется
+     */
+    public Prescreen getPrescreen() {
+        return prescreen;
+    }
+
+    /**
+     * @return показатели стадий конвейера и поиска контуров по всем потокам
+     */
+    public List<StageMetrics> getStageMetrics() {
+        return stageMetrics;
+    }
+
+    /**
+     * Метод для подготовки шаблона: к нему применяются стадии до сравнения с шаблоном.
+     * Если конвейер совмещает плату с шаблоном, ключевые точки шаблона вычисляются
+     * здесь один раз по входу стадии совмещения
+     *
+     * @param template шаблон в представлении {@link #getLoadMode()}
+     * @return подготовленный шаблон
+     */
+    public PreparedTemplate prepareTemplate(Mat template) {
+        return prepareTemplate(template, null);
+    }
+
+    /**
+     * Метод для подготовки шаблона с маской проверяемой области. Маска приводится
+     * к разрешению шаблона после стадий до сравнения; сравнение с шаблоном, дилатация
+     * и поиск контуров затем выполняются только внутри нее
+     *
+     * @param template шаблон в представлении {@link #getLoadMode()}
+     * @param mask     маска CV_8UC1 исходного разрешения шаблона, ненулевая в проверяемых
+     *                 пикселях, или {@code null}, если проверяется весь шаблон
+     * @return подготовленный шаблон
+     * @see InspectionMask#combine(Mat, Mat)
+     */
+    public PreparedTemplate prepareTemplate(Mat template, Mat mask) {
+        try (MatBuffers buffers = new MatBuffers()) {
+            Mat current = template;
+            Alignment.Features features = null;
+            if (alignIndex >= 0) {
+                current = run(template, null, buffers, 0, alignIndex, false);
+                features = Alignment.computeFeatures(current);
+            }
+            Mat preprocessed = run(current, null, buffers, Math.max(alignIndex, 0), matchIndex, false);
+            InspectionMask inspectionMask = mask == null
+                    ? null
+                    : InspectionMask.of(mask, preprocessed.size(), settings);
+            return PreparedTemplate.fromPreprocessed(
+                    preprocessed.clone(), getPyramidLevels(), features, inspectionMask, settings);
+        }
+    }
+
+    /**
+     * Метод для проверки платы
+     *
+     * @param image    изображение платы в представлении {@link #getLoadMode()}; не изменяется
+     * @param template подготовленный шаблон
+     * @param buffers  буферы промежуточных матриц вызывающего потока
+     * @return прямоугольники дефектов в координатах результата конвейера; пустой список,
+     * если плата признана чистой предварительной проверкой
+     */
+    public List<Rect> inspect(Mat image, PreparedTemplate template, MatBuffers buffers) {
+        if (prescreen == null) {
+            return findDefects(run(image, template, buffers, 0, stages.size(), true), template, buffers);
+        }
+
+        // Предварительная проверка результата стадий до сравнения с шаблоном
+        Mat preprocessed = run(image, template, buffers, 0, matchIndex, true);
+        boolean clean = prescreen.isClean(preprocessed, template.getClahe(), template.getMask(), buffers);
+        if (clean && !prescreen.isValidating()) {
+            return new ArrayList<>();
+        }
+
+        List<Rect> defects = findDefects(
+                run(preprocessed, template, buffers, matchIndex, stages.size(), true), template, buffers);
+        if (clean && !defects.isEmpty()) {
+            prescreen.recordFalseNegative();
+        }
+        return defects;
+    }
+
+    /**
+     * Метод для поиска прямоугольников дефектов по контурам результата конвейера
+     * внутри области маски шаблона, если она задана
+     *
+     * @param matched  результат последней стадии
+     * @param template подготовленный шаблон
+     * @param buffers  буферы промежуточных матриц
+     * @return прямоугольники дефектов
+     */
+    private List<Rect> findDefects(Mat matched, PreparedTemplate template, MatBuffers buffers) {
+        // Поиск контуров и отбор прямоугольников дефектов
+        long start = System.nanoTime();
+        Rect region = template.getMask() == null ? null : template.getMask().getRegion();
+        List<MatOfPoint> contours = Processing.findContours(matched, region, template.getSettings(), buffers);
+        try {
+            List<Rect> defects = new ArrayList<>();
+            for (Rect rect : Processing.getBoundingRects(contours)) {
+                if (rect.size().width >= 2 || rect.size().height >= 2) {
+                    defects.add(rect);
+                }
+            }
+            return defects;
+        } finally {
+            contours.forEach(MatScope::release);
+            contourMetrics.record(System.nanoTime() - start, 0);
+        }
+    }
+
+    /**
+     * Метод для создания цветного изображения с выделенными дефектами
+     *
+     * @param image   входное изображение конвейера
+     * @param defects прямоугольники дефектов, полученные {@link #inspect}
+     * @return новое изображение в разрешении результата конвейера
+     */
+    public Mat renderDefects(Mat image, List<Rect> defects) {
+        try (MatScope scope = new MatScope()) {
+            // Приведение изображения к разрешению результата конвейера
+            Mat scaled = image;
+            int downscale = getDownscale();
+            if (downscale > 1) {
+                scaled = scope.newMat();
+                Imgproc.resize(image, scaled,
+                        new Size((double) image.cols() / downscale, (double) image.rows() / downscale));
+            }
+
+            // Создание цветного изображения
+            Mat boundedImg = scope.newMat();
+            if (scaled.channels() == 1) {
+                Imgproc.cvtColor(scaled, boundedImg, Imgproc.COLOR_GRAY2BGR);
+            } else {
+                scaled.copyTo(boundedImg);
+            }
+
+            // Отрисовка выделений дефектов
+            for (Rect rect : defects) {
+                Imgproc.rectangle(boundedImg, rect, new Scalar(255, 0, 255), 2);
+            }
+            return scope.detach(boundedImg);
+        }
+    }
+
+    /**
+     * Метод для последовательного применения стадий к изображению
+     *
+     * @param image    входное изображение
+     * @param template подготовленный шаблон или {@code null} для стадий до сравнения
+     * @param buffers  буферы промежуточных матриц
+     * @param from     номер первой применяемой стадии; изображение должно быть результатом предыдущей
+     * @param to       номер стадии, следующей за последней применяемой
+     * @param timed    {@code true}, если время стадий необходимо учитывать в показателях
+     * @return результат последней стадии; входное изображение, если стадий нет
+     */
+    private Mat run(Mat image, PreparedTemplate template, MatBuffers buffers, int from, int to, boolean timed) {
+        Mat current = image;
+        for (int i = from; i < to; i++) {
+            long start = System.nanoTime();
+            Mat output = buffers.get(BUFFER_NAMES[outputSlots[i]]);
+            long address = output.dataAddr();
+            stages.get(i).apply(current, output, template, buffers);
+            current = output;
+            if (timed) {
+                StageMetrics metrics = stageTimings.get(i);
+                metrics.record(System.nanoTime() - start, 0);
+
+                // Смена адреса данных означает, что матрица результата была выделена заново
+                if (output.dataAddr() != address) {
+                    metrics.recordAllocation(output.total() * output.elemSize());
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,79 @@
+package batch;
+
+import org.opencv.core.Mat;
+import util.ImageIO;
+import util.MatBuffers;
+
+/**
+ * Интерфейс стадии конвейера проверки, преобразующей одно изображение в другое.
+ * <p>
+ * Реализации не хранят состояния между вызовами, поэтому один экземпляр стадии
+ * используется всеми потоками; промежуточные матрицы стадия берет из буферов
+ * вызывающего потока
+ */
+public interface InspectionStage {
+
+    /**
+     * @return название стадии в конфигурации и в показателях
+     */
+    String getName();
+
+    /**
+     * Метод для применения стадии к изображению
+     *
+     * @param src      исходное изображение
+     * @param dst      матрица для результата; совпадает с {@code src}, если стадия
+     *                 выполняется на месте ({@link #supportsInPlace()})
+     * @param template подготовленный шаблон платы
+     * @param buffers  буферы промежуточных матриц вызывающего потока
+     */
+    void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers);
+
+    /**
+     * @return {@code true}, если результат может быть записан в исходную матрицу
+     */
+    default boolean supportsInPlace() {
+        return false;
+    }
+
+    /**
+     * @return {@code true}, если стадия сравнивает изображение с шаблоном;
+     * стадии до нее применяются и к шаблону
+     */
+    default boolean isMatching() {
+        return false;
+    }
+
+    /**
+     * @return {@code true}, если стадия совмещает изображение с шаблоном; ключевые точки
+     * шаблона вычисляются при его подготовке по изображению, поступающему на вход стадии
+     */
+    default boolean isAligning() {
+        return false;
+    }
+
+    /**
+     * @return количество уровней пирамиды, которое стадия требует от шаблона
+     */
+    default int getPyramidLevels() {
+        return 1;
+    }
+
+    /**
+     * @return во сколько раз стадия уменьшает изображение
+     */
+    default int getDownscale() {
+        return 1;
+    }
+
+    /**
+     * Метод для объединения стадии с декодированием изображения
+     *
+     * @param mode представление, в котором изображение декодируется до стадии
+     * @return представление, декодирование в котором заменяет стадию,
+     * или {@code null}, если стадию нельзя выполнить при декодировании
+     */
+    default ImageIO.LoadMode fuseIntoLoad(ImageIO.LoadMode mode) {
+        return null;
+    }
+}
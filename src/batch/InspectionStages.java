@@ -0,0 +1,285 @@
+package batch;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import util.Alignment;
+import util.Filters;
+import util.ImageIO;
+import util.InspectionMask;
+import util.MatBuffers;
+import util.MatScope;
+import util.MatchKernel;
+import util.MatchKernels;
+import util.Processing;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Утилитный класс, предоставляющий стадии конвейера проверки на основе
+ * методов {@link Filters} и {@link Processing}
+ */
+public class InspectionStages {
+
+    /**
+     * Метод для получения стадии по названию из конфигурации
+     *
+     * @param name              название стадии: halve, gray, align, blur, clahe, match или dilate
+     * @param tileRows          высота полосы для сравнения с шаблоном по полосам или ноль
+     * @param kernel            ядро для сравнения с шаблоном в Java или {@code null} для OpenCV
+     * @param pyramidLevels     количество уровней пирамиды для сравнения с шаблоном
+     * @param pyramidThresholds пороги отбора кандидатов для уровней пирамиды, начиная с первого
+     * @return стадия конвейера
+     */
+    public static InspectionStage forName(String name,
+                                          int tileRows,
+                                          MatchKernel kernel,
+                                          int pyramidLevels,
+                                          double[] pyramidThresholds) {
+        return switch (name) {
+            case "halve" -> halve();
+            case "gray" -> gray();
+            case "align" -> align();
+            case "blur" -> blur();
+            case "clahe" -> clahe();
+            case "match" -> pyramidLevels > 1 ? matchPyramid(pyramidLevels, pyramidThresholds) : match(tileRows, kernel);
+            case "dilate" -> dilate();
+            default -> throw new IllegalArgumentException("Неизвестная стадия конвейера: " + name);
+        };
+    }
+
+    /**
+     * @return стадия уменьшения изображения вдвое
+     */
+    public static InspectionStage halve() {
+        return new InspectionStage() {
+            @Override
+            public String getName() {
+                return "halve";
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers) {
+                Imgproc.resize(src, dst, new Size((double) src.cols() / 2, (double) src.rows() / 2));
+            }
+
+            @Override
+            public int getDownscale() {
+                return 2;
+            }
+
+            @Override
+            public ImageIO.LoadMode fuseIntoLoad(ImageIO.LoadMode mode) {
+                return ImageIO.LoadMode.of(mode.getScale() * 2, mode.isGrayscale());
+            }
+        };
+    }
+
+    /**
+     * @return стадия преобразования изображения к оттенкам серого
+     */
+    public static InspectionStage gray() {
+        return new InspectionStage() {
+            @Override
+            public String getName() {
+                return "gray";
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers) {
+                if (src.channels() == 1) {
+                    src.copyTo(dst);
+                } else {
+                    Imgproc.cvtColor(src, dst, Imgproc.COLOR_BGR2GRAY);
+                }
+            }
+
+            @Override
+            public ImageIO.LoadMode fuseIntoLoad(ImageIO.LoadMode mode) {
+                return ImageIO.LoadMode.of(mode.getScale(), true);
+            }
+        };
+    }
+
+    /**
+     * @return стадия совмещения изображения с шаблоном по ключевым точкам;
+     * шаблон при подготовке проходит через стадию без изменений
+     * @see Alignment
+     */
+    public static InspectionStage align() {
+        return new InspectionStage() {
+            @Override
+            public String getName() {
+                return "align";
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers) {
+                if (template == null || template.getFeatures() == null) {
+                    src.copyTo(dst);
+                } else {
+                    Alignment.align(src, dst, template.getFeatures(), buffers);
+                }
+            }
+
+            @Override
+            public boolean isAligning() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return стадия размытия по Гауссу
+     */
+    public static InspectionStage blur() {
+        return new InspectionStage() {
+            @Override
+            public String getName() {
+                return "blur";
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers) {
+                Filters.applyGaussianBlur(src, dst);
+            }
+
+            @Override
+            public boolean supportsInPlace() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return стадия выравнивания гистограммы с помощью CLAHE
+     */
+    public static InspectionStage clahe() {
+        return new InspectionStage() {
+            @Override
+            public String getName() {
+                return "clahe";
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers) {
+                Filters.applyCLAHE(src, dst);
+            }
+        };
+    }
+
+    /**
+     * Метод для получения стадии сравнения с шаблоном целиком над изображением
+     *
+     * @param tileRows высота полосы; шаблоны выше нее сравниваются по полосам
+     *                 ({@link Processing#matchTemplateTiled}), ноль отключает режим полос
+     * @return стадия сравнения с шаблоном
+     */
+    public static InspectionStage match(int tileRows) {
+        return match(tileRows, null);
+    }
+
+    /**
+     * Метод для получения стадии сравнения с шаблоном целиком над изображением
+     * с выбором движка вычисления меры
+     *
+     * @param tileRows высота полосы; шаблоны выше нее сравниваются по полосам
+     *                 ({@link Processing#matchTemplateTiled}), ноль отключает режим полос
+     * @param kernel   ядро для вычисления меры в Java ({@link Processing#matchTemplateKernel})
+     *                 или {@code null} для вычисления средствами OpenCV
+     * @return стадия сравнения с шаблоном
+     */
+    public static InspectionStage match(int tileRows, MatchKernel kernel) {
+        return new InspectionStage() {
+            @Override
+            public String getName() {
+                return "match";
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers) {
+                // Очень большие изображения обрабатываются по полосам для ограничения пиковой памяти
+                InspectionMask mask = template.getMask();
+                if (tileRows > 0 && template.getClahe().rows() > tileRows) {
+                    try (MatScope scope = new MatScope()) {
+                        scope.track(Processing.matchTemplateTiled(template.getClahe(), src, tileRows, mask,
+                                template.getSettings(), ForkJoinPool.commonPool())).copyTo(dst);
+                    }
+                } else if (kernel != null) {
+                    Processing.matchTemplateKernel(template.getPixels(), src, kernel, mask, dst, buffers);
+                } else {
+                    Processing.matchTemplateFast(template.getClahe(), template.getWindowSqSum(), src,
+                            mask, template.getSettings(), dst, buffers);
+                }
+            }
+
+            @Override
+            public boolean isMatching() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Метод для получения стадии сравнения с шаблоном по пирамиде изображений
+     *
+     * @param levels     количество уровней пирамиды, включая исходный
+     * @param thresholds пороги отбора кандидатов для уровней пирамиды, начиная с первого
+     * @return стадия сравнения с шаблоном
+     * @see Processing#matchTemplatePyramid
+     */
+    public static InspectionStage matchPyramid(int levels, double[] thresholds) {
+        double[] levelThresholds = thresholds.clone();
+        return new InspectionStage() {
+            @Override
+            public String getName() {
+                return "match";
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers) {
+                Processing.matchTemplatePyramid(template.getLevels(), template.getWindowSqSums(), src,
+                        levelThresholds, template.getMask(), template.getSettings(), dst, buffers);
+            }
+
+            @Override
+            public boolean isMatching() {
+                return true;
+            }
+
+            @Override
+            public int getPyramidLevels() {
+                return levels;
+            }
+        };
+    }
+
+    /**
+     * @return стадия морфологической дилатации с примитивом из параметров шаблона;
+     * если для шаблона задана маска проверяемой области, дилатация выполняется только над ее областью
+     */
+    public static InspectionStage dilate() {
+        return new InspectionStage() {
+            @Override
+            public String getName() {
+                return "dilate";
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst, PreparedTemplate template, MatBuffers buffers) {
+                if (template == null) {
+                    Processing.dilateImage(src, dst);
+                } else {
+                    Rect region = template.getMask() == null ? null : template.getMask().getRegion();
+                    Processing.dilateImage(src, dst, region, template.getSettings());
+                }
+            }
+
+            @Override
+            public boolean supportsInPlace() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,219 @@
+package batch;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import util.Alignment;
+import util.InspectionMask;
+import util.MatScope;
+import util.MatchSettings;
+import util.Processing;
+import util.TemplatePixels;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Класс, описывающий полностью подготовленный к сравнению шаблон:
+ * результат размытия и CLAHE, а также предвычисленную энергию его окон.
+ * Для поиска по пирамиде изображений шаблон дополнительно содержит
+ * уменьшенные уровни и энергию окон каждого из них, а для совмещения платы
+ * с шаблоном — ключевые точки и дескрипторы шаблона. Если для шаблона задана маска
+ * проверяемой области, она хранится в разрешении нулевого уровня. Энергия окон
+ * вычисляется для окна из параметров сравнения {@link MatchSettings}, которые хранятся
+ * в шаблоне и используются стадиями сравнения, дилатации и поиска контуров.
+ * <p>
+ * Шаблон использует подсчет ссылок: созданный шаблон имеет одну ссылку, каждый
+ * {@link #retain()} добавляет ссылку, а нативная память матриц освобождается,
+ * когда {@link #release()} снимает последнюю
+ */
+public class PreparedTemplate {
+
+    private final List<Mat> levels;
+    private final List<Mat> windowSqSums;
+    private final Alignment.Features features;
+    private final InspectionMask mask;
+    private final MatchSettings settings;
+    private volatile TemplatePixels pixels;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private PreparedTemplate(List<Mat> levels,
+                             List<Mat> windowSqSums,
+                             Alignment.Features features,
+                             InspectionMask mask,
+                             MatchSettings settings) {
+        this.levels = Collections.unmodifiableList(levels);
+        this.windowSqSums = Collections.unmodifiableList(windowSqSums);
+        this.features = features;
+        this.mask = mask;
+        this.settings = settings;
+    }
+
+    /**
+     * Метод для подготовки шаблона, уже прошедшего предобработку, к сравнению с заданными
+     * параметрами окна, совмещению с платой и проверке внутри маски проверяемой области
+     *
+     * @param preprocessed  шаблон после предобработки; матрица переходит во владение шаблона
+     * @param pyramidLevels количество уровней пирамиды, включая исходный
+     * @param features      ключевые точки и дескрипторы шаблона или {@code null};
+     *                      переходят во владение шаблона
+     * @param mask          маска проверяемой области размером с шаблон после предобработки
+     *                      или {@code null}; переходит во владение шаблона
+     * @param settings      параметры сравнения с шаблоном и выделения дефектов
+     * @return подготовленный шаблон
+     */
+    public static PreparedTemplate fromPreprocessed(Mat preprocessed,
+                                                    int pyramidLevels,
+                                                    Alignment.Features features,
+                                                    InspectionMask mask,
+                                                    MatchSettings settings) {
+        if (mask != null && !mask.getMask().size().equals(preprocessed.size())) {
+            throw new IllegalArgumentException("Размер маски не совпадает с размером шаблона");
+        }
+        try (MatScope scope = new MatScope()) {
+            scope.track(preprocessed);
+
+            // Уровни пирамиды и энергия окон каждого уровня
+            List<Mat> levels = new ArrayList<>();
+            List<Mat> windowSqSums = new ArrayList<>();
+            levels.add(preprocessed);
+            for (int level = 1; level < pyramidLevels; level++) {
+                Mat down = scope.newMat();
+                Imgproc.pyrDown(levels.get(level - 1), down);
+                levels.add(down);
+            }
+            for (Mat level : levels) {
+                windowSqSums.add(scope.track(Processing.computeWindowSqSum(level, settings)));
+            }
+
+            levels.forEach(scope::detach);
+            windowSqSums.forEach(scope::detach);
+            return new PreparedTemplate(levels, windowSqSums, features, mask, settings);
+        }
+    }
+
+    /**
+     * Метод для добавления ссылки на шаблон
+     *
+     * @return этот же шаблон
+     */
+    public PreparedTemplate retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Метод для снятия ссылки на шаблон. При снятии последней ссылки матрицы шаблона освобождаются
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            levels.forEach(MatScope::release);
+            windowSqSums.forEach(MatScope::release);
+            if (features != null) {
+                features.release();
+            }
+            if (mask != null) {
+                mask.release();
+            }
+        }
+    }
+
+    /**
+     * @return шаблон после предобработки, по умолчанию — размытия и выравнивания гистограммы
+     */
+    public Mat getClahe() {
+        return levels.get(0);
+    }
+
+    /**
+     * @return энергия окон шаблона для сравнения с параметрами {@link #getSettings()}
+     */
+    public Mat getWindowSqSum() {
+        return windowSqSums.get(0);
+    }
+
+    /**
+     * @return уровни пирамиды шаблона, начиная с исходного
+     */
+    public List<Mat> getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return энергия окон каждого уровня пирамиды шаблона
+     */
+    public List<Mat> getWindowSqSums() {
+        return windowSqSums;
+    }
+
+    /**
+     * Метод для получения пикселей шаблона в массиве Java. Пиксели копируются
+     * из матрицы при первом обращении и далее используются всеми потоками.
+     * Если задана маска проверяемой области, копируется только ее область
+     *
+     * @return пиксели нулевого уровня шаблона или области маски и энергия его окон
+     */
+    public TemplatePixels getPixels() {
+        TemplatePixels result = pixels;
+        if (result == null) {
+            synchronized (this) {
+                result = pixels;
+                if (result == null) {
+                    if (mask == null) {
+                        result = TemplatePixels.of(getClahe(), settings);
+                    } else {
+                        try (MatScope scope = new MatScope()) {
+                            result = TemplatePixels.of(scope.track(getClahe().submat(mask.getRegion())), settings);
+                        }
+                    }
+                    pixels = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return ключевые точки и дескрипторы шаблона или {@code null}, если они не вычислялись
+     */
+    public Alignment.Features getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return параметры сравнения с шаблоном и выделения дефектов
+     */
+    public MatchSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return маска проверяемой области или {@code null}, если проверяется весь шаблон
+     */
+    public InspectionMask getMask() {
+        return mask;
+    }
+
+    /**
+     * Метод для оценки объема нативной памяти, занимаемой шаблоном
+     *
+     * @return размер данных матриц шаблона в байтах
+     */
+    public long getNativeBytes() {
+        long bytes = 0;
+        for (Mat level : levels) {
+            bytes += level.total() * level.elemSize();
+        }
+        for (Mat windowSqSum : windowSqSums) {
+            bytes += windowSqSum.total() * windowSqSum.elemSize();
+        }
+        if (features != null) {
+            bytes += features.getNativeBytes();
+        }
+        if (mask != null) {
+            bytes += mask.getNativeBytes();
+        }
+        return bytes;
+    }
+}
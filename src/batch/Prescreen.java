@@ -0,0 +1,224 @@
+package batch;
+
+import metrics.StageMetrics;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import util.InspectionMask;
+import util.MatBuffers;
+import util.MatScope;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Класс, определяющий предварительную проверку платы перед сравнением с шаблоном.
+ * <p>
+ * Разность предобработанных платы и шаблона усредняется по блокам; если средняя
+ * абсолютная разность ни в одном блоке не превышает порога, плата объявляется чистой
+ * и дорогое сравнение с шаблоном по окнам не выполняется. Дефект, занимающий заметную
+ * часть блока, поднимает среднюю разность этого блока, тогда как шум выравнивания
+ * гистограммы усредняется. Плата, которая больше шаблона, как и при сравнении с шаблоном,
+ * обрезается до его размера, а при заданной маске шаблона блоки строятся по области маски
+ * и средняя разность считается только по проверяемым пикселям блока.
+ * <p>
+ * В режиме проверки сравнение выполняется для всех плат, а платы, признанные чистыми,
+ * на которых сравнение нашло дефекты, учитываются как ложноотрицательные. Сравнение
+ * с нормализацией по минимуму и максимуму выделяет шум даже на чистой плате, поэтому
+ * точное количество ложноотрицательных дает режим пирамиды с порогами меры
+ */
+public class Prescreen {
+
+    /**
+     * Системное свойство, задающее порог средней абсолютной разности в блоке, при котором
+     * плата еще считается чистой. Если свойство не задано, предварительная проверка не выполняется
+     */
+    public static final String BOUND_PROPERTY = "surfacescout.prescreenBound";
+
+    /**
+     * Системное свойство, задающее сторону блока в пикселях предобработанного изображения
+     */
+    public static final String BLOCK_PROPERTY = "surfacescout.prescreenBlock";
+
+    /**
+     * Системное свойство, включающее режим проверки: сравнение с шаблоном выполняется
+     * для всех плат, а результат предварительной проверки только учитывается
+     */
+    public static final String VALIDATE_PROPERTY = "surfacescout.prescreenValidate";
+
+    private static final int DEFAULT_BLOCK = 16;
+
+    private final double bound;
+    private final int blockSize;
+    private final boolean validating;
+    private final StageMetrics metrics = new StageMetrics("prescreen");
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder falseNegatives = new LongAdder();
+
+    /**
+     * @param bound      порог средней абсолютной разности в блоке
+     * @param blockSize  сторона блока в пикселях
+     * @param validating {@code true} для режима проверки
+     */
+    public Prescreen(double bound, int blockSize, boolean validating) {
+        if (!(bound >= 0)) {
+            throw new IllegalArgumentException("Порог предварительной проверки должен быть неотрицательным: " + bound);
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Сторона блока предварительной проверки должна быть положительной: "
+                    + blockSize);
+        }
+        this.bound = bound;
+        this.blockSize = blockSize;
+        this.validating = validating;
+    }
+
+    /**
+     * Метод для создания предварительной проверки из конфигурации
+     *
+     * @return предварительная проверка или {@code null}, если свойство {@value #BOUND_PROPERTY} не задано
+     * @throws IllegalArgumentException если значения свойств некорректны
+     */
+    public static Prescreen fromConfig() {
+        String value = System.getProperty(BOUND_PROPERTY);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        double bound;
+        try {
+            bound = Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректный порог предварительной проверки: " + value);
+        }
+        return new Prescreen(bound, Integer.getInteger(BLOCK_PROPERTY, DEFAULT_BLOCK),
+                Boolean.getBoolean(VALIDATE_PROPERTY));
+    }
+
+    /**
+     * Метод для предварительной проверки платы
+     *
+     * @param image    предобработанное изображение платы не меньше шаблона
+     * @param template предобработанный шаблон
+     * @param mask     маска проверяемой области шаблона или {@code null}, если проверяется весь шаблон
+     * @param buffers  буферы промежуточных матриц вызывающего потока
+     * @return {@code true}, если плата признана чистой
+     */
+    public boolean isClean(Mat image, Mat template, InspectionMask mask, MatBuffers buffers) {
+        long start = System.nanoTime();
+
+        double maxDifference;
+        try (MatScope scope = new MatScope()) {
+            // Плата обрезается до шаблона, а при заданной маске — до области маски
+            Rect region = mask == null ? new Rect(0, 0, template.cols(), template.rows()) : mask.getRegion();
+            Mat board = scope.track(image.submat(region));
+            Mat reference = mask == null && image.size().equals(template.size())
+                    ? template
+                    : scope.track(template.submat(region));
+
+            // Средняя абсолютная разность по блокам
+            Mat diff = buffers.get("prescreen.diff");
+            Core.absdiff(board, reference, diff);
+            Mat blocks = buffers.get("prescreen.blocks");
+            Size blockGrid = new Size(Math.ceil((double) diff.cols() / blockSize),
+                    Math.ceil((double) diff.rows() / blockSize));
+            if (mask == null) {
+                Imgproc.resize(diff, blocks, blockGrid, 0, 0, Imgproc.INTER_AREA);
+                maxDifference = Core.minMaxLoc(blocks).maxVal;
+            } else {
+                maxDifference = maxMaskedDifference(diff, scope.track(mask.getMask().submat(region)),
+                        blockGrid, blocks, buffers);
+            }
+        }
+
+        boolean clean = maxDifference <= bound;
+        if (clean) {
+            skipped.increment();
+        }
+        metrics.record(System.nanoTime() - start, 0);
+        return clean;
+    }
+
+    /**
+     * Метод для вычисления наибольшей по блокам средней разности проверяемых пикселей.
+     * Блоки без проверяемых пикселей не учитываются
+     *
+     * @param diff      абсолютная разность платы и шаблона в области маски
+     * @param mask      маска проверяемых пикселей в той же области
+     * @param blockGrid размер сетки блоков
+     * @param blocks    матрица для средних разностей блоков
+     * @param buffers   буферы промежуточных матриц
+     * @return наибольшая средняя разность
+     */
+    private static double maxMaskedDifference(Mat diff, Mat mask, Size blockGrid, Mat blocks, MatBuffers buffers) {
+        // Сумма разностей и доля проверяемых пикселей в каждом блоке
+        Mat weight = buffers.get("prescreen.weight");
+        mask.convertTo(weight, CvType.CV_32F, 1.0 / 255);
+        Mat weighted = buffers.get("prescreen.weighted");
+        diff.convertTo(weighted, CvType.CV_32F);
+        Core.multiply(weighted, weight, weighted);
+        Imgproc.resize(weighted, blocks, blockGrid, 0, 0, Imgproc.INTER_AREA);
+        Mat coverage = buffers.get("prescreen.coverage");
+        Imgproc.resize(weight, coverage, blockGrid, 0, 0, Imgproc.INTER_AREA);
+
+        // Средняя разность по проверяемым пикселям блоков, в которых они есть
+        Mat covered = buffers.get("prescreen.covered");
+        Core.compare(coverage, Scalar.all(0), covered, Core.CMP_GT);
+        Core.divide(blocks, coverage, blocks);
+        return Core.minMaxLoc(blocks, covered).maxVal;
+    }
+
+    /**
+     * Метод для учета платы, признанной чистой, на которой сравнение с шаблоном нашло дефекты
+     */
+    public void recordFalseNegative() {
+        falseNegatives.increment();
+    }
+
+    /**
+     * @return {@code true}, если сравнение выполняется для всех плат
+     */
+    public boolean isValidating() {
+        return validating;
+    }
+
+    /**
+     * @return показатели предварительной проверки
+     */
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return количество плат, прошедших предварительную проверку
+     */
+    public long getCheckedCount() {
+        return metrics.getCount();
+    }
+
+    /**
+     * @return количество плат, признанных чистыми
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return количество ложноотрицательных плат; учитывается только в режиме проверки
+     */
+    public long getFalseNegativeCount() {
+        return falseNegatives.sum();
+    }
+
+    @Override
+    public String toString() {
+        long checked = getCheckedCount();
+        String summary = String.format("предварительная проверка: %d плат, признано чистыми %d (%.1f%%)",
+                checked, getSkippedCount(), checked > 0 ? 100.0 * getSkippedCount() / checked : 0);
+        return validating
+                ? summary + ", ложноотрицательных " + getFalseNegativeCount()
+                : summary;
+    }
+}
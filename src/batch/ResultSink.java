@@ -0,0 +1,426 @@
+package batch;
+
+import org.opencv.core.Rect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Получатель результатов пакетной проверки, записывающий их в файл в одном из форматов {@link Format}.
+ * <p>
+ * Записи накапливаются в буфере и записываются в канал файла группами: при заполнении буфера
+ * или, если с последней записи в канал прошло больше заданного времени, при записи очередной
+ * платы. Экземпляр не является потокобезопасным и используется стадией вывода результатов
+ */
+public abstract class ResultSink implements AutoCloseable {
+
+    /**
+     * Системное свойство, задающее формат результатов по умолчанию
+     */
+    public static final String FORMAT_PROPERTY = "surfacescout.resultFormat";
+
+    /**
+     * Системное свойство, задающее размер буфера записи в байтах
+     */
+    public static final String BUFFER_BYTES_PROPERTY = "surfacescout.resultBufferBytes";
+
+    /**
+     * Системное свойство, задающее максимальный интервал между записями в канал в миллисекундах
+     */
+    public static final String FLUSH_MILLIS_PROPERTY = "surfacescout.resultFlushMillis";
+
+    private static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+    private static final long DEFAULT_FLUSH_MILLIS = 1000;
+    private static final int MIN_BUFFER_BYTES = 64;
+
+    /**
+     * Формат файла результатов
+     */
+    public enum Format {
+
+        /**
+         * Текстовый лог с одной строкой на дефект, совпадающий с прежним форматом логов
+         */
+        TEXT("log"),
+
+        /**
+         * CSV с заголовком {@code image,x,y,width,height} и одной строкой на дефект
+         */
+        CSV("csv"),
+
+        /**
+         * JSON Lines с одним объектом на плату, включая платы без дефектов:
+         * {@code {"image":"01_000.jpg","defects":[[x,y,width,height],...]}}
+         */
+        JSONL("jsonl"),
+
+        /**
+         * Двоичный формат с порядком байтов little-endian: заголовок из четырех байтов
+         * {@code SSR1}, затем для каждой платы {@code int32} длина имени, имя в UTF-8,
+         * {@code int32} количество дефектов и по четыре {@code int32} (x, y, width, height) на дефект
+         */
+        BINARY("bin");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @return расширение файла результатов
+         */
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Метод для получения формата по имени без учета регистра
+         *
+         * @param name имя формата
+         * @return формат результатов
+         * @throws IllegalArgumentException если формат неизвестен
+         */
+        public static Format parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Неизвестный формат результатов: " + name);
+            }
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final long flushIntervalNanos;
+    private final Path path;
+    private long lastFlushNanos = System.nanoTime();
+
+    protected ResultSink(Path path, int bufferBytes, long flushMillis) throws IOException {
+        if (bufferBytes < MIN_BUFFER_BYTES) {
+            throw new IllegalArgumentException("Размер буфера записи должен быть не меньше "
+                    + MIN_BUFFER_BYTES + " байт: " + bufferBytes);
+        }
+        this.path = path;
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+    }
+
+    /**
+     * Метод для получения формата результатов из конфигурации
+     *
+     * @return значение свойства {@value #FORMAT_PROPERTY} или {@link Format#TEXT}
+     */
+    public static Format getConfiguredFormat() {
+        return Format.parse(System.getProperty(FORMAT_PROPERTY, Format.TEXT.name()));
+    }
+
+    /**
+     * Метод для создания файла результатов с уникальным именем в указанной директории
+     *
+     * @param directory директория для файла результатов
+     * @param format    формат результатов
+     * @return получатель результатов
+     * @throws IOException если файл не удалось создать
+     */
+    public static ResultSink open(Path directory, Format format) throws IOException {
+        int time = Math.abs(Long.hashCode(System.currentTimeMillis()));
+        return open(directory.resolve("logs_" + time + "." + format.getExtension()), format,
+                Integer.getInteger(BUFFER_BYTES_PROPERTY, DEFAULT_BUFFER_BYTES),
+                Long.getLong(FLUSH_MILLIS_PROPERTY, DEFAULT_FLUSH_MILLIS));
+    }
+
+    /**
+     * Метод для создания файла результатов
+     *
+     * @param path        путь к файлу результатов
+     * @param format      формат результатов
+     * @param bufferBytes размер буфера записи в байтах
+     * @param flushMillis максимальный интервал между записями в канал в миллисекундах
+     * @return получатель результатов
+     * @throws IOException если файл не удалось создать
+     */
+    public static ResultSink open(Path path, Format format, int bufferBytes, long flushMillis) throws IOException {
+        ResultSink sink = switch (format) {
+            case TEXT -> new TextSink(path, bufferBytes, flushMillis);
+            case CSV -> new CsvSink(path, bufferBytes, flushMillis);
+            case JSONL -> new JsonlSink(path, bufferBytes, flushMillis);
+            case BINARY -> new BinarySink(path, bufferBytes, flushMillis);
+        };
+        try {
+            sink.writeHeader();
+        } catch (IOException | RuntimeException e) {
+            sink.channel.close();
+            throw e;
+        }
+        return sink;
+    }
+
+    /**
+     * @return путь к файлу результатов
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Метод для записи результата проверки платы
+     *
+     * @param result результат проверки платы
+     * @throws IOException если возникла ошибка записи в файл
+     */
+    public void write(BoardResult result) throws IOException {
+        encode(result);
+        if (System.nanoTime() - lastFlushNanos >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Метод для записи накопленных в буфере данных в канал
+     *
+     * @throws IOException если возникла ошибка записи в файл
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        lastFlushNanos = System.nanoTime();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Метод для записи заголовка файла
+     *
+     * @throws IOException если возникла ошибка записи в файл
+     */
+    protected void writeHeader() throws IOException {
+    }
+
+    /**
+     * Метод для кодирования результата проверки платы в буфер
+     *
+     * @param result результат проверки платы
+     * @throws IOException если возникла ошибка записи в файл
+     */
+    protected abstract void encode(BoardResult result) throws IOException;
+
+    /**
+     * Метод для получения буфера, в котором свободно не менее {@code bytes} байт.
+     * Если данные не помещаются в буфер, накопленные данные предварительно записываются в канал
+     *
+     * @param bytes требуемый объем в байтах
+     * @return буфер записи или {@code null}, если данные больше всего буфера
+     * @throws IOException если возникла ошибка записи в файл
+     */
+    protected ByteBuffer reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+        return buffer.remaining() < bytes ? null : buffer;
+    }
+
+    /**
+     * Метод для записи массива байтов через буфер
+     *
+     * @param bytes записываемые данные
+     * @throws IOException если возникла ошибка записи в файл
+     */
+    protected void put(byte[] bytes) throws IOException {
+        ByteBuffer target = reserve(bytes.length);
+        if (target != null) {
+            target.put(bytes);
+        } else {
+            // Данные больше буфера записываются в канал напрямую
+            ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        }
+    }
+
+    /**
+     * Метод для записи строки в кодировке UTF-8 через буфер
+     *
+     * @param text записываемая строка
+     * @throws IOException если возникла ошибка записи в файл
+     */
+    protected void put(CharSequence text) throws IOException {
+        put(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Текстовый лог в прежнем формате
+     */
+    private static final class TextSink extends ResultSink {
+
+        private final StringBuilder line = new StringBuilder();
+
+        TextSink(Path path, int bufferBytes, long flushMillis) throws IOException {
+            super(path, bufferBytes, flushMillis);
+        }
+
+        @Override
+        protected void encode(BoardResult result) throws IOException {
+            line.setLength(0);
+            String name = result.getImageFile().getName();
+            for (Rect rect : result.getDefects()) {
+                line.append("На плате ").append(name).append(" обнаружен дефект. Координаты дефекта: (")
+                        .append(rect.x).append(", ").append(rect.y).append("; ")
+                        .append(rect.x + rect.width).append(", ").append(rect.y + rect.height).append(')')
+                        .append(System.lineSeparator());
+            }
+            put(line);
+        }
+    }
+
+    /**
+     * CSV с одной строкой на дефект
+     */
+    private static final class CsvSink extends ResultSink {
+
+        private final StringBuilder line = new StringBuilder();
+
+        CsvSink(Path path, int bufferBytes, long flushMillis) throws IOException {
+            super(path, bufferBytes, flushMillis);
+        }
+
+        @Override
+        protected void writeHeader() throws IOException {
+            put("image,x,y,width,height\n");
+        }
+
+        @Override
+        protected void encode(BoardResult result) throws IOException {
+            line.setLength(0);
+            String name = escape(result.getImageFile().getName());
+            for (Rect rect : result.getDefects()) {
+                line.append(name).append(',')
+                        .append(rect.x).append(',').append(rect.y).append(',')
+                        .append(rect.width).append(',').append(rect.height).append('\n');
+            }
+            put(line);
+        }
+
+        /**
+         * Метод для экранирования значения CSV по RFC 4180
+         *
+         * @param value значение поля
+         * @return значение, при необходимости заключенное в кавычки
+         */
+        private static String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    /**
+     * JSON Lines с одним объектом на плату
+     */
+    private static final class JsonlSink extends ResultSink {
+
+        private final StringBuilder line = new StringBuilder();
+
+        JsonlSink(Path path, int bufferBytes, long flushMillis) throws IOException {
+            super(path, bufferBytes, flushMillis);
+        }
+
+        @Override
+        protected void encode(BoardResult result) throws IOException {
+            line.setLength(0);
+            line.append("{\"image\":\"");
+            escape(result.getImageFile().getName(), line);
+            line.append("\",\"defects\":[");
+            boolean first = true;
+            for (Rect rect : result.getDefects()) {
+                if (!first) {
+                    line.append(',');
+                }
+                first = false;
+                line.append('[').append(rect.x).append(',').append(rect.y).append(',')
+                        .append(rect.width).append(',').append(rect.height).append(']');
+            }
+            line.append("]}\n");
+            put(line);
+        }
+
+        /**
+         * Метод для экранирования строки JSON
+         *
+         * @param value строка
+         * @param out   построитель, в который записывается экранированная строка
+         */
+        private static void escape(String value, StringBuilder out) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Двоичный формат с фиксированным размером записи дефекта
+     */
+    private static final class BinarySink extends ResultSink {
+
+        private static final byte[] MAGIC = {'S', 'S', 'R', '1'};
+
+        BinarySink(Path path, int bufferBytes, long flushMillis) throws IOException {
+            super(path, bufferBytes, flushMillis);
+        }
+
+        @Override
+        protected void writeHeader() throws IOException {
+            put(MAGIC);
+        }
+
+        @Override
+        protected void encode(BoardResult result) throws IOException {
+            byte[] name = result.getImageFile().getName().getBytes(StandardCharsets.UTF_8);
+            int defects = result.getDefects().size();
+
+            // Запись платы целиком, если она помещается в буфер, иначе по частям
+            ByteBuffer target = reserve(Integer.BYTES * 2 + name.length + defects * Integer.BYTES * 4);
+            if (target == null) {
+                ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 2 + name.length).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(name.length).put(name).putInt(defects);
+                put(header.array());
+                for (Rect rect : result.getDefects()) {
+                    reserve(Integer.BYTES * 4).putInt(rect.x).putInt(rect.y).putInt(rect.width).putInt(rect.height);
+                }
+                return;
+            }
+            target.putInt(name.length).put(name).putInt(defects);
+            for (Rect rect : result.getDefects()) {
+                target.putInt(rect.x).putInt(rect.y).putInt(rect.width).putInt(rect.height);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package batch;
+
+import exception.ClusterException;
+import org.opencv.core.Rect;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Класс, определяющий распределение партий плат между узлами проверки распределенного режима.
+ * <p>
+ * Каждый узел берет партии из начала собственной очереди, в которую заранее распределены партии
+ * одних и тех же кодов шаблонов. Узел с пустой очередью перехватывает партию из конца самой
+ * длинной очереди другого узла. Если очереди всех узлов пусты, свободный узел повторно выполняет
+ * раньше всех начатую партию, которая выполняется на другом узле, и засчитывается результат,
+ * полученный первым. Поэтому медленный узел задерживает только завершение собственных партий.
+ * <p>
+ * Партия, выполнение которой завершилось ошибкой, возвращается в общую очередь повторов,
+ * которую узлы просматривают первой, а после заданного количества ошибок обработка
+ * прекращается. Методы синхронизированы на экземпляре
+ */
+final class ShardScheduler {
+
+    /**
+     * Партия плат одного кода шаблона
+     */
+    static final class Shard {
+
+        final int id;
+        final int[] indices;
+        final List<String> paths;
+
+        /**
+         * Узлы, выполняющие партию в данный момент
+         */
+        private final BitSet nodes = new BitSet();
+        private long startNanos;
+        private int failures;
+        private boolean done;
+
+        Shard(int id, int[] indices, List<String> paths) {
+            this.id = id;
+            this.indices = indices;
+            this.paths = paths;
+        }
+    }
+
+    private final List<Deque<Shard>> queues;
+    private final Deque<Shard> retries = new ArrayDeque<>();
+    private final List<Shard> running = new ArrayList<>();
+    private final List<List<Rect>> results;
+    private final int maxAttempts;
+    private int remaining;
+    private int liveNodes;
+    private boolean finished;
+    private ClusterException failure;
+
+    // Показатели узлов
+    private final int[] threads;
+    private final int[] shards;
+    private final int[] boards;
+    private final int[] stolen;
+    private final int[] speculative;
+    private final int[] failures;
+    private final String[] errors;
+
+    /**
+     * @param queues      очереди партий узлов; изменяются планировщиком
+     * @param boardCount  общее количество плат во всех партиях
+     * @param maxAttempts количество ошибок партии, после которого обработка прекращается
+     */
+    ShardScheduler(List<Deque<Shard>> queues, int boardCount, int maxAttempts) {
+        this.queues = queues;
+        this.results = new ArrayList<>(Collections.nCopies(boardCount, null));
+        this.maxAttempts = maxAttempts;
+        this.liveNodes = queues.size();
+        for (Deque<Shard> queue : queues) {
+            remaining += queue.size();
+        }
+        int nodeCount = queues.size();
+        threads = new int[nodeCount];
+        shards = new int[nodeCount];
+        boards = new int[nodeCount];
+        stolen = new int[nodeCount];
+        speculative = new int[nodeCount];
+        failures = new int[nodeCount];
+        errors = new String[nodeCount];
+    }
+
+    /**
+     * Метод для получения партии узлом, не выполняющим ни одной партии. Блокирует поток,
+     * пока партии выполняются другими узлами и не могут быть выполнены повторно
+     *
+     * @param node номер узла
+     * @return партия или {@code null}, если обработка завершена или прекращена
+     * @throws InterruptedException если поток был прерван во время ожидания
+     */
+    synchronized Shard take(int node) throws InterruptedException {
+        while (true) {
+            if (finished || failure != null || remaining == 0) {
+                return null;
+            }
+            Shard shard = next(node);
+            if (shard == null) {
+                shard = speculate(node);
+            }
+            if (shard != null) {
+                return shard;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Метод для получения следующей партии узлом, уже выполняющим партию, без ожидания
+     * и без повторного выполнения партий других узлов
+     *
+     * @param node номер узла
+     * @return партия или {@code null}, если свободных партий нет
+     */
+    synchronized Shard poll(int node) {
+        if (finished || failure != null) {
+            return null;
+        }
+        return next(node);
+    }
+
+    /**
+     * Метод для фиксации результата партии. Результат повторно выполненной партии,
+     * полученный вторым, не учитывается
+     *
+     * @param node    номер узла
+     * @param shard   партия
+     * @param defects прямоугольники дефектов плат в порядке партии
+     */
+    synchronized void complete(int node, Shard shard, List<List<Rect>> defects) {
+        shard.nodes.clear(node);
+        if (!shard.done) {
+            shard.done = true;
+            running.remove(shard);
+            remaining--;
+            for (int i = 0; i < shard.indices.length; i++) {
+                results.set(shard.indices[i], defects.get(i));
+            }
+            shards[node]++;
+            boards[node] += shard.indices.length;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Метод для фиксации ошибки выполнения партии узлом
+     *
+     * @param node    номер узла
+     * @param shard   партия
+     * @param message описание ошибки
+     */
+    synchronized void fail(int node, Shard shard, String message) {
+        shard.nodes.clear(node);
+        failures[node]++;
+        errors[node] = message;
+        if (!shard.done) {
+            shard.failures++;
+            if (shard.failures >= maxAttempts) {
+                setFailure("Партия из " + shard.indices.length + " плат не обработана после "
+                        + shard.failures + " попыток: " + message);
+            } else if (shard.nodes.isEmpty()) {
+                // Партия повторяется, если не выполняется другими узлами
+                running.remove(shard);
+                retries.addLast(shard);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Метод для отключения узла, с которым потеряно соединение.
+     * Невыполненные партии узла возвращаются в очередь повторов, а его очередь
+     * остается доступной для перехвата другими узлами
+     *
+     * @param node        номер узла
+     * @param outstanding партии, отправленные узлу и не получившие ответа
+     * @param message     описание ошибки
+     */
+    synchronized void retire(int node, Collection<Shard> outstanding, String message) {
+        for (Shard shard : outstanding) {
+            fail(node, shard, message);
+        }
+        errors[node] = message;
+        liveNodes--;
+        if (liveNodes == 0 && remaining > 0) {
+            setFailure("Нет доступных узлов проверки: " + message);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Метод для ожидания результата платы
+     *
+     * @param index порядковый номер платы
+     * @return прямоугольники дефектов платы
+     * @throws ClusterException     если обработка прекращена
+     * @throws InterruptedException если поток был прерван во время ожидания
+     */
+    synchronized List<Rect> awaitResult(int index) throws ClusterException, InterruptedException {
+        List<Rect> defects;
+        while ((defects = results.get(index)) == null) {
+            if (failure != null) {
+                throw failure;
+            }
+            wait();
+        }
+        results.set(index, null);
+        return defects;
+    }
+
+    /**
+     * Метод для завершения обработки: узлы, ожидающие партии, получают {@code null}
+     */
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * @return {@code true}, если обработка завершена или прекращена
+     */
+    synchronized boolean isFinished() {
+        return finished || failure != null || remaining == 0;
+    }
+
+    /**
+     * Метод для учета количества рабочих потоков, о котором сообщил узел
+     *
+     * @param node        номер узла
+     * @param threadCount количество рабочих потоков узла
+     */
+    synchronized void connected(int node, int threadCount) {
+        threads[node] = threadCount;
+    }
+
+    /**
+     * Метод для получения показателей узла
+     *
+     * @param node    номер узла
+     * @param address адрес узла
+     * @return показатели узла
+     */
+    synchronized InspectionCoordinator.NodeStatistics getStatistics(int node, String address) {
+        return new InspectionCoordinator.NodeStatistics(address, threads[node], shards[node], boards[node],
+                stolen[node], speculative[node], failures[node], errors[node]);
+    }
+
+    /**
+     * Метод для получения партии из очереди повторов, собственной очереди узла
+     * или очереди другого узла
+     *
+     * @param node номер узла
+     * @return партия или {@code null}, если свободных партий нет
+     */
+    private Shard next(int node) {
+        Shard shard = retries.pollFirst();
+        if (shard == null) {
+            shard = queues.get(node).pollFirst();
+        }
+        if (shard == null) {
+            // Перехват из конца самой длинной очереди, где партии начнутся позже всего
+            Deque<Shard> longest = null;
+            for (Deque<Shard> queue : queues) {
+                if (!queue.isEmpty() && (longest == null || queue.size() > longest.size())) {
+                    longest = queue;
+                }
+            }
+            if (longest == null) {
+                return null;
+            }
+            shard = longest.pollLast();
+            stolen[node]++;
+        }
+        shard.nodes.set(node);
+        shard.startNanos = System.nanoTime();
+        running.add(shard);
+        return shard;
+    }
+
+    /**
+     * Метод для выбора партии для повторного выполнения: раньше всех начатой партии,
+     * которая выполняется ровно одним другим узлом
+     *
+     * @param node номер узла
+     * @return партия или {@code null}, если подходящих партий нет
+     */
+    private Shard speculate(int node) {
+        Shard oldest = null;
+        for (Shard shard : running) {
+            if (shard.nodes.cardinality() == 1 && !shard.nodes.get(node)
+                    && (oldest == null || shard.startNanos - oldest.startNanos < 0)) {
+                oldest = shard;
+            }
+        }
+        if (oldest != null) {
+            oldest.nodes.set(node);
+            speculative[node]++;
+        }
+        return oldest;
+    }
+
+    /**
+     * Метод для прекращения обработки с первой ошибкой
+     *
+     * @param message описание ошибки
+     */
+    private void setFailure(String message) {
+        if (failure == null) {
+            failure = new ClusterException(message);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package batch;
+
+import exception.ImageReadException;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import util.ImageIO;
+import util.MatBuffers;
+import util.MatScope;
+import util.MatchSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Класс, определяющий подбор шага сетки окон сравнения с шаблоном по размеченному
+ * калибровочному набору плат.
+ * <p>
+ * Для каждого шага от одного пикселя до стороны окна набор проверяется конвейером
+ * из конфигурации, в котором заменен только шаг. Размеченный дефект считается найденным,
+ * если с ним пересекается хотя бы один прямоугольник дефекта; прямоугольники, не
+ * пересекающиеся ни с одним размеченным дефектом, учитываются как ложные срабатывания.
+ * Выбирается наибольший шаг, полнота которого не ниже целевой: количество окон, в которых
+ * вычисляется мера, обратно пропорционально квадрату шага.
+ * <p>
+ * Разметка хранится в текстовом файле, каждая строка которого описывает один дефект
+ * в координатах исходного изображения: {@code имя_файла,x,y,ширина,высота}. Пустые строки,
+ * строки, начинающиеся с {@code #}, и заголовок {@code image,...} пропускаются. Платы
+ * без строк в разметке считаются чистыми
+ */
+public class StrideTuner {
+
+    private final InspectionPipeline pipeline;
+    private final TemplateRegistry templates;
+    private final File[] imageFiles;
+    private final Map<String, List<Rect>> labels;
+
+    /**
+     * Класс, описывающий результат проверки калибровочного набора с одним шагом
+     */
+    public static class Result {
+
+        private final int stride;
+        private final int labeled;
+        private final int detected;
+        private final int falsePositives;
+        private final double millisPerBoard;
+
+        private Result(int stride, int labeled, int detected, int falsePositives, double millisPerBoard) {
+            this.stride = stride;
+            this.labeled = labeled;
+            this.detected = detected;
+            this.falsePositives = falsePositives;
+            this.millisPerBoard = millisPerBoard;
+        }
+
+        /**
+         * @return шаг сетки окон
+         */
+        public int getStride() {
+            return stride;
+        }
+
+        /**
+         * @return доля найденных размеченных дефектов; единица, если размеченных дефектов нет
+         */
+        public double getRecall() {
+            return labeled == 0 ? 1 : (double) detected / labeled;
+        }
+
+        /**
+         * @return количество прямоугольников, не пересекающихся с размеченными дефектами
+         */
+        public int getFalsePositives() {
+            return falsePositives;
+        }
+
+        /**
+         * @return среднее время проверки одной платы без декодирования в миллисекундах
+         */
+        public double getMillisPerBoard() {
+            return millisPerBoard;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("шаг %d: полнота %.3f (%d из %d), ложных срабатываний %d, %.2f мс на плату",
+                    stride, getRecall(), detected, labeled, falsePositives, millisPerBoard);
+        }
+    }
+
+    /**
+     * @param pipeline   конвейер проверки, шаг которого подбирается
+     * @param templates  реестр шаблонов калибровочного набора
+     * @param imageFiles изображения плат калибровочного набора
+     * @param labels     размеченные дефекты по имени файла платы, полученные {@link #readLabels(Path)}
+     */
+    public StrideTuner(InspectionPipeline pipeline,
+                       TemplateRegistry templates,
+                       File[] imageFiles,
+                       Map<String, List<Rect>> labels) {
+        this.pipeline = pipeline;
+        this.templates = templates;
+        this.imageFiles = imageFiles.clone();
+        this.labels = labels;
+    }
+
+    /**
+     * Метод для чтения разметки калибровочного набора
+     *
+     * @param path файл разметки
+     * @return размеченные дефекты по имени файла платы
+     * @throws IOException              если не удалось прочитать файл
+     * @throws IllegalArgumentException если строка разметки некорректна
+     */
+    public static Map<String, List<Rect>> readLabels(Path path) throws IOException {
+        Map<String, List<Rect>> labels = new HashMap<>();
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("image,")) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("Строка разметки " + (i + 1)
+                        + " должна иметь вид имя_файла,x,y,ширина,высота: " + line);
+            }
+            try {
+                Rect rect = new Rect(Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim()),
+                        Integer.parseInt(parts[3].trim()), Integer.parseInt(parts[4].trim()));
+                labels.computeIfAbsent(parts[0].trim(), name -> new ArrayList<>()).add(rect);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректные координаты в строке разметки " + (i + 1) + ": " + line);
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Метод для проверки калибровочного набора со всеми шагами от одного пикселя до стороны окна
+     *
+     * @return результаты в порядке возрастания шага
+     * @throws ImageReadException если не удалось загрузить изображение или шаблон
+     */
+    public List<Result> evaluateAll() throws ImageReadException {
+        List<Result> results = new ArrayList<>();
+        for (int stride = 1; stride <= pipeline.getSettings().getWindow(); stride++) {
+            results.add(evaluate(stride));
+        }
+        return results;
+    }
+
+    /**
+     * Метод для выбора наибольшего шага с полнотой не ниже целевой
+     *
+     * @param results      результаты проверки калибровочного набора
+     * @param targetRecall целевая полнота от 0 до 1
+     * @return результат с наибольшим подходящим шагом или {@code null}, если подходящего шага нет
+     */
+    public static Result choose(List<Result> results, double targetRecall) {
+        Result best = null;
+        for (Result result : results) {
+            if (result.getRecall() >= targetRecall && (best == null || result.getStride() > best.getStride())) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Метод для проверки калибровочного набора с заданным шагом
+     *
+     * @param stride шаг сетки окон
+     * @return результат проверки
+     * @throws ImageReadException если не удалось загрузить изображение или шаблон
+     */
+    public Result evaluate(int stride) throws ImageReadException {
+        InspectionPipeline tuned = pipeline.withSettings(pipeline.getSettings().withStride(stride)).fuseLoad();
+        ImageIO.LoadMode loadMode = tuned.getLoadMode();
+        int downscale = loadMode.getScale() * tuned.getDownscale();
+        Map<String, PreparedTemplate> prepared = new HashMap<>();
+        int labeled = 0;
+        int detected = 0;
+        int falsePositives = 0;
+        long inspectNanos = 0;
+
+        try (MatBuffers buffers = new MatBuffers()) {
+            for (File imageFile : imageFiles) {
+                // Шаблон подготавливается один раз для каждого кода
+                String templateCode = templates.keyOf(imageFile);
+                if (templateCode == null) {
+                    throw new ImageReadException("Не удалось определить код шаблона для изображения: "
+                            + imageFile.getName());
+                }
+                PreparedTemplate template = prepared.get(templateCode);
+                if (template == null) {
+                    template = prepareTemplate(tuned, templateCode, loadMode);
+                    prepared.put(templateCode, template);
+                }
+
+                // Проверка платы; учитывается только время конвейера
+                List<Rect> defects;
+                try (MatScope scope = new MatScope()) {
+                    Mat source = scope.track(ImageIO.loadImage(imageFile.toString(), loadMode));
+                    long start = System.nanoTime();
+                    defects = tuned.inspect(source, template, buffers);
+                    inspectNanos += System.nanoTime() - start;
+                }
+
+                // Сопоставление прямоугольников с разметкой в разрешении результата конвейера
+                List<Rect> expected = new ArrayList<>();
+                for (Rect label : labels.getOrDefault(imageFile.getName(), List.of())) {
+                    expected.add(scale(label, downscale));
+                }
+                labeled += expected.size();
+                for (Rect label : expected) {
+                    if (defects.stream().anyMatch(rect -> intersects(rect, label))) {
+                        detected++;
+                    }
+                }
+                for (Rect rect : defects) {
+                    if (expected.stream().noneMatch(label -> intersects(rect, label))) {
+                        falsePositives++;
+                    }
+                }
+            }
+        } finally {
+            prepared.values().forEach(PreparedTemplate::release);
+        }
+
+        double millisPerBoard = imageFiles.length == 0 ? 0 : inspectNanos / 1e6 / imageFiles.length;
+        return new Result(stride, labeled, detected, falsePositives, millisPerBoard);
+    }
+
+    /**
+     * Метод для загрузки и подготовки шаблона вместе с его маской
+     *
+     * @param pipeline     конвейер, для которого подготавливается шаблон
+     * @param templateCode код шаблона
+     * @param loadMode     представление, в котором загружается шаблон
+     * @return подготовленный шаблон
+     * @throws ImageReadException если шаблон или маска не могут быть загружены
+     */
+    private PreparedTemplate prepareTemplate(InspectionPipeline pipeline,
+                                             String templateCode,
+                                             ImageIO.LoadMode loadMode) throws ImageReadException {
+        try (MatScope scope = new MatScope()) {
+            Mat template = scope.track(BatchInspector.loadTemplate(templateCode, templates, loadMode));
+            Mat mask = BatchInspector.loadTemplateMask(templateCode, templates);
+            if (mask != null) {
+                scope.track(mask);
+            }
+            return pipeline.prepareTemplate(template, mask);
+        }
+    }
+
+    /**
+     * Метод для перевода прямоугольника разметки в разрешение результата конвейера
+     *
+     * @param rect      прямоугольник в координатах исходного изображения
+     * @param downscale во сколько раз конвейер уменьшает изображение
+     * @return наименьший прямоугольник результата, покрывающий исходный
+     */
+    private static Rect scale(Rect rect, int downscale) {
+        int x0 = rect.x / downscale;
+        int y0 = rect.y / downscale;
+        int x1 = (rect.x + rect.width + downscale - 1) / downscale;
+        int y1 = (rect.y + rect.height + downscale - 1) / downscale;
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Метод для проверки пересечения прямоугольников
+     *
+     * @param a первый прямоугольник
+     * @param b второй прямоугольник
+     * @return {@code true}, если прямоугольники имеют общую площадь
+     */
+    private static boolean intersects(Rect a, Rect b) {
+        return a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height;
+    }
+}
@@ -0,0 +1,236 @@
+package batch;
+
+import exception.ImageReadException;
+import org.opencv.core.Mat;
+import util.MatScope;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Потокобезопасный кэш подготовленных шаблонов, ключом которого является код шаблона.
+ * <p>
+ * Каждый шаблон загружается и подготавливается вместе с маской проверяемой области,
+ * если она задана, не более одного раза, даже если его одновременно запрашивают
+ * несколько рабочих потоков. При превышении
+ * заданного объема нативной памяти вытесняются давно не использовавшиеся шаблоны.
+ * Кэш владеет одной ссылкой на каждый шаблон, поэтому матрицы вытесненного шаблона
+ * освобождаются, как только его перестанут использовать рабочие потоки
+ */
+public class TemplateCache implements AutoCloseable {
+
+    /**
+     * Системное свойство, задающее емкость кэша в байтах
+     */
+    public static final String CAPACITY_PROPERTY = "surfacescout.templateCacheBytes";
+
+    private static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+
+    /**
+     * Интерфейс загрузчика шаблона по коду
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * Метод для загрузки шаблона
+         *
+         * @param templateCode код шаблона
+         * @return шаблон в представлении, которое ожидает подготовка шаблона
+         * @throws ImageReadException если шаблон не найден или не может быть загружен
+         */
+        Mat load(String templateCode) throws ImageReadException;
+    }
+
+    /**
+     * Интерфейс загрузчика маски проверяемой области шаблона по коду
+     */
+    @FunctionalInterface
+    public interface MaskLoader {
+
+        /**
+         * Метод для загрузки маски
+         *
+         * @param templateCode код шаблона
+         * @return маска исходного разрешения шаблона или {@code null}, если маска не задана
+         * @throws ImageReadException если маска не может быть загружена
+         */
+        Mat load(String templateCode) throws ImageReadException;
+    }
+
+    /**
+     * Интерфейс подготовки загруженного шаблона к сравнению
+     */
+    @FunctionalInterface
+    public interface Preparer {
+
+        /**
+         * Метод для подготовки шаблона
+         *
+         * @param template загруженный шаблон; освобождается вызывающим кодом
+         * @param mask     маска проверяемой области или {@code null}; освобождается вызывающим кодом
+         * @return подготовленный шаблон
+         */
+        PreparedTemplate prepare(Mat template, Mat mask);
+    }
+
+    private final Loader loader;
+    private final MaskLoader maskLoader;
+    private final long capacityBytes;
+    private final Preparer preparer;
+    private final Map<String, PreparedTemplate> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<PreparedTemplate>> loading = new HashMap<>();
+    private long sizeBytes;
+
+    /**
+     * @param loader        загрузчик шаблона по коду
+     * @param maskLoader    загрузчик маски проверяемой области шаблона по коду
+     * @param capacityBytes емкость кэша в байтах
+     * @param preparer      подготовка загруженного шаблона и маски, например,
+     *                      {@link InspectionPipeline#prepareTemplate(Mat, Mat)}
+     */
+    public TemplateCache(Loader loader, MaskLoader maskLoader, long capacityBytes, Preparer preparer) {
+        this.loader = loader;
+        this.maskLoader = maskLoader;
+        this.capacityBytes = capacityBytes;
+        this.preparer = preparer;
+    }
+
+    /**
+     * Метод для получения емкости кэша из конфигурации
+     *
+     * @return значение свойства {@value #CAPACITY_PROPERTY} или емкость по умолчанию
+     */
+    public static long getConfiguredCapacity() {
+        return Long.getLong(CAPACITY_PROPERTY, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Метод для получения подготовленного шаблона по коду.
+     * При отсутствии шаблона в кэше он загружается и подготавливается в вызывающем потоке,
+     * остальные потоки, запросившие тот же код, ожидают результата
+     *
+     * @param templateCode код шаблона
+     * @return подготовленный шаблон с добавленной ссылкой, которую вызывающий код
+     * должен снять методом {@link PreparedTemplate#release()}
+     * @throws ImageReadException если шаблон не найден или не может быть загружен
+     */
+    public PreparedTemplate get(String templateCode) throws ImageReadException {
+        CompletableFuture<PreparedTemplate> future;
+        boolean owner = false;
+        synchronized (this) {
+            PreparedTemplate template = entries.get(templateCode);
+            if (template != null) {
+                return template.retain();
+            }
+            future = loading.get(templateCode);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                loading.put(templateCode, future);
+                owner = true;
+            }
+        }
+
+        // Загрузка шаблона потоком, первым запросившим код
+        if (owner) {
+            try {
+                Mat templateSrc = loader.load(templateCode);
+                Mat maskSrc = null;
+                PreparedTemplate template;
+                try {
+                    maskSrc = maskLoader.load(templateCode);
+                    template = preparer.prepare(templateSrc, maskSrc);
+                } finally {
+                    MatScope.release(templateSrc);
+                    MatScope.release(maskSrc);
+                }
+                // Шаблон, сброшенный во время загрузки, не помещается в кэш,
+                // так как он мог быть загружен из устаревшего файла
+                synchronized (this) {
+                    if (loading.remove(templateCode, future)) {
+                        template.retain();
+                        put(templateCode, template);
+                    }
+                }
+                future.complete(template);
+                return template;
+            } catch (ImageReadException | RuntimeException e) {
+                synchronized (this) {
+                    loading.remove(templateCode, future);
+                }
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        // Ожидание загрузки, начатой другим потоком; после нее шаблон
+        // повторно запрашивается из кэша, чтобы получить ссылку под блокировкой
+        try {
+            future.join();
+            return get(templateCode);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ImageReadException ire) {
+                throw new ImageReadException(ire.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Метод для удаления шаблона из кэша. Загружаемый в этот момент шаблон
+     * будет возвращен запросившему его потоку, но не попадет в кэш
+     *
+     * @param templateCode код шаблона
+     */
+    public synchronized void invalidate(String templateCode) {
+        loading.remove(templateCode);
+        PreparedTemplate template = entries.remove(templateCode);
+        if (template != null) {
+            sizeBytes -= template.getNativeBytes();
+            template.release();
+        }
+    }
+
+    /**
+     * @return суммарный объем нативной памяти шаблонов в кэше
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Метод для добавления шаблона в кэш с вытеснением давно не использовавшихся шаблонов
+     *
+     * @param templateCode код шаблона
+     * @param template     подготовленный шаблон
+     */
+    private void put(String templateCode, PreparedTemplate template) {
+        entries.put(templateCode, template);
+        sizeBytes += template.getNativeBytes();
+
+        // Последний добавленный шаблон не вытесняется, даже если он превышает емкость
+        Iterator<Map.Entry<String, PreparedTemplate>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > capacityBytes && entries.size() > 1) {
+            PreparedTemplate eldest = iterator.next().getValue();
+            iterator.remove();
+            sizeBytes -= eldest.getNativeBytes();
+            eldest.release();
+        }
+    }
+
+    /**
+     * Метод для снятия ссылок кэша со всех шаблонов и очистки кэша
+     */
+    @Override
+    public synchronized void close() {
+        for (PreparedTemplate template : entries.values()) {
+            template.release();
+        }
+        entries.clear();
+        sizeBytes = 0;
+    }
+}
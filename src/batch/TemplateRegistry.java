@@ -0,0 +1,374 @@
+package batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Реестр шаблонных изображений, индексирующий директорию шаблонов по коду шаблона.
+ * <p>
+ * Директория просматривается один раз при открытии реестра, после чего поиск шаблона
+ * по коду выполняется за постоянное время. Код извлекается из имени файла настраиваемым
+ * {@link KeyExtractor}; тем же извлекателем определяется код шаблона для изображения платы.
+ * Если нескольким файлам соответствует один код, используется первый по имени.
+ * <p>
+ * Рядом с файлом шаблона могут лежать маски в формате PNG с тем же именем и суффиксом
+ * {@value #ROI_SUFFIX} (ненулевые пиксели проверяются) или {@value #IGNORE_SUFFIX}
+ * (ненулевые пиксели не проверяются), например, {@code 01_roi.png} для шаблона {@code 01.jpg}.
+ * Маски не индексируются как шаблоны, а их изменение считается изменением шаблона.
+ * <p>
+ * После вызова {@link #startWatching()} реестр отслеживает добавление, изменение и удаление
+ * файлов в директории и обновляет только затронутые коды, уведомляя подписчиков,
+ * например, {@link TemplateCache#invalidate(String)}
+ */
+public class TemplateRegistry implements AutoCloseable {
+
+    /**
+     * Системное свойство, задающее регулярное выражение для извлечения кода шаблона из имени файла.
+     * Кодом является первая группа выражения или, если групп нет, совпадение целиком.
+     * По умолчанию кодом являются первые {@value #DEFAULT_KEY_LENGTH} символа имени
+     */
+    public static final String KEY_PATTERN_PROPERTY = "surfacescout.templateKeyPattern";
+
+    /**
+     * Системное свойство, включающее отслеживание изменений директории шаблонов во время проверки
+     */
+    public static final String WATCH_PROPERTY = "surfacescout.watchTemplates";
+
+    /**
+     * Суффикс имени маски проверяемых областей шаблона
+     */
+    public static final String ROI_SUFFIX = "_roi";
+
+    /**
+     * Суффикс имени маски игнорируемых областей шаблона
+     */
+    public static final String IGNORE_SUFFIX = "_ignore";
+
+    private static final String MASK_EXTENSION = ".png";
+
+    private static final int DEFAULT_KEY_LENGTH = 2;
+
+    /**
+     * Интерфейс извлечения кода шаблона из имени файла
+     */
+    @FunctionalInterface
+    public interface KeyExtractor {
+
+        /**
+         * Метод для извлечения кода шаблона
+         *
+         * @param fileName имя файла шаблона или изображения платы
+         * @return код шаблона или {@code null}, если имя файла не содержит кода
+         */
+        String extract(String fileName);
+
+        /**
+         * Метод для получения извлекателя, использующего начало имени файла
+         *
+         * @param length длина кода
+         * @return извлекатель кода
+         */
+        static KeyExtractor prefix(int length) {
+            return fileName -> fileName.length() >= length ? fileName.substring(0, length) : null;
+        }
+
+        /**
+         * Метод для получения извлекателя, использующего регулярное выражение
+         *
+         * @param regex регулярное выражение, которое ищется в имени файла
+         * @return извлекатель кода
+         */
+        static KeyExtractor pattern(String regex) {
+            Pattern pattern = Pattern.compile(regex);
+            return fileName -> {
+                Matcher matcher = pattern.matcher(fileName);
+                if (!matcher.find()) {
+                    return null;
+                }
+                return matcher.groupCount() > 0 ? matcher.group(1) : matcher.group();
+            };
+        }
+    }
+
+    private final Path directory;
+    private final KeyExtractor keyExtractor;
+    private final Map<String, TreeMap<String, File>> filesByKey = new HashMap<>();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+
+    private TemplateRegistry(Path directory, KeyExtractor keyExtractor) {
+        this.directory = directory;
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * Метод для открытия реестра с извлекателем кода из конфигурации
+     *
+     * @param directory директория шаблонов
+     * @return реестр с проиндексированной директорией
+     * @throws IOException если не удалось прочитать директорию
+     */
+    public static TemplateRegistry open(Path directory) throws IOException {
+        return open(directory, getConfiguredKeyExtractor());
+    }
+
+    /**
+     * Метод для открытия реестра
+     *
+     * @param directory    директория шаблонов
+     * @param keyExtractor извлекатель кода шаблона из имени файла
+     * @return реестр с проиндексированной директорией
+     * @throws IOException если не удалось прочитать директорию
+     */
+    public static TemplateRegistry open(Path directory, KeyExtractor keyExtractor) throws IOException {
+        TemplateRegistry registry = new TemplateRegistry(directory, keyExtractor);
+        registry.reindex();
+        return registry;
+    }
+
+    /**
+     * Метод для получения извлекателя кода шаблона из конфигурации
+     *
+     * @return извлекатель по выражению {@value #KEY_PATTERN_PROPERTY} или по началу имени файла
+     */
+    public static KeyExtractor getConfiguredKeyExtractor() {
+        String regex = System.getProperty(KEY_PATTERN_PROPERTY);
+        return regex == null || regex.isBlank() ? KeyExtractor.prefix(DEFAULT_KEY_LENGTH) : KeyExtractor.pattern(regex);
+    }
+
+    /**
+     * Метод для получения кода шаблона, соответствующего изображению платы
+     *
+     * @param imageFile изображение платы
+     * @return код шаблона или {@code null}, если имя файла не содержит кода
+     */
+    public String keyOf(File imageFile) {
+        return keyExtractor.extract(imageFile.getName());
+    }
+
+    /**
+     * Метод для поиска шаблона по коду
+     *
+     * @param templateCode код шаблона
+     * @return файл шаблона или {@code null}, если шаблон не найден
+     */
+    public synchronized File resolve(String templateCode) {
+        TreeMap<String, File> files = filesByKey.get(templateCode);
+        return files == null ? null : files.firstEntry().getValue();
+    }
+
+    /**
+     * Метод для поиска маски шаблона по коду
+     *
+     * @param templateCode код шаблона
+     * @param suffix       суффикс маски: {@value #ROI_SUFFIX} или {@value #IGNORE_SUFFIX}
+     * @return файл маски рядом с файлом шаблона или {@code null}, если шаблон или маска не найдены
+     */
+    public File resolveMask(String templateCode, String suffix) {
+        File templateFile = resolve(templateCode);
+        if (templateFile == null) {
+            return null;
+        }
+        String name = templateFile.getName();
+        int dot = name.lastIndexOf('.');
+        String stem = dot < 0 ? name : name.substring(0, dot);
+        File maskFile = new File(templateFile.getParentFile(), stem + suffix + MASK_EXTENSION);
+        return maskFile.isFile() ? maskFile : null;
+    }
+
+    /**
+     * @return количество кодов шаблонов в реестре
+     */
+    public synchronized int size() {
+        return filesByKey.size();
+    }
+
+    /**
+     * Метод для добавления подписчика на изменение шаблонов
+     *
+     * @param listener подписчик, получающий код измененного шаблона
+     */
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Метод для удаления подписчика на изменение шаблонов
+     *
+     * @param listener подписчик
+     */
+    public void removeListener(Consumer<String> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Метод для запуска отслеживания изменений директории шаблонов в фоновом потоке.
+     * Повторный вызов не имеет эффекта
+     *
+     * @throws IOException если не удалось зарегистрировать директорию для отслеживания
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        WatchService service = directory.getFileSystem().newWatchService();
+        directory.register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchService = service;
+
+        Thread watcher = new Thread(() -> watch(service), "template-registry-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Метод для остановки отслеживания изменений директории шаблонов
+     */
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+                // Служба отслеживания закрывается только при завершении работы с реестром
+            }
+            watchService = null;
+        }
+    }
+
+    /**
+     * Метод для полной индексации директории шаблонов
+     *
+     * @return коды, набор файлов которых изменился
+     * @throws IOException если не удалось прочитать директорию
+     */
+    private Set<String> reindex() throws IOException {
+        Map<String, TreeMap<String, File>> scanned = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                String key = isTemplateFile(fileName) ? keyExtractor.extract(fileName) : null;
+                if (key != null) {
+                    scanned.computeIfAbsent(key, k -> new TreeMap<>()).put(fileName, path.toFile());
+                }
+            }
+        }
+
+        synchronized (this) {
+            Set<String> changed = new HashSet<>(filesByKey.keySet());
+            changed.addAll(scanned.keySet());
+            filesByKey.clear();
+            filesByKey.putAll(scanned);
+            return changed;
+        }
+    }
+
+    /**
+     * Метод для обновления одного файла в индексе
+     *
+     * @param fileName имя файла относительно директории шаблонов
+     * @return код затронутого шаблона или {@code null}, если файл не является шаблоном или его маской
+     */
+    private synchronized String update(String fileName) {
+        // Изменение маски не меняет индекс, но требует повторной подготовки шаблона
+        if (isMaskFile(fileName)) {
+            return keyExtractor.extract(fileName);
+        }
+
+        String key = isTemplateFile(fileName) ? keyExtractor.extract(fileName) : null;
+        if (key == null) {
+            return null;
+        }
+
+        Path path = directory.resolve(fileName);
+        TreeMap<String, File> files = filesByKey.computeIfAbsent(key, k -> new TreeMap<>());
+        if (Files.isRegularFile(path)) {
+            files.put(fileName, path.toFile());
+        } else {
+            files.remove(fileName);
+            if (files.isEmpty()) {
+                filesByKey.remove(key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Метод для обработки событий директории шаблонов до закрытия службы отслеживания
+     *
+     * @param service служба отслеживания
+     */
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey watchKey = service.take();
+                Set<String> changed = new HashSet<>();
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    // При переполнении очереди событий директория индексируется заново
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        try {
+                            changed.addAll(reindex());
+                        } catch (IOException e) {
+                            System.err.println("Ошибка при индексации шаблонов: " + e.getMessage());
+                        }
+                        continue;
+                    }
+                    String key = update(event.context().toString());
+                    if (key != null) {
+                        changed.add(key);
+                    }
+                }
+                for (String key : changed) {
+                    listeners.forEach(listener -> listener.accept(key));
+                }
+                if (!watchKey.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Отслеживание завершается закрытием реестра
+        }
+    }
+
+    /**
+     * Метод для проверки, является ли файл шаблонным изображением
+     *
+     * @param fileName имя файла
+     * @return {@code true}, если файл имеет расширение изображения и не является маской
+     */
+    private static boolean isTemplateFile(String fileName) {
+        String name = fileName.toLowerCase();
+        return (name.endsWith(".jpg") || name.endsWith(".png")) && !isMaskFile(fileName);
+    }
+
+    /**
+     * Метод для проверки, является ли файл маской шаблона
+     *
+     * @param fileName имя файла
+     * @return {@code true}, если имя файла оканчивается суффиксом маски и расширением PNG
+     */
+    private static boolean isMaskFile(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(ROI_SUFFIX + MASK_EXTENSION) || name.endsWith(IGNORE_SUFFIX + MASK_EXTENSION);
+    }
+}
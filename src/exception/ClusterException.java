@@ -0,0 +1,19 @@
+package exception;
+
+/**
+ * Исключение, выбрасываемое, если распределенная проверка не может быть завершена
+ * узлами проверки
+ */
+public class ClusterException extends Exception {
+
+    public ClusterException() {
+    }
+
+    public ClusterException(String message) {
+        super(message);
+    }
+
+    public ClusterException(Throwable cause) {
+        super(cause);
+    }
+}
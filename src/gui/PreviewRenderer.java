@@ -0,0 +1,182 @@
+package gui;
+
+import org.opencv.core.Mat;
+import util.DataConversions;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Класс, определяющий канал предпросмотра пакетной обработки: отображает в лейбле
+ * последнее обработанное изображение и прогресс обработки, не блокируя рабочие потоки
+ * и не переполняя очередь событий Swing.
+ * <p>
+ * Изображение преобразуется не чаще заданного количества кадров в секунду: остальные
+ * изображения пропускаются, а последнее изображение пакета отображается всегда.
+ * Кадр масштабируется в один повторно используемый задний буфер вне потока событий,
+ * поток событий копирует его в изображение лейбла. Обновления прогресса объединяются:
+ * в очереди событий находится не более одного обновления, которое отображает последнее
+ * значение. Поэтому затраты на отображение не зависят от скорости пакетной обработки
+ */
+public class PreviewRenderer {
+
+    /**
+     * Системное свойство, задающее наибольшее количество кадров предпросмотра в секунду
+     */
+    public static final String FPS_PROPERTY = "surfacescout.previewFps";
+
+    private static final int DEFAULT_FPS = 10;
+
+    private final JLabel label;
+    private final JProgressBar progressBar;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final long frameIntervalNanos;
+
+    private final AtomicLong nextFrameNanos = new AtomicLong(System.nanoTime());
+    private final AtomicInteger progress = new AtomicInteger();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    /**
+     * Задний буфер и признак нового кадра в нем; доступны только под блокировкой
+     */
+    private final ReentrantLock backBufferLock = new ReentrantLock();
+    private BufferedImage backBuffer;
+    private boolean frameReady;
+
+    /**
+     * Изображение, отображаемое лейблом; доступно только из потока событий
+     */
+    private BufferedImage frontBuffer;
+    private ImageIcon frontIcon;
+
+    /**
+     * @param label       лейбл для изображений
+     * @param progressBar прогресс-бар для количества обработанных изображений
+     * @param maxWidth    максимальная ширина изображения
+     * @param maxHeight   максимальная высота изображения
+     * @param maxFps      наибольшее количество кадров в секунду
+     */
+    public PreviewRenderer(JLabel label, JProgressBar progressBar, int maxWidth, int maxHeight, int maxFps) {
+        if (maxFps < 1) {
+            throw new IllegalArgumentException("Количество кадров в секунду должно быть положительным: " + maxFps);
+        }
+        this.label = label;
+        this.progressBar = progressBar;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxFps;
+    }
+
+    /**
+     * @return наибольшее количество кадров в секунду из свойства {@value #FPS_PROPERTY}
+     */
+    public static int getConfiguredFps() {
+        return Math.max(1, Integer.getInteger(FPS_PROPERTY, DEFAULT_FPS));
+    }
+
+    /**
+     * Метод для подготовки к новому пакету: сбрасывает прогресс, следующий кадр отображается сразу
+     */
+    public void reset() {
+        progress.set(0);
+        nextFrameNanos.set(System.nanoTime());
+    }
+
+    /**
+     * Метод для передачи обработанного изображения. Может вызываться из любого потока;
+     * изображение используется только до возврата из метода
+     *
+     * @param image     изображение с выделенными дефектами
+     * @param processed количество обработанных изображений
+     * @param total     общее количество изображений
+     */
+    public void submit(Mat image, int processed, int total) {
+        progress.accumulateAndGet(processed, Math::max);
+
+        // Последнее изображение пакета отображается всегда, остальные — не чаще заданной частоты
+        if (processed >= total) {
+            backBufferLock.lock();
+            try {
+                render(image);
+            } finally {
+                backBufferLock.unlock();
+            }
+        } else {
+            long now = System.nanoTime();
+            long due = nextFrameNanos.get();
+            if (now - due >= 0
+                    && nextFrameNanos.compareAndSet(due, now + frameIntervalNanos)
+                    && backBufferLock.tryLock()) {
+                try {
+                    render(image);
+                } finally {
+                    backBufferLock.unlock();
+                }
+            }
+        }
+        scheduleUpdate();
+    }
+
+    /**
+     * Метод для масштабирования изображения в задний буфер; вызывается под блокировкой
+     *
+     * @param image изображение для отображения
+     */
+    private void render(Mat image) {
+        backBuffer = DataConversions.matToScaledBufferedImage(image, maxWidth, maxHeight, backBuffer);
+        frameReady = true;
+    }
+
+    /**
+     * Метод для постановки обновления интерфейса в очередь событий, если оно еще не поставлено
+     */
+    private void scheduleUpdate() {
+        if (updateScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::update);
+        }
+    }
+
+    /**
+     * Метод для обновления прогресса и изображения в потоке событий
+     */
+    private void update() {
+        updateScheduled.set(false);
+        if (progressBar != null) {
+            progressBar.setValue(progress.get());
+        }
+
+        // Если задний буфер занят, после его заполнения обновление будет поставлено снова
+        if (!backBufferLock.tryLock()) {
+            return;
+        }
+        try {
+            if (!frameReady) {
+                return;
+            }
+            frameReady = false;
+
+            // Изображение лейбла создается заново только при смене размера или типа кадра
+            if (frontBuffer == null
+                    || frontBuffer.getWidth() != backBuffer.getWidth()
+                    || frontBuffer.getHeight() != backBuffer.getHeight()
+                    || frontBuffer.getType() != backBuffer.getType()) {
+                frontBuffer = new BufferedImage(backBuffer.getWidth(), backBuffer.getHeight(), backBuffer.getType());
+                frontIcon = new ImageIcon(frontBuffer);
+            }
+            backBuffer.copyData(frontBuffer.getRaster());
+        } finally {
+            backBufferLock.unlock();
+        }
+
+        if (label.getIcon() != frontIcon) {
+            label.setIcon(frontIcon);
+        }
+        label.repaint();
+    }
+}
@@ -1,23 +1,16 @@
 package gui;
 
+import batch.BatchInspector;
+import batch.ResultSink;
+import batch.TemplateRegistry;
 import exception.ImageReadException;
-import org.opencv.core.*;
-import org.opencv.imgproc.Imgproc;
-import util.DataConversions;
-import util.Filters;
-import util.ImageIO;
-import util.Processing;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionListener;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.file.Paths;
 
 /**
  * Класс, определяющий панель для обработки множества изображений
@@ -30,6 +23,7 @@ public class ProcessManyPanel extends JPanel {
     private JTextField imagePathField, templatePathField, logsPathField;
     private final JLabel imageLabel;
     private final JProgressBar progressBar;
+    private final PreviewRenderer preview;
     private final JFileChooser fileChooser;
     private final Toolkit tk = Toolkit.getDefaultToolkit();
 
@@ -46,6 +40,9 @@ public class ProcessManyPanel extends JPanel {
         // Создание панели прогресс-бара
         progressBar = createProgressBar();
 
+        // Создание канала предпросмотра обработанных изображений
+        preview = createPreview(imageLabel, progressBar);
+
         // Создание JFileChooser
         fileChooser = createFileChooser();
 
@@ -212,28 +209,28 @@ public class ProcessManyPanel extends JPanel {
 
     /**
      * Обработчик событий кнопки обработки директории изображений.
-     * При вызове выполняется парсинг изображений и шаблонов, а также создание
-     * отдельного потока обработки изображений, в течение которой обработанные
+     * При вызове выполняется парсинг изображений и шаблонов, а также запуск
+     * пакетной обработки в {@link BatchInspector}, в течение которой обработанные
      * изображения отображаются в интерфейсе. Также найденные дефекты и их координаты
      * логируются в файле, создаваемому по указанному пути
      */
     private void processImages() {
         // Получение изображений для обработки
-        File imageDirectory = new File(imagePathField.getText());
-        File[] imageFiles = imageDirectory
-                .listFiles((dir, name) -> name.toLowerCase().endsWith(".jpg") ||
-                        name.toLowerCase().endsWith(".png"));
+        File[] imageFiles = BatchInspector.listImageFiles(new File(imagePathField.getText()));
         if (imageFiles == null || imageFiles.length == 0) {
             showErrorDialog("Директория с изображениями пуста!");
             return;
         }
 
         // Получение шаблонных изображений
-        File templateDirectory = new File(templatePathField.getText());
-        File[] templateFiles = templateDirectory
-                .listFiles((dir, name) -> name.toLowerCase().endsWith(".jpg") ||
-                        name.toLowerCase().endsWith(".png"));
-        if (templateFiles == null || templateFiles.length == 0) {
+        TemplateRegistry templateRegistry;
+        try {
+            templateRegistry = TemplateRegistry.open(Paths.get(templatePathField.getText()));
+        } catch (IOException e) {
+            showErrorDialog("Ошибка чтения директории с шаблонами: " + e.getMessage());
+            return;
+        }
+        if (templateRegistry.size() == 0) {
             showErrorDialog("Директория с шаблонами пуста!");
             return;
         }
@@ -247,126 +244,42 @@ public class ProcessManyPanel extends JPanel {
         // Установка максимального и начального значений прогресс-бара
         progressBar.setMaximum(imageFiles.length);
         progressBar.setValue(0);
+        preview.reset();
 
+        // Запуск пакетной обработки в отдельном потоке; сама обработка
+        // распределяется сервисом по пулу рабочих потоков
+        BatchInspector inspector = new BatchInspector(BatchInspector.getConfiguredWorkerCount());
         new Thread(() -> {
-            int time = Math.abs(Long.hashCode(System.currentTimeMillis()));
-            try (PrintWriter writer = new PrintWriter(
-                    new FileWriter(logsPathField.getText() + "\\logs_" + time + ".log"))) {
-                // Объявление матриц, связанных с шаблоном для экономии памяти
-                Mat templateSrc, templateGray = null;
-
-                // Обработка изображений
-                String lastLoadedTemplateCode = "";
-                int counter = 0;
-                for (File imageFile : imageFiles) {
-                    // Загрузка шаблонного изображения
-                    String templateCode = imageFile.getName().substring(0, 2);
-                    if (!templateCode.equals(lastLoadedTemplateCode)) {
-                        try {
-                            templateSrc = ImageIO.loadImage(
-                                    Arrays
-                                            .stream(templateFiles)
-                                            .filter(file -> file.getName().startsWith(templateCode))
-                                            .findFirst()
-                                            .orElseThrow(() ->
-                                                    new ImageReadException("Шаблон не найден для кода: " +
-                                                            templateCode))
-                                            .toString()
-                            );
-                        } catch (ImageReadException ire) {
-                            showErrorDialog("Ошибка при загрузке шаблонного изображения: " + ire.getMessage());
-                            selectImageDirButton.setEnabled(true);
-                            selectTemplateDirButton.setEnabled(true);
-                            selectLogsButton.setEnabled(true);
-                            processImagesButton.setEnabled(false);
-                            return;
-                        }
-                        lastLoadedTemplateCode = templateCode;
-
-                        // Уменьшение размеров нового шаблона
-                        Imgproc.resize(templateSrc, templateSrc,
-                                new Size((double) templateSrc.cols() / 2, (double) templateSrc.rows() / 2));
-
-                        // Преобразование нового шаблона к оттенкам серого
-                        templateGray = new Mat();
-                        Imgproc.cvtColor(templateSrc, templateGray, Imgproc.COLOR_BGR2GRAY);
-                    }
-
-                    // Загрузка исходного изображения
-                    Mat targetSrc;
-                    try {
-                        targetSrc = ImageIO.loadImage(imageFile.getAbsolutePath());
-                    } catch (ImageReadException ire) {
-                        showErrorDialog("Ошибка при загрузке исходного изображения: " + ire.getMessage());
-                        selectImageDirButton.setEnabled(true);
-                        selectTemplateDirButton.setEnabled(true);
-                        selectLogsButton.setEnabled(true);
-                        processImagesButton.setEnabled(false);
-                        return;
-                    }
-
-                    // Уменьшение размеров изображений
-                    Imgproc.resize(targetSrc, targetSrc,
-                            new Size((double) targetSrc.cols() / 2, (double) targetSrc.rows() / 2));
-
-                    // Преобразование исходного изображения к оттенкам серого
-                    Mat targetGray = new Mat();
-                    Imgproc.cvtColor(targetSrc, targetGray, Imgproc.COLOR_BGR2GRAY);
-
-                    // Применение размытия по Гауссу
-                    Mat templateBlur = Filters.applyGaussianBlur(templateGray);
-                    Mat targetBlur = Filters.applyGaussianBlur(targetGray);
-
-                    // Выравнивание гистограмм
-                    Mat templateCLAHE = Filters.applyCLAHE(templateBlur);
-                    Mat targetCLAHE = Filters.applyCLAHE(targetBlur);
-
-                    // Поиск дефектов методом сравнения с шаблоном
-                    Mat matchedImg = Processing.matchTemplate(templateCLAHE, targetCLAHE);
-
-                    // Постобработка изображения
-                    Mat dilatedImg = Processing.dilateImage(matchedImg);
-
-                    // Поиск контуров
-                    List<MatOfPoint> contours = Processing.findContours(dilatedImg);
-
-                    // Создание изображения с выделенными дефектами
-                    Mat boundedImg = new Mat();
-                    targetSrc.copyTo(boundedImg);
-
-                    // Отрисовка выделений дефектов
-                    List<Rect> boundingRects = Processing.getBoundingRects(contours);
-                    for (Rect rect : boundingRects) {
-                        if (rect.size().width >= 2 || rect.size().height >= 2) {
-                            Imgproc.rectangle(boundedImg, rect, new Scalar(255, 0, 255), 2);
-
-                            String logMsg = String.format(
-                                    "На плате %s обнаружен дефект. Координаты дефекта: (%d, %d; %d, %d)",
-                                    imageFile.getName(),
-                                    rect.x, rect.y,
-                                    rect.x + rect.width, rect.y + rect.height
-                            );
-                            writer.println(logMsg);
-                        }
-                    }
-                    writer.flush();
-
-                    // Вывод изображения на панель
-                    displayImage(boundedImg, imageLabel);
-
-                    // Увеличение счетчика прогресс-бара
-                    progressBar.setValue(++counter);
+            try (templateRegistry;
+                 ResultSink sink = ResultSink.open(Paths.get(logsPathField.getText()), ResultSink.getConfiguredFormat())) {
+                if (Boolean.getBoolean(TemplateRegistry.WATCH_PROPERTY)) {
+                    templateRegistry.startWatching();
                 }
-            } catch (IOException e) {
-                showErrorDialog("Ошибка создания файла логов: " + e.getMessage());
+                // Изображение передается в предпросмотр до возврата из получателя,
+                // так как после него матрица изображения освобождается
+                inspector.inspect(imageFiles, templateRegistry, sink, (result, processed, total) ->
+                        preview.submit(result.getBoundedImage(), processed, total));
+            } catch (ImageReadException ire) {
+                SwingUtilities.invokeLater(() -> {
+                    showErrorDialog(ire.getMessage());
+                    selectImageDirButton.setEnabled(true);
+                    selectTemplateDirButton.setEnabled(true);
+                    selectLogsButton.setEnabled(true);
+                    processImagesButton.setEnabled(false);
+                });
+                return;
+            } catch (IOException | IllegalArgumentException e) {
+                SwingUtilities.invokeLater(() -> showErrorDialog("Ошибка записи файла логов: " + e.getMessage()));
             }
 
             // Включение кнопок
-            selectImageDirButton.setEnabled(true);
-            selectTemplateDirButton.setEnabled(true);
-            selectLogsButton.setEnabled(true);
-            processImagesButton.setEnabled(true);
-        }).start();
+            SwingUtilities.invokeLater(() -> {
+                selectImageDirButton.setEnabled(true);
+                selectTemplateDirButton.setEnabled(true);
+                selectLogsButton.setEnabled(true);
+                processImagesButton.setEnabled(true);
+            });
+        }, "batch-coordinator").start();
     }
 
     /**
@@ -411,34 +324,17 @@ public class ProcessManyPanel extends JPanel {
     }
 
     /**
-     * Метод для отображения изображения в интерфейсе
+     * Метод для создания канала предпросмотра обработанных изображений
      *
-     * @param image изображение, которое необходимо отобразить в {@code label}
-     * @param label лейбл, в котором должно отобразиться изображение {@code image}
+     * @param label       лейбл изображения
+     * @param progressBar прогресс-бар обработки
+     * @return канал предпросмотра, вписывающий изображения в доступный размер панели
      */
-    private void displayImage(Mat image, JLabel label) {
-        // Получение оригинальных размеров изображения
-        BufferedImage bufferedImage = DataConversions.matToBufferedImage(image);
-        int originalWidth = bufferedImage.getWidth();
-        int originalHeight = bufferedImage.getHeight();
-
+    private PreviewRenderer createPreview(JLabel label, JProgressBar progressBar) {
         // Получение доступного размера панели
         int maxWidth = (int) (tk.getScreenSize().width / 1.5);
         int maxHeight = (int) (tk.getScreenSize().height / 2.0);
 
-        // Расчет новых размеров с сохранением пропорций
-        double widthRatio = (double) maxWidth / originalWidth;
-        double heightRatio = (double) maxHeight / originalHeight;
-        double scale = Math.min(widthRatio, heightRatio);
-
-        int newWidth = (int) (originalWidth * scale);
-        int newHeight = (int) (originalHeight * scale);
-
-        // Масштабирование изображения с сохранением пропорций
-        Image scaledImage = bufferedImage.getScaledInstance(newWidth, newHeight, Image.SCALE_SMOOTH);
-
-        // Установка изображения на JLabel
-        ImageIcon imageIcon = new ImageIcon(scaledImage);
-        label.setIcon(imageIcon);
+        return new PreviewRenderer(label, progressBar, maxWidth, maxHeight, PreviewRenderer.getConfiguredFps());
     }
 }
\ No newline at end of file
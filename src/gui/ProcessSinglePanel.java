@@ -1,13 +1,15 @@
 package gui;
 
+import batch.InspectionPipeline;
+import batch.InspectionStages;
+import batch.PreparedTemplate;
 import exception.ImageReadException;
 import exception.ImageWriteException;
 import org.opencv.core.*;
-import org.opencv.imgproc.Imgproc;
 import util.DataConversions;
-import util.Filters;
 import util.ImageIO;
-import util.Processing;
+import util.MatBuffers;
+import util.MatScope;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -24,6 +26,20 @@ public class ProcessSinglePanel extends JPanel {
 
     private static ProcessSinglePanel instance;
 
+    /**
+     * Конвейер панели: уменьшение вдвое, оттенки серого, размытие, выравнивание гистограммы,
+     * сравнение с шаблоном целиком над изображением и дилатация с параметрами по умолчанию.
+     * Не зависит от свойств пакетной обработки (пирамида, полосы, предварительная проверка, движок)
+     */
+    private static final InspectionPipeline PIPELINE = InspectionPipeline.of(List.of(
+            InspectionStages.halve(),
+            InspectionStages.gray(),
+            InspectionStages.blur(),
+            InspectionStages.clahe(),
+            InspectionStages.match(0),
+            InspectionStages.dilate()
+    ));
+
     private final JPanel templatePanel, targetPanel;
     private final JLabel templateLabel, targetLabel;
     private JButton loadTemplateButton, loadTargetButton, processTargetButton, saveTargetButton;
@@ -202,58 +218,29 @@ public class ProcessSinglePanel extends JPanel {
 
         // Создание потока обработки изображения
         new Thread(() -> {
-            // Клонирование исходных изображений
-            Mat templateCopy = templateImage.clone();
-            Mat targetCopy = targetImage.clone();
-
-            // Изменение размеров изображений (до 25%)
-            Imgproc.resize(templateCopy, templateCopy,
-                    new Size((double) templateCopy.cols() / 2, (double) templateCopy.rows() / 2));
-            Imgproc.resize(targetCopy, targetCopy,
-                    new Size((double) targetCopy.cols() / 2, (double) targetCopy.rows() / 2));
-
-            // Преобразование исходных изображений к оттенкам серого
-            Mat templateGray = new Mat(templateCopy.rows(), templateCopy.cols(), CvType.CV_8UC1);
-            Mat targetGray = new Mat(targetCopy.rows(), targetCopy.cols(), CvType.CV_8UC1);
-
-            Imgproc.cvtColor(templateCopy, templateGray, Imgproc.COLOR_BGR2GRAY);
-            Imgproc.cvtColor(targetCopy, targetGray, Imgproc.COLOR_BGR2GRAY);
-
-            // Применение размытия по Гауссу
-            Mat templateBlur = Filters.applyGaussianBlur(templateGray);
-            Mat targetBlur = Filters.applyGaussianBlur(targetGray);
-
-            // Выравнивание гистограммы
-            Mat templateCLAHE = Filters.applyCLAHE(templateBlur);
-            Mat targetCLAHE = Filters.applyCLAHE(targetBlur);
-
-            // Поиск дефектов методом сравнения с шаблоном
-            Mat matchedImg = Processing.matchTemplate(templateCLAHE, targetCLAHE);
-
-            // Постобработка изображения
-            Mat dilatedImg = Processing.dilateImage(matchedImg);
-
-            // Поиск контуров
-            List<MatOfPoint> contours = Processing.findContours(dilatedImg);
-
-            // Создание изображения с выделенными дефектами
-            Mat boundedImg = new Mat();
-            targetCopy.copyTo(boundedImg);
-
-            // Отрисовка выделений дефектов
-            List<Rect> boundingRects = Processing.getBoundingRects(contours);
-            for (Rect rect : boundingRects) {
-                Imgproc.rectangle(boundedImg, rect, new Scalar(255, 0, 255), 2);
+            // Промежуточные матрицы освобождаются по завершении обработки
+            PreparedTemplate template = PIPELINE.prepareTemplate(templateImage);
+            try (MatBuffers buffers = new MatBuffers()) {
+                // Поиск дефектов и создание изображения с выделенными дефектами
+                List<Rect> defects = PIPELINE.inspect(targetImage, template, buffers);
+                Mat boundedImg = PIPELINE.renderDefects(targetImage, defects);
+
+                // Масштабирование выполняется в потоке обработки, а вывод изображения
+                // на панель и включение кнопок — в потоке событий
+                ImageIcon imageIcon = createScaledIcon(boundedImg);
+                SwingUtilities.invokeLater(() -> {
+                    targetLabel.setIcon(imageIcon);
+                    Mat previousTarget = targetImage;
+                    targetImage = boundedImg;
+                    MatScope.release(previousTarget);
+
+                    loadTemplateButton.setEnabled(true);
+                    loadTargetButton.setEnabled(true);
+                    saveTargetButton.setEnabled(true);
+                });
+            } finally {
+                template.release();
             }
-
-            // Вывод изображения на панель
-            displayImage(boundedImg, targetLabel);
-            targetImage = boundedImg;
-
-            // Включение кнопок
-            loadTemplateButton.setEnabled(true);
-            loadTargetButton.setEnabled(true);
-            saveTargetButton.setEnabled(true);
         }).start();
     }
 
@@ -307,29 +294,24 @@ public class ProcessSinglePanel extends JPanel {
      * @param label лейбл, в котором должно отобразиться изображение {@code image}
      */
     private void displayImage(Mat image, JLabel label) {
-        // Получение оригинальных размеров изображения
-        BufferedImage bufferedImage = DataConversions.matToBufferedImage(image);
-        int originalWidth = bufferedImage.getWidth();
-        int originalHeight = bufferedImage.getHeight();
+        label.setIcon(createScaledIcon(image));
+    }
 
+    /**
+     * Метод для создания иконки изображения, вписанной в доступный размер панели.
+     * Может вызываться вне потока событий
+     *
+     * @param image изображение, которое необходимо отобразить
+     * @return иконка масштабированного изображения
+     */
+    private ImageIcon createScaledIcon(Mat image) {
         // Получение доступного размера панели
         Toolkit tk = Toolkit.getDefaultToolkit();
         int maxWidth = (int) (tk.getScreenSize().width / 2.5);
         int maxHeight = (int) (tk.getScreenSize().height / 2.0);
 
-        // Расчет новых размеров с сохранением пропорций
-        double widthRatio = (double) maxWidth / originalWidth;
-        double heightRatio = (double) maxHeight / originalHeight;
-        double scale = Math.min(widthRatio, heightRatio);
-
-        int newWidth = (int) (originalWidth * scale);
-        int newHeight = (int) (originalHeight * scale);
-
-        // Масштабирование изображения с сохранением пропорций
-        Image scaledImage = bufferedImage.getScaledInstance(newWidth, newHeight, Image.SCALE_SMOOTH);
-
-        // Установка изображения на JLabel
-        ImageIcon imageIcon = new ImageIcon(scaledImage);
-        label.setIcon(imageIcon);
+        // Масштабирование изображения с сохранением пропорций до преобразования
+        BufferedImage scaledImage = DataConversions.matToScaledBufferedImage(image, maxWidth, maxHeight, null);
+        return new ImageIcon(scaledImage);
     }
 }
@@ -0,0 +1,186 @@
+package metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Точка доступа к инструментации пакетной проверки.
+ * <p>
+ * Инструментация включается свойством {@value #ENABLED_PROPERTY} при запуске JVM. Во включенном
+ * состоянии стадии накапливают гистограммы задержек и объем выделенной нативной памяти,
+ * показатели текущего запуска публикуются через JMX под именем {@value #OBJECT_NAME}
+ * и, если задан файл {@value #FILE_PROPERTY}, периодически записываются в него.
+ * Флаг читается один раз в статическую константу, поэтому в отключенном состоянии
+ * проверки флага исключаются JIT-компилятором и не влияют на производительность
+ */
+public class InspectionMetrics implements InspectionMetricsMXBean {
+
+    /**
+     * Системное свойство, включающее инструментацию
+     */
+    public static final String ENABLED_PROPERTY = "surfacescout.metrics";
+
+    /**
+     * Системное свойство, задающее файл, в который периодически записываются показатели
+     */
+    public static final String FILE_PROPERTY = "surfacescout.metricsFile";
+
+    /**
+     * Системное свойство, задающее период записи показателей в файл в миллисекундах
+     */
+    public static final String INTERVAL_PROPERTY = "surfacescout.metricsIntervalMillis";
+
+    /**
+     * Имя, под которым показатели публикуются через JMX
+     */
+    public static final String OBJECT_NAME = "surfacescout:type=InspectionMetrics";
+
+    private static final long DEFAULT_INTERVAL_MILLIS = 10_000;
+
+    private static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+    private static final InspectionMetrics INSTANCE = new InspectionMetrics();
+
+    static {
+        if (ENABLED) {
+            INSTANCE.publish();
+        }
+    }
+
+    private final LongAdder images = new LongAdder();
+    private volatile List<StageMetrics> stages = List.of();
+    private volatile long startNanos = System.nanoTime();
+    private volatile long lastImageNanos = startNanos;
+
+    private InspectionMetrics() {
+    }
+
+    /**
+     * @return {@code true}, если инструментация включена
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @return единственный экземпляр показателей
+     */
+    public static InspectionMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Метод для начала учета нового запуска
+     *
+     * @param runStages показатели стадий запуска
+     */
+    public void beginRun(List<StageMetrics> runStages) {
+        images.reset();
+        startNanos = System.nanoTime();
+        lastImageNanos = startNanos;
+        stages = List.copyOf(runStages);
+    }
+
+    /**
+     * Метод для учета проверенного изображения
+     */
+    public void recordImage() {
+        images.increment();
+        lastImageNanos = System.nanoTime();
+    }
+
+    @Override
+    public long getImagesProcessed() {
+        return images.sum();
+    }
+
+    @Override
+    public double getImagesPerSecond() {
+        double seconds = getElapsedSeconds();
+        return seconds > 0 ? getImagesProcessed() / seconds : 0;
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        return (lastImageNanos - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public List<StageSnapshot> getStages() {
+        List<StageSnapshot> snapshots = new ArrayList<>();
+        for (StageMetrics stage : stages) {
+            snapshots.add(StageSnapshot.of(stage));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Метод для форматирования показателей текущего запуска
+     *
+     * @return текстовое представление показателей
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s изображений: %d, %.2f в секунду%n",
+                Instant.now(), getImagesProcessed(), getImagesPerSecond()));
+        for (StageMetrics stage : stages) {
+            sb.append(stage).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Метод для регистрации показателей в JMX и запуска периодической записи в файл
+     */
+    private void publish() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Не удалось опубликовать показатели через JMX: " + e.getMessage());
+        }
+
+        String file = System.getProperty(FILE_PROPERTY);
+        if (file == null || file.isBlank()) {
+            return;
+        }
+        Path path = Paths.get(file);
+        long interval = Math.max(1, Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MILLIS));
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dumper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(path), interval, interval, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(path), "metrics-dumper-final"));
+    }
+
+    /**
+     * Метод для записи показателей в файл. Файл заменяется целиком, поэтому
+     * читатель никогда не видит частично записанные показатели
+     *
+     * @param path путь к файлу показателей
+     */
+    private void dump(Path path) {
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+            Files.writeString(temp, format(), StandardCharsets.UTF_8);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Ошибка записи показателей: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package metrics;
+
+import java.util.List;
+
+/**
+ * Интерфейс управления, публикующий показатели текущего или последнего запуска
+ * пакетной проверки через JMX
+ */
+public interface InspectionMetricsMXBean {
+
+    /**
+     * @return количество проверенных изображений
+     */
+    long getImagesProcessed();
+
+    /**
+     * @return пропускная способность в изображениях в секунду
+     */
+    double getImagesPerSecond();
+
+    /**
+     * @return время от начала запуска до последнего проверенного изображения в секундах
+     */
+    double getElapsedSeconds();
+
+    /**
+     * @return показатели стадий запуска
+     */
+    List<StageSnapshot> getStages();
+}
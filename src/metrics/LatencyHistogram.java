@@ -0,0 +1,116 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Потокобезопасная гистограмма задержек с логарифмически-линейными корзинами,
+ * аналогичная HdrHistogram.
+ * <p>
+ * Значения меньше {@value #LINEAR_LIMIT} наносекунд хранятся точно, а каждая следующая
+ * степень двойки делится на {@value #SUB_BUCKETS} равных корзин, поэтому относительная
+ * погрешность значения не превышает 1/{@value #SUB_BUCKETS} во всем диапазоне {@code long}.
+ * Запись значения — одно атомарное увеличение счетчика без блокировок и выделения памяти
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+    private static final int LINEAR_LIMIT = 1 << LINEAR_BITS;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (Long.SIZE - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Метод для учета значения
+     *
+     * @param nanos задержка в наносекундах; отрицательные значения учитываются как ноль
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return количество учтенных значений
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return максимальное учтенное значение в наносекундах
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Метод для получения значения процентиля
+     *
+     * @param percentile процентиль от 0 до 100
+     * @return верхняя граница корзины, в которую попадает процентиль, в наносекундах;
+     * ноль, если значений нет
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        // Поиск корзины, в которой накопленное количество достигает процентиля
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Метод для получения номера корзины значения
+     *
+     * @param value неотрицательное значение
+     * @return номер корзины
+     */
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Метод для получения наибольшего значения, попадающего в корзину
+     *
+     * @param index номер корзины
+     * @return верхняя граница корзины
+     */
+    private static long upperBoundOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lower = ((long) (SUB_BUCKETS + subBucket)) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,137 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Класс, накапливающий показатели одной стадии конвейера пакетной обработки:
+ * количество обработанных элементов, время работы стадии и глубину ее входной очереди.
+ * Глубина очереди фиксируется в момент, когда стадия забирает очередной элемент.
+ * <p>
+ * При включенной инструментации ({@link InspectionMetrics#isEnabled()}) дополнительно
+ * накапливаются гистограмма задержек и объем выделенной стадией нативной памяти
+ */
+public class StageMetrics {
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder queueDepthSum = new LongAdder();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Метод для учета обработанного стадией элемента
+     *
+     * @param nanos      время обработки элемента в наносекундах
+     * @param queueDepth глубина входной очереди стадии в момент получения элемента
+     */
+    public void record(long nanos, int queueDepth) {
+        count.increment();
+        busyNanos.add(nanos);
+        queueDepthSum.add(queueDepth);
+        maxQueueDepth.accumulateAndGet(queueDepth, Math::max);
+        if (InspectionMetrics.isEnabled()) {
+            latency.record(nanos);
+        }
+    }
+
+    /**
+     * Метод для учета нативной памяти, выделенной стадией. Учитывается только
+     * при включенной инструментации
+     *
+     * @param bytes объем выделенной памяти в байтах
+     */
+    public void recordAllocation(long bytes) {
+        if (InspectionMetrics.isEnabled()) {
+            allocatedBytes.add(bytes);
+        }
+    }
+
+    /**
+     * @return название стадии
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return количество обработанных элементов
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return суммарное время работы стадии по всем потокам в миллисекундах
+     */
+    public double getTotalMillis() {
+        return busyNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return среднее время обработки одного элемента в миллисекундах
+     */
+    public double getMeanMillis() {
+        long n = getCount();
+        return n == 0 ? 0 : getTotalMillis() / n;
+    }
+
+    /**
+     * @return средняя глубина входной очереди
+     */
+    public double getMeanQueueDepth() {
+        long n = getCount();
+        return n == 0 ? 0 : queueDepthSum.sum() / (double) n;
+    }
+
+    /**
+     * @return максимальная глубина входной очереди
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return гистограмма задержек стадии; пуста, если инструментация отключена
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Метод для получения процентиля задержки
+     *
+     * @param percentile процентиль от 0 до 100
+     * @return задержка в миллисекундах
+     */
+    public double getPercentileMillis(double percentile) {
+        return latency.getValueAtPercentile(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return объем нативной памяти, выделенной стадией, в байтах
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        String summary = String.format("%-8s элементов: %d, всего: %.1f мс, в среднем: %.2f мс, очередь: %.1f (макс. %d)",
+                name, getCount(), getTotalMillis(), getMeanMillis(), getMeanQueueDepth(), getMaxQueueDepth());
+        if (!InspectionMetrics.isEnabled()) {
+            return summary;
+        }
+        return summary + String.format(", p50/p99/макс.: %.2f/%.2f/%.2f мс, выделено: %.1f МБ",
+                getPercentileMillis(50), getPercentileMillis(99),
+                latency.getMax() / (double) TimeUnit.MILLISECONDS.toNanos(1),
+                getAllocatedBytes() / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,128 @@
+package metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Класс, описывающий показатели стадии в момент запроса через JMX
+ */
+public class StageSnapshot {
+
+    private final String name;
+    private final long count;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+    private final double meanQueueDepth;
+    private final int maxQueueDepth;
+    private final long allocatedBytes;
+
+    @ConstructorProperties({"name", "count", "meanMillis", "p50Millis", "p90Millis", "p99Millis",
+            "maxMillis", "meanQueueDepth", "maxQueueDepth", "allocatedBytes"})
+    public StageSnapshot(String name, long count, double meanMillis, double p50Millis, double p90Millis,
+                         double p99Millis, double maxMillis, double meanQueueDepth, int maxQueueDepth,
+                         long allocatedBytes) {
+        this.name = name;
+        this.count = count;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p90Millis = p90Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+        this.meanQueueDepth = meanQueueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Метод для получения снимка показателей стадии
+     *
+     * @param metrics показатели стадии
+     * @return снимок показателей
+     */
+    public static StageSnapshot of(StageMetrics metrics) {
+        return new StageSnapshot(
+                metrics.getName(),
+                metrics.getCount(),
+                metrics.getMeanMillis(),
+                metrics.getPercentileMillis(50),
+                metrics.getPercentileMillis(90),
+                metrics.getPercentileMillis(99),
+                metrics.getPercentileMillis(100),
+                metrics.getMeanQueueDepth(),
+                metrics.getMaxQueueDepth(),
+                metrics.getAllocatedBytes()
+        );
+    }
+
+    /**
+     * @return название стадии
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return количество обработанных элементов
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return среднее время обработки элемента в миллисекундах
+     */
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    /**
+     * @return медиана времени обработки элемента в миллисекундах
+     */
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    /**
+     * @return 90-й процентиль времени обработки элемента в миллисекундах
+     */
+    public double getP90Millis() {
+        return p90Millis;
+    }
+
+    /**
+     * @return 99-й процентиль времени обработки элемента в миллисекундах
+     */
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    /**
+     * @return максимальное время обработки элемента в миллисекундах
+     */
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * @return средняя глубина входной очереди
+     */
+    public double getMeanQueueDepth() {
+        return meanQueueDepth;
+    }
+
+    /**
+     * @return максимальная глубина входной очереди
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return объем нативной памяти, выделенной стадией, в байтах
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
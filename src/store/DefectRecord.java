@@ -0,0 +1,58 @@
+package store;
+
+import org.opencv.core.Rect;
+
+/**
+ * Класс, описывающий один дефект, прочитанный из {@link DefectStore}
+ */
+public class DefectRecord {
+
+    private final long index;
+    private final String boardName;
+    private final String templateCode;
+    private final long timestamp;
+    private final Rect rect;
+
+    public DefectRecord(long index, String boardName, String templateCode, long timestamp, Rect rect) {
+        this.index = index;
+        this.boardName = boardName;
+        this.templateCode = templateCode;
+        this.timestamp = timestamp;
+        this.rect = rect;
+    }
+
+    /**
+     * @return порядковый номер записи в хранилище
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * @return имя файла изображения платы
+     */
+    public String getBoardName() {
+        return boardName;
+    }
+
+    /**
+     * @return код шаблона, с которым сравнивалась плата
+     */
+    public String getTemplateCode() {
+        return templateCode;
+    }
+
+    /**
+     * @return время проверки платы в миллисекундах от начала эпохи
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return прямоугольник, ограничивающий дефект
+     */
+    public Rect getRect() {
+        return rect;
+    }
+}
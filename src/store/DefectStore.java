@@ -0,0 +1,641 @@
+package store;
+
+import org.opencv.core.Rect;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Постоянное хранилище найденных дефектов, отображаемое в память.
+ * <p>
+ * Хранилище занимает директорию с тремя файлами:
+ * <ul>
+ *   <li>{@value #RECORDS_FILE} — только дописываемые записи фиксированного размера {@value #RECORD_BYTES} байт;</li>
+ *   <li>{@value #NAMES_FILE} — таблица имен плат, на которые ссылаются записи;</li>
+ *   <li>{@value #INDEX_FILE} — заголовок с количеством записей, таблицей кодов шаблонов
+ *       и головами цепочек индексов.</li>
+ * </ul>
+ * Индексы встроены в записи: каждая запись хранит номер предыдущей записи с тем же кодом шаблона
+ * и номер предыдущей записи в той же корзине пространственного индекса. Корзина определяется
+ * ячейкой сетки, в которую попадает левый верхний угол прямоугольника дефекта. Файл записей
+ * отображается в память сегментами, поэтому запросы читают записи непосредственно из файла,
+ * не загружая их в кучу, а размер хранилища ограничен только диском.
+ * <p>
+ * Записи добавляются в порядке неубывания времени, поэтому цепочки упорядочены от новых записей
+ * к старым, а обход с ограничением по времени прекращается при выходе за начало интервала.
+ * Добавление выполняется одним потоком за раз, запросы могут выполняться параллельно с ним.
+ * Данные, не сброшенные на диск методом {@link #flush()} или {@link #close()},
+ * сохраняются при аварийном завершении процесса, но могут быть потеряны при сбое системы
+ */
+public class DefectStore implements AutoCloseable {
+
+    public static final String RECORDS_FILE = "defects.dat";
+    public static final String NAMES_FILE = "names.dat";
+    public static final String INDEX_FILE = "index.dat";
+    public static final int RECORD_BYTES = 48;
+    public static final int DEFAULT_CELL_SIZE = 64;
+
+    private static final int MAGIC = 0x31534453;
+    private static final int CODE_SLOTS = 256;
+    private static final int CODE_BYTES = 8;
+    private static final int CODE_SLOT_BYTES = 16;
+    private static final int BUCKET_COUNT = 1 << 16;
+    private static final int SEGMENT_RECORDS = 1 << 20;
+    private static final long SEGMENT_BYTES = (long) SEGMENT_RECORDS * RECORD_BYTES;
+    private static final long MAX_RECORDS = Integer.MAX_VALUE - 1;
+
+    // Смещения полей заголовка
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_CELL_SIZE = 4;
+    private static final int HEADER_COUNT = 8;
+    private static final int HEADER_LAST_TIMESTAMP = 16;
+    private static final int HEADER_MAX_WIDTH = 24;
+    private static final int HEADER_MAX_HEIGHT = 28;
+    private static final int HEADER_CODES = 32;
+    private static final int HEADER_BUCKETS = HEADER_CODES + CODE_SLOTS * CODE_SLOT_BYTES;
+    private static final int HEADER_BYTES = HEADER_BUCKETS + BUCKET_COUNT * Integer.BYTES;
+
+    // Смещения полей записи; ссылки на записи хранятся как номер записи плюс один,
+    // поэтому нулевое значение в новом файле означает отсутствие ссылки
+    private static final int RECORD_TIMESTAMP = 0;
+    private static final int RECORD_NAME = 8;
+    private static final int RECORD_PREV_CODE = 16;
+    private static final int RECORD_PREV_CELL = 20;
+    private static final int RECORD_X = 24;
+    private static final int RECORD_Y = 28;
+    private static final int RECORD_WIDTH = 32;
+    private static final int RECORD_HEIGHT = 36;
+    private static final int RECORD_CODE = 40;
+
+    private final FileChannel recordsChannel;
+    private final FileChannel namesChannel;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer header;
+    private final int cellSize;
+    private final Map<String, Integer> codeSlots = new HashMap<>();
+    private final String[] codes = new String[CODE_SLOTS];
+    private MappedByteBuffer[] segments;
+    private long namesSize;
+
+    private DefectStore(Path directory, int cellSize) throws IOException {
+        Files.createDirectories(directory);
+        recordsChannel = FileChannel.open(directory.resolve(RECORDS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        namesChannel = FileChannel.open(directory.resolve(NAMES_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Заголовок нового хранилища инициализируется, существующего — проверяется
+        boolean created = indexChannel.size() == 0;
+        header = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (created) {
+            header.putInt(HEADER_MAGIC, MAGIC);
+            header.putInt(HEADER_CELL_SIZE, cellSize);
+        } else if (header.getInt(HEADER_MAGIC) != MAGIC) {
+            close();
+            throw new IOException("Директория не содержит хранилища дефектов: " + directory);
+        }
+        this.cellSize = header.getInt(HEADER_CELL_SIZE);
+
+        // Таблица кодов шаблонов
+        for (int slot = 0; slot < CODE_SLOTS; slot++) {
+            byte[] code = new byte[CODE_BYTES];
+            header.get(HEADER_CODES + slot * CODE_SLOT_BYTES, code);
+            int length = 0;
+            while (length < CODE_BYTES && code[length] != 0) {
+                length++;
+            }
+            if (length == 0) {
+                break;
+            }
+            codes[slot] = new String(code, 0, length, StandardCharsets.UTF_8);
+            codeSlots.put(codes[slot], slot);
+        }
+
+        // Отображение сегментов с уже добавленными записями
+        long count = header.getLong(HEADER_COUNT);
+        segments = new MappedByteBuffer[(int) ((count + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = mapSegment(i);
+        }
+        namesSize = namesChannel.size();
+    }
+
+    /**
+     * Метод для открытия хранилища или его создания с размером ячейки по умолчанию
+     *
+     * @param directory директория хранилища
+     * @return открытое хранилище
+     * @throws IOException если хранилище не удалось открыть или создать
+     */
+    public static DefectStore open(Path directory) throws IOException {
+        return open(directory, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Метод для открытия хранилища или его создания
+     *
+     * @param directory директория хранилища
+     * @param cellSize  размер ячейки пространственного индекса в пикселях; используется только
+     *                  при создании хранилища, существующее хранилище сохраняет свой размер ячейки
+     * @return открытое хранилище
+     * @throws IOException если хранилище не удалось открыть или создать
+     */
+    public static DefectStore open(Path directory, int cellSize) throws IOException {
+        if (cellSize < 1) {
+            throw new IllegalArgumentException("Размер ячейки должен быть положительным: " + cellSize);
+        }
+        return new DefectStore(directory, cellSize);
+    }
+
+    /**
+     * Метод для добавления дефектов одной платы
+     *
+     * @param boardName    имя файла изображения платы
+     * @param templateCode код шаблона, с которым сравнивалась плата
+     * @param timestamp    время проверки в миллисекундах от начала эпохи; время меньше времени
+     *                     последних добавленных записей (например, после перевода системных часов
+     *                     назад) заменяется им, чтобы сохранить порядок записей
+     * @param rects        прямоугольники, ограничивающие дефекты
+     * @throws IOException если возникла ошибка записи
+     */
+    public synchronized void append(String boardName,
+                                    String templateCode,
+                                    long timestamp,
+                                    List<Rect> rects) throws IOException {
+        if (rects.isEmpty()) {
+            return;
+        }
+        long recordTimestamp = Math.max(timestamp, header.getLong(HEADER_LAST_TIMESTAMP));
+        long count = header.getLong(HEADER_COUNT);
+        if (count + rects.size() > MAX_RECORDS) {
+            throw new IllegalStateException("Хранилище дефектов заполнено");
+        }
+        int slot = getOrCreateCodeSlot(templateCode);
+        long nameOffset = appendName(boardName);
+
+        // Запись дефектов с добавлением их в начало цепочек индексов
+        int codeHead = HEADER_CODES + slot * CODE_SLOT_BYTES + CODE_BYTES;
+        int maxWidth = header.getInt(HEADER_MAX_WIDTH);
+        int maxHeight = header.getInt(HEADER_MAX_HEIGHT);
+        for (Rect rect : rects) {
+            MappedByteBuffer segment = segmentForWrite(count);
+            int offset = (int) (count % SEGMENT_RECORDS) * RECORD_BYTES;
+            int bucketHead = HEADER_BUCKETS + bucket(cellOf(rect.x), cellOf(rect.y)) * Integer.BYTES;
+
+            segment.putLong(offset + RECORD_TIMESTAMP, recordTimestamp);
+            segment.putLong(offset + RECORD_NAME, nameOffset);
+            segment.putInt(offset + RECORD_PREV_CODE, header.getInt(codeHead));
+            segment.putInt(offset + RECORD_PREV_CELL, header.getInt(bucketHead));
+            segment.putInt(offset + RECORD_X, rect.x);
+            segment.putInt(offset + RECORD_Y, rect.y);
+            segment.putInt(offset + RECORD_WIDTH, rect.width);
+            segment.putInt(offset + RECORD_HEIGHT, rect.height);
+            segment.putInt(offset + RECORD_CODE, slot);
+
+            header.putInt(codeHead, (int) (count + 1));
+            header.putInt(bucketHead, (int) (count + 1));
+            maxWidth = Math.max(maxWidth, rect.width);
+            maxHeight = Math.max(maxHeight, rect.height);
+            count++;
+        }
+
+        header.putInt(codeHead + Integer.BYTES, header.getInt(codeHead + Integer.BYTES) + rects.size());
+        header.putInt(HEADER_MAX_WIDTH, maxWidth);
+        header.putInt(HEADER_MAX_HEIGHT, maxHeight);
+        header.putLong(HEADER_LAST_TIMESTAMP, recordTimestamp);
+        header.putLong(HEADER_COUNT, count);
+    }
+
+    /**
+     * @return количество записей в хранилище
+     */
+    public synchronized long count() {
+        return header.getLong(HEADER_COUNT);
+    }
+
+    /**
+     * Метод для получения количества записей с заданным кодом шаблона
+     *
+     * @param templateCode код шаблона
+     * @return количество записей
+     */
+    public synchronized long count(String templateCode) {
+        Integer slot = codeSlots.get(templateCode);
+        return slot == null ? 0 : header.getInt(HEADER_CODES + slot * CODE_SLOT_BYTES + CODE_BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Метод для поиска дефектов с ограничением количества результатов
+     *
+     * @param templateCode код шаблона или {@code null} для любого кода
+     * @param region       область, с которой должен пересекаться дефект, или {@code null} для любой области
+     * @param fromMillis   начало интервала времени включительно
+     * @param toMillis     конец интервала времени включительно
+     * @param limit        максимальное количество результатов
+     * @return найденные дефекты
+     * @throws IOException если возникла ошибка чтения
+     * @see #forEach(String, Rect, long, long, Predicate)
+     */
+    public List<DefectRecord> query(String templateCode,
+                                    Rect region,
+                                    long fromMillis,
+                                    long toMillis,
+                                    int limit) throws IOException {
+        List<DefectRecord> records = new ArrayList<>();
+        if (limit > 0) {
+            forEach(templateCode, region, fromMillis, toMillis, record -> {
+                records.add(record);
+                return records.size() < limit;
+            });
+        }
+        return records;
+    }
+
+    /**
+     * Метод для обхода дефектов, удовлетворяющих условиям. Если задана небольшая область,
+     * обходятся цепочки пространственного индекса, покрывающие ее ячейки; иначе, если задан
+     * код шаблона, обходится цепочка кода; иначе просматриваются все записи. Внутри каждой
+     * цепочки записи обходятся от новых к старым, порядок между цепочками не определен.
+     * Объекты создаются только для записей, удовлетворяющих условиям
+     *
+     * @param templateCode код шаблона или {@code null} для любого кода
+     * @param region       область, с которой должен пересекаться дефект, или {@code null} для любой области
+     * @param fromMillis   начало интервала времени включительно
+     * @param toMillis     конец интервала времени включительно
+     * @param visitor      получатель записей; возвращает {@code false}, чтобы прекратить обход
+     * @throws IOException если возникла ошибка чтения
+     */
+    public void forEach(String templateCode,
+                        Rect region,
+                        long fromMillis,
+                        long toMillis,
+                        Predicate<DefectRecord> visitor) throws IOException {
+        Snapshot snapshot = snapshot(templateCode, region);
+        if (snapshot == null) {
+            return;
+        }
+        Query query = new Query(snapshot, region, fromMillis, toMillis, visitor);
+
+        if (snapshot.bucketHeads != null) {
+            for (int head : snapshot.bucketHeads) {
+                if (!query.walk(head, RECORD_PREV_CELL)) {
+                    return;
+                }
+            }
+        } else if (snapshot.codeSlot >= 0) {
+            query.walk(snapshot.codeHead, RECORD_PREV_CODE);
+        } else {
+            for (long index = snapshot.count - 1; index >= 0; index--) {
+                int result = query.visit(index);
+                if (result != Query.CONTINUE) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Метод для сброса изменений на диск
+     *
+     * @throws IOException если возникла ошибка записи
+     */
+    public synchronized void flush() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        namesChannel.force(false);
+        header.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (segments != null) {
+                flush();
+            }
+        } finally {
+            recordsChannel.close();
+            namesChannel.close();
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * Метод для получения согласованного среза хранилища для запроса.
+     * Записи не изменяются после добавления, а ссылки указывают только на более старые записи,
+     * поэтому обход среза выполняется без блокировки
+     *
+     * @param templateCode код шаблона или {@code null}
+     * @param region       область запроса или {@code null}
+     * @return срез хранилища или {@code null}, если код шаблона не встречался
+     */
+    private synchronized Snapshot snapshot(String templateCode, Rect region) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.count = header.getLong(HEADER_COUNT);
+        snapshot.segments = segments;
+        snapshot.codes = codes.clone();
+        snapshot.codeSlot = -1;
+        if (templateCode != null) {
+            Integer slot = codeSlots.get(templateCode);
+            if (slot == null) {
+                return null;
+            }
+            snapshot.codeSlot = slot;
+            snapshot.codeHead = header.getInt(HEADER_CODES + slot * CODE_SLOT_BYTES + CODE_BYTES);
+        }
+
+        // Ячейки, в которые может попасть левый верхний угол дефекта, пересекающего область
+        if (region != null) {
+            int maxWidth = header.getInt(HEADER_MAX_WIDTH);
+            int maxHeight = header.getInt(HEADER_MAX_HEIGHT);
+            long cellX0 = cellOf(region.x - maxWidth + 1);
+            long cellX1 = cellOf(region.x + region.width - 1);
+            long cellY0 = cellOf(region.y - maxHeight + 1);
+            long cellY1 = cellOf(region.y + region.height - 1);
+            if ((cellX1 - cellX0 + 1) * (cellY1 - cellY0 + 1) <= BUCKET_COUNT / 4) {
+                Set<Integer> buckets = new LinkedHashSet<>();
+                for (long cellY = cellY0; cellY <= cellY1; cellY++) {
+                    for (long cellX = cellX0; cellX <= cellX1; cellX++) {
+                        buckets.add(bucket(cellX, cellY));
+                    }
+                }
+                snapshot.bucketHeads = new int[buckets.size()];
+                int i = 0;
+                for (int bucket : buckets) {
+                    snapshot.bucketHeads[i++] = header.getInt(HEADER_BUCKETS + bucket * Integer.BYTES);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Метод для получения слота кода шаблона с созданием нового слота при необходимости
+     *
+     * @param templateCode код шаблона
+     * @return номер слота
+     */
+    private int getOrCreateCodeSlot(String templateCode) {
+        Integer slot = codeSlots.get(templateCode);
+        if (slot != null) {
+            return slot;
+        }
+
+        byte[] code = templateCode.getBytes(StandardCharsets.UTF_8);
+        if (code.length == 0 || code.length > CODE_BYTES) {
+            throw new IllegalArgumentException("Длина кода шаблона должна быть от 1 до " + CODE_BYTES + " байт: " + templateCode);
+        }
+        int newSlot = codeSlots.size();
+        if (newSlot >= CODE_SLOTS) {
+            throw new IllegalStateException("Превышено количество кодов шаблонов в хранилище: " + CODE_SLOTS);
+        }
+        header.put(HEADER_CODES + newSlot * CODE_SLOT_BYTES, code);
+        codes[newSlot] = templateCode;
+        codeSlots.put(templateCode, newSlot);
+        return newSlot;
+    }
+
+    /**
+     * Метод для добавления имени платы в таблицу имен
+     *
+     * @param boardName имя файла изображения платы
+     * @return смещение имени в таблице
+     * @throws IOException если возникла ошибка записи
+     */
+    private long appendName(String boardName) throws IOException {
+        byte[] name = boardName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + name.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(name.length).put(name).flip();
+
+        long offset = namesSize;
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += namesChannel.write(buffer, position);
+        }
+        namesSize = position;
+        return offset;
+    }
+
+    /**
+     * Метод для чтения имени платы из таблицы имен
+     *
+     * @param offset смещение имени в таблице
+     * @return имя файла изображения платы
+     * @throws IOException если возникла ошибка чтения
+     */
+    private String readName(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(length, offset);
+        ByteBuffer name = ByteBuffer.allocate(length.getInt(0));
+        readFully(name, offset + Integer.BYTES);
+        return new String(name.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Метод для чтения из таблицы имен до заполнения буфера
+     *
+     * @param buffer   буфер для данных
+     * @param position позиция в файле
+     * @throws IOException если возникла ошибка чтения или файл закончился
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = namesChannel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Таблица имен хранилища дефектов повреждена");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Метод для получения сегмента, в который записывается запись с заданным номером,
+     * с отображением нового сегмента при необходимости
+     *
+     * @param index номер записи
+     * @return сегмент файла записей
+     * @throws IOException если сегмент не удалось отобразить
+     */
+    private MappedByteBuffer segmentForWrite(long index) throws IOException {
+        int segment = (int) (index / SEGMENT_RECORDS);
+        if (segment == segments.length) {
+            MappedByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+            grown[segment] = mapSegment(segment);
+            segments = grown;
+        }
+        return segments[segment];
+    }
+
+    /**
+     * Метод для отображения сегмента файла записей в память
+     *
+     * @param segment номер сегмента
+     * @return отображенный сегмент
+     * @throws IOException если сегмент не удалось отобразить
+     */
+    private MappedByteBuffer mapSegment(int segment) throws IOException {
+        MappedByteBuffer buffer = recordsChannel.map(
+                FileChannel.MapMode.READ_WRITE, segment * SEGMENT_BYTES, SEGMENT_BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Метод для получения ячейки сетки по координате
+     *
+     * @param coordinate координата в пикселях
+     * @return номер ячейки
+     */
+    private long cellOf(long coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    /**
+     * Метод для получения корзины пространственного индекса по ячейке сетки
+     *
+     * @param cellX номер ячейки по горизонтали
+     * @param cellY номер ячейки по вертикали
+     * @return номер корзины
+     */
+    private static int bucket(long cellX, long cellY) {
+        long hash = cellX * 73856093L ^ cellY * 19349663L;
+        return (int) Math.floorMod(hash, (long) BUCKET_COUNT);
+    }
+
+    /**
+     * Согласованный срез хранилища для выполнения запроса
+     */
+    private static final class Snapshot {
+
+        long count;
+        MappedByteBuffer[] segments;
+        String[] codes;
+        int codeSlot;
+        int codeHead;
+        int[] bucketHeads;
+    }
+
+    /**
+     * Выполняемый запрос с условиями отбора записей
+     */
+    private final class Query {
+
+        static final int CONTINUE = 0;
+        static final int STOP = 1;
+        static final int BEFORE_INTERVAL = 2;
+        static final int NAME_CACHE_SIZE = 4096;
+
+        private final Snapshot snapshot;
+        private final Rect region;
+        private final long fromMillis;
+        private final long toMillis;
+        private final Predicate<DefectRecord> visitor;
+        private final Map<Long, String> names = new HashMap<>();
+
+        Query(Snapshot snapshot, Rect region, long fromMillis, long toMillis, Predicate<DefectRecord> visitor) {
+            this.snapshot = snapshot;
+            this.region = region;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.visitor = visitor;
+        }
+
+        /**
+         * Метод для обхода цепочки индекса от новых записей к старым
+         *
+         * @param head          ссылка на первую запись цепочки
+         * @param pointerOffset смещение поля ссылки на следующую запись цепочки
+         * @return {@code false}, если получатель прекратил обход
+         * @throws IOException если возникла ошибка чтения
+         */
+        boolean walk(int head, int pointerOffset) throws IOException {
+            for (int reference = head; reference != 0; ) {
+                long index = reference - 1;
+                int result = visit(index);
+                if (result == STOP) {
+                    return false;
+                }
+                if (result == BEFORE_INTERVAL) {
+                    return true;
+                }
+                reference = segment(index).getInt(offset(index) + pointerOffset);
+            }
+            return true;
+        }
+
+        /**
+         * Метод для проверки записи и ее передачи получателю
+         *
+         * @param index номер записи
+         * @return {@link #CONTINUE}, {@link #STOP} или {@link #BEFORE_INTERVAL}
+         * @throws IOException если возникла ошибка чтения
+         */
+        int visit(long index) throws IOException {
+            MappedByteBuffer segment = segment(index);
+            int offset = offset(index);
+
+            // Отбор по времени; более старые записи цепочки также не попадают в интервал
+            long timestamp = segment.getLong(offset + RECORD_TIMESTAMP);
+            if (timestamp < fromMillis) {
+                return BEFORE_INTERVAL;
+            }
+            if (timestamp > toMillis) {
+                return CONTINUE;
+            }
+
+            // Отбор по коду шаблона и области
+            int slot = segment.getInt(offset + RECORD_CODE);
+            if (snapshot.codeSlot >= 0 && slot != snapshot.codeSlot) {
+                return CONTINUE;
+            }
+            int x = segment.getInt(offset + RECORD_X);
+            int y = segment.getInt(offset + RECORD_Y);
+            int width = segment.getInt(offset + RECORD_WIDTH);
+            int height = segment.getInt(offset + RECORD_HEIGHT);
+            if (region != null && (x >= region.x + region.width || x + width <= region.x
+                    || y >= region.y + region.height || y + height <= region.y)) {
+                return CONTINUE;
+            }
+
+            long nameOffset = segment.getLong(offset + RECORD_NAME);
+            String name = names.get(nameOffset);
+            if (name == null) {
+                if (names.size() >= NAME_CACHE_SIZE) {
+                    names.clear();
+                }
+                name = readName(nameOffset);
+                names.put(nameOffset, name);
+            }
+            DefectRecord record = new DefectRecord(
+                    index, name, snapshot.codes[slot], timestamp, new Rect(x, y, width, height));
+            return visitor.test(record) ? CONTINUE : STOP;
+        }
+
+        private MappedByteBuffer segment(long index) {
+            return snapshot.segments[(int) (index / SEGMENT_RECORDS)];
+        }
+
+        private int offset(long index) {
+            return (int) (index % SEGMENT_RECORDS) * RECORD_BYTES;
+        }
+    }
+}
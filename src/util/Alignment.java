@@ -0,0 +1,226 @@
+package util;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.DMatch;
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.features2d.DescriptorMatcher;
+import org.opencv.features2d.ORB;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Утилитный класс, предоставляющий статические методы для совмещения изображения
+ * платы с шаблоном по ключевым точкам ORB.
+ * <p>
+ * Ключевые точки и дескрипторы шаблона вычисляются один раз ({@link #computeFeatures(Mat)}),
+ * для каждой платы вычисляются только ее собственные точки. По сопоставленным точкам
+ * оценивается преобразование подобия (сдвиг, поворот и масштаб), которым плата
+ * переводится в систему координат шаблона
+ */
+public class Alignment {
+
+    private static final int MAX_FEATURES = 1000;
+    private static final double RATIO_TEST = 0.75;
+    private static final int MIN_MATCHES = 10;
+    private static final double RANSAC_THRESHOLD = 3.0;
+
+    /**
+     * Наибольшие отклонения преобразования от тождественного, при которых плата
+     * считается уже совмещенной и копируется без интерполяции
+     */
+    private static final double MAX_IDENTITY_SHIFT = 0.5;
+    private static final double MAX_IDENTITY_SCALE = 1e-3;
+
+    /**
+     * Детектор ORB, создаваемый один раз для каждого потока
+     */
+    private static final ThreadLocal<ORB> ORB_INSTANCE = ThreadLocal.withInitial(() ->
+            ORB.create(MAX_FEATURES));
+
+    /**
+     * Сопоставитель дескрипторов по расстоянию Хэмминга, создаваемый один раз для каждого потока
+     */
+    private static final ThreadLocal<DescriptorMatcher> MATCHER = ThreadLocal.withInitial(() ->
+            DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE_HAMMING));
+
+    /**
+     * Класс, описывающий ключевые точки и дескрипторы изображения шаблона
+     */
+    public static class Features {
+
+        private final Point[] points;
+        private final Mat descriptors;
+        private final Size size;
+
+        private Features(Point[] points, Mat descriptors, Size size) {
+            this.points = points;
+            this.descriptors = descriptors;
+            this.size = size;
+        }
+
+        /**
+         * @return количество ключевых точек
+         */
+        public int getCount() {
+            return points.length;
+        }
+
+        /**
+         * @return размер изображения, по которому вычислены точки
+         */
+        public Size getSize() {
+            return size;
+        }
+
+        /**
+         * @return размер дескрипторов в байтах
+         */
+        public long getNativeBytes() {
+            return descriptors.total() * descriptors.elemSize();
+        }
+
+        /**
+         * Метод для освобождения нативной памяти дескрипторов
+         */
+        public void release() {
+            MatScope.release(descriptors);
+        }
+    }
+
+    /**
+     * Метод для вычисления ключевых точек и дескрипторов шаблона
+     *
+     * @param template изображение шаблона в оттенках серого
+     * @return ключевые точки и дескрипторы шаблона
+     */
+    public static Features computeFeatures(Mat template) {
+        try (MatScope scope = new MatScope()) {
+            MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+            scope.track(keyPoints);
+            Mat descriptors = scope.newMat();
+            ORB_INSTANCE.get().detectAndCompute(template, scope.newMat(), keyPoints, descriptors);
+            return new Features(toPoints(keyPoints.toArray()), scope.detach(descriptors), template.size());
+        }
+    }
+
+    /**
+     * Метод для совмещения изображения платы с шаблоном. Если точек для оценки
+     * преобразования недостаточно или плата уже совмещена, она копируется без изменений
+     *
+     * @param src      изображение платы в оттенках серого
+     * @param dst      матрица для совмещенного изображения размером с шаблон; не совпадает с {@code src}
+     * @param template ключевые точки и дескрипторы шаблона
+     * @param buffers  буферы промежуточных матриц
+     * @return {@code true}, если изображение было преобразовано
+     */
+    public static boolean align(Mat src, Mat dst, Features template, MatBuffers buffers) {
+        Mat transform = estimateTransform(src, template, buffers);
+        if (transform == null) {
+            src.copyTo(dst);
+            return false;
+        }
+        Imgproc.warpAffine(src, dst, transform, template.getSize(), Imgproc.INTER_LINEAR, Core.BORDER_REPLICATE);
+        return true;
+    }
+
+    /**
+     * Метод для оценки преобразования платы в систему координат шаблона
+     *
+     * @param src      изображение платы
+     * @param template ключевые точки и дескрипторы шаблона
+     * @param buffers  буферы промежуточных матриц
+     * @return матрица преобразования 2x3 из буферов или {@code null}, если преобразование
+     * не найдено или плата того же размера, что и шаблон, уже совмещена с ним
+     */
+    private static Mat estimateTransform(Mat src, Features template, MatBuffers buffers) {
+        if (template.getCount() < MIN_MATCHES) {
+            return null;
+        }
+
+        // Ключевые точки и дескрипторы платы
+        MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+        Mat descriptors = buffers.get("align.descriptors");
+        Mat mask = buffers.get("align.mask");
+        List<MatOfDMatch> knnMatches = new ArrayList<>();
+        try {
+            ORB_INSTANCE.get().detectAndCompute(src, mask, keyPoints, descriptors);
+            if (descriptors.rows() < MIN_MATCHES) {
+                return null;
+            }
+            MATCHER.get().knnMatch(descriptors, template.descriptors, knnMatches, 2);
+
+            // Отбор однозначных соответствий по отношению расстояний двух ближайших
+            Point[] boardPoints = toPoints(keyPoints.toArray());
+            List<Point> from = new ArrayList<>();
+            List<Point> to = new ArrayList<>();
+            for (MatOfDMatch candidates : knnMatches) {
+                DMatch[] pair = candidates.toArray();
+                if (pair.length == 2 && pair[0].distance < RATIO_TEST * pair[1].distance) {
+                    from.add(boardPoints[pair[0].queryIdx]);
+                    to.add(template.points[pair[0].trainIdx]);
+                }
+            }
+            if (from.size() < MIN_MATCHES) {
+                return null;
+            }
+
+            // Оценка преобразования подобия с отбрасыванием выбросов
+            Mat transform = buffers.get("align.transform");
+            try (MatScope scope = new MatScope()) {
+                MatOfPoint2f fromPoints = new MatOfPoint2f();
+                MatOfPoint2f toPoints = new MatOfPoint2f();
+                scope.track(fromPoints);
+                scope.track(toPoints);
+                fromPoints.fromList(from);
+                toPoints.fromList(to);
+                Mat estimated = scope.track(Calib3d.estimateAffinePartial2D(
+                        fromPoints, toPoints, scope.newMat(), Calib3d.RANSAC, RANSAC_THRESHOLD));
+                if (estimated.empty()) {
+                    return null;
+                }
+                estimated.copyTo(transform);
+            }
+            return isIdentity(transform) && src.size().equals(template.getSize()) ? null : transform;
+        } finally {
+            MatScope.release(keyPoints);
+            knnMatches.forEach(MatScope::release);
+        }
+    }
+
+    /**
+     * Метод для проверки близости преобразования к тождественному
+     *
+     * @param transform матрица преобразования 2x3
+     * @return {@code true}, если сдвиг меньше половины пикселя, а поворот и масштаб пренебрежимо малы
+     */
+    private static boolean isIdentity(Mat transform) {
+        double[] m = new double[6];
+        transform.get(0, 0, m);
+        return Math.abs(m[0] - 1) < MAX_IDENTITY_SCALE && Math.abs(m[1]) < MAX_IDENTITY_SCALE
+                && Math.abs(m[3]) < MAX_IDENTITY_SCALE && Math.abs(m[4] - 1) < MAX_IDENTITY_SCALE
+                && Math.abs(m[2]) < MAX_IDENTITY_SHIFT && Math.abs(m[5]) < MAX_IDENTITY_SHIFT;
+    }
+
+    /**
+     * Метод для получения координат ключевых точек
+     *
+     * @param keyPoints ключевые точки
+     * @return координаты точек в том же порядке
+     */
+    private static Point[] toPoints(KeyPoint[] keyPoints) {
+        Point[] points = new Point[keyPoints.length];
+        for (int i = 0; i < keyPoints.length; i++) {
+            points[i] = keyPoints[i].pt;
+        }
+        return points;
+    }
+}
@@ -1,8 +1,11 @@
 package util;
 
 import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 
 /**
  * Утилитный класс, содержащий статические методы для преобразования сложных типов данных
@@ -16,6 +19,20 @@ public class DataConversions {
      * @return изображение в формате BufferedImage
      */
     public static BufferedImage matToBufferedImage(Mat mat) {
+        return matToBufferedImage(mat, null);
+    }
+
+    /**
+     * Метод для преобразования Mat из OpenCV в BufferedImage из AWT с повторным
+     * использованием ранее созданного изображения. Пиксели копируются непосредственно
+     * в массив {@link DataBufferByte}, лежащий в основе изображения, без промежуточного массива
+     *
+     * @param mat   изображение в формате Mat, которое необходимо преобразовать в BufferedImage
+     * @param reuse изображение для повторного использования или {@code null}; используется,
+     *              только если его размеры и тип совпадают с требуемыми
+     * @return изображение {@code reuse} или новое изображение в формате BufferedImage
+     */
+    public static BufferedImage matToBufferedImage(Mat mat, BufferedImage reuse) {
         // Получение типа выходного изображения в зависимости от количества каналов входного
         int type;
         if (mat.channels() == 1) {
@@ -26,17 +43,49 @@ public class DataConversions {
             throw new IllegalArgumentException("Не поддерживаемое количество каналов матрицы: " + mat.channels());
         }
 
-        // Получение параметров выходного изображения
-        int width = mat.width();
-        int height = mat.height();
-        int channels = mat.channels();
-        byte[] data = new byte[width * height * channels];
+        // Получение выходного изображения
+        BufferedImage bufferedImage = reuse;
+        if (bufferedImage == null || bufferedImage.getType() != type ||
+                bufferedImage.getWidth() != mat.width() || bufferedImage.getHeight() != mat.height()) {
+            bufferedImage = new BufferedImage(mat.width(), mat.height(), type);
+        }
 
         // Заполнение выходного изображения
+        byte[] data = ((DataBufferByte) bufferedImage.getRaster().getDataBuffer()).getData();
         mat.get(0, 0, data);
-        BufferedImage bufferedImage = new BufferedImage(width, height, type);
-        bufferedImage.getRaster().setDataElements(0, 0, width, height, data);
 
         return bufferedImage;
     }
+
+    /**
+     * Метод для преобразования Mat в BufferedImage, вписанный в заданные размеры с сохранением
+     * пропорций. Масштабирование выполняется средствами OpenCV до преобразования, поэтому
+     * копируются только пиксели уменьшенного изображения
+     *
+     * @param mat       изображение в формате Mat, которое необходимо отобразить
+     * @param maxWidth  максимальная ширина выходного изображения
+     * @param maxHeight максимальная высота выходного изображения
+     * @param reuse     изображение для повторного использования или {@code null}
+     * @return масштабированное изображение в формате BufferedImage
+     */
+    public static BufferedImage matToScaledBufferedImage(Mat mat, int maxWidth, int maxHeight, BufferedImage reuse) {
+        // Расчет новых размеров с сохранением пропорций
+        double widthRatio = (double) maxWidth / mat.width();
+        double heightRatio = (double) maxHeight / mat.height();
+        double scale = Math.min(widthRatio, heightRatio);
+
+        int newWidth = Math.max(1, (int) (mat.width() * scale));
+        int newHeight = Math.max(1, (int) (mat.height() * scale));
+        if (newWidth == mat.width() && newHeight == mat.height()) {
+            return matToBufferedImage(mat, reuse);
+        }
+
+        // Масштабирование изображения; при уменьшении усредняются все исходные пиксели
+        try (MatScope scope = new MatScope()) {
+            Mat scaled = scope.newMat();
+            Imgproc.resize(mat, scaled, new Size(newWidth, newHeight), 0, 0,
+                    scale < 1 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+            return matToBufferedImage(scaled, reuse);
+        }
+    }
 }
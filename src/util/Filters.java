@@ -10,6 +10,14 @@ import org.opencv.imgproc.Imgproc;
  */
 public class Filters {
 
+    private static final Size BLUR_KERNEL_SIZE = new Size(3, 3);
+
+    /**
+     * Экземпляр CLAHE, создаваемый один раз для каждого потока
+     */
+    private static final ThreadLocal<CLAHE> CLAHE_INSTANCE = ThreadLocal.withInitial(() ->
+            Imgproc.createCLAHE(6, new Size(2, 2)));
+
     /**
      * Метод для выполнения размытия по Гауссу
      *
@@ -18,10 +26,20 @@ public class Filters {
      */
     public static Mat applyGaussianBlur(Mat src) {
         Mat result = new Mat();
-        Imgproc.GaussianBlur(src, result, new Size(3, 3), 1.5);
+        applyGaussianBlur(src, result);
         return result;
     }
 
+    /**
+     * Метод для выполнения размытия по Гауссу с записью результата в переданную матрицу
+     *
+     * @param src исходное изображение, которое необходимо размыть
+     * @param dst матрица для размытого изображения
+     */
+    public static void applyGaussianBlur(Mat src, Mat dst) {
+        Imgproc.GaussianBlur(src, dst, BLUR_KERNEL_SIZE, 1.5);
+    }
+
     /**
      * Метод для выравнивания гистограммы с помощью CLAHE
      *
@@ -30,8 +48,18 @@ public class Filters {
      */
     public static Mat applyCLAHE(Mat src) {
         Mat result = new Mat();
-        CLAHE clahe = Imgproc.createCLAHE(6, new Size(2, 2));
-        clahe.apply(src, result);
+        applyCLAHE(src, result);
         return result;
     }
+
+    /**
+     * Метод для выравнивания гистограммы с помощью CLAHE с записью результата
+     * в переданную матрицу
+     *
+     * @param src исходное изображение, гистограмму которого необходимо выровнять
+     * @param dst матрица для изображения с выровненной гистограммой
+     */
+    public static void applyCLAHE(Mat src, Mat dst) {
+        CLAHE_INSTANCE.get().apply(src, dst);
+    }
 }
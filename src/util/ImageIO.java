@@ -4,7 +4,6 @@ import exception.ImageReadException;
 import exception.ImageWriteException;
 import org.opencv.core.Mat;
 import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
 
 /**
  * Утилитный класс, предоставляющий статические методы
@@ -13,18 +12,107 @@ import org.opencv.imgproc.Imgproc;
 public class ImageIO {
 
     /**
-     * Метод для загрузки изображения по указанному пути
+     * Представление, в котором декодируется изображение. Уменьшенные представления
+     * декодируются сразу в нужном размере: для JPEG уменьшение выполняется самим
+     * декодером, поэтому изображение исходного размера не создается
+     */
+    public enum LoadMode {
+        COLOR(Imgcodecs.IMREAD_COLOR, 1, false),
+        COLOR_HALF(Imgcodecs.IMREAD_REDUCED_COLOR_2, 2, false),
+        COLOR_QUARTER(Imgcodecs.IMREAD_REDUCED_COLOR_4, 4, false),
+        COLOR_EIGHTH(Imgcodecs.IMREAD_REDUCED_COLOR_8, 8, false),
+        GRAYSCALE(Imgcodecs.IMREAD_GRAYSCALE, 1, true),
+        GRAYSCALE_HALF(Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2, 2, true),
+        GRAYSCALE_QUARTER(Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4, 4, true),
+        GRAYSCALE_EIGHTH(Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8, 8, true);
+
+        private final int flags;
+        private final int scale;
+        private final boolean grayscale;
+
+        LoadMode(int flags, int scale, boolean grayscale) {
+            this.flags = flags;
+            this.scale = scale;
+            this.grayscale = grayscale;
+        }
+
+        /**
+         * Метод для получения представления с заданными уменьшением и цветностью
+         *
+         * @param scale     во сколько раз уменьшается изображение: 1, 2, 4 или 8
+         * @param grayscale {@code true} для изображения в оттенках серого
+         * @return представление изображения или {@code null}, если декодер не поддерживает такое уменьшение
+         */
+        public static LoadMode of(int scale, boolean grayscale) {
+            for (LoadMode mode : values()) {
+                if (mode.scale == scale && mode.grayscale == grayscale) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Метод для получения представления в оттенках серого с заданным уменьшением
+         *
+         * @param scale во сколько раз уменьшается изображение: 1, 2, 4 или 8
+         * @return представление изображения
+         */
+        public static LoadMode grayscale(int scale) {
+            LoadMode mode = of(scale, true);
+            if (mode == null) {
+                throw new IllegalArgumentException("Не поддерживаемое уменьшение изображения: " + scale);
+            }
+            return mode;
+        }
+
+        /**
+         * @return флаги декодирования OpenCV
+         */
+        public int getFlags() {
+            return flags;
+        }
+
+        /**
+         * @return во сколько раз изображение уменьшается при декодировании
+         */
+        public int getScale() {
+            return scale;
+        }
+
+        /**
+         * @return {@code true}, если изображение декодируется в оттенках серого
+         */
+        public boolean isGrayscale() {
+            return grayscale;
+        }
+    }
+
+    /**
+     * Метод для загрузки цветного изображения по указанному пути
      *
      * @param path путь к изображению
-     * @return загруженное изображение
+     * @return загруженное изображение в формате BGR
      * @throws ImageReadException если возникла ошибка при загрузке изображения
      */
     public static Mat loadImage(String path) throws ImageReadException {
-        Mat image = Imgcodecs.imread(path);
+        return loadImage(path, LoadMode.COLOR);
+    }
+
+    /**
+     * Метод для загрузки изображения по указанному пути в заданном представлении
+     *
+     * @param path путь к изображению
+     * @param mode представление изображения
+     * @return загруженное изображение
+     * @throws ImageReadException если возникла ошибка при загрузке изображения
+     */
+    public static Mat loadImage(String path, LoadMode mode) throws ImageReadException {
+        Mat image = Imgcodecs.imread(path, mode.getFlags());
         if (image.empty()) {
+            image.release();
             throw new ImageReadException("Загружено пустое изображение!");
         }
-        Imgproc.cvtColor(image, image, Imgproc.COLOR_RGB2BGR);
         return image;
     }
 
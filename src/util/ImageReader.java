@@ -0,0 +1,74 @@
+package util;
+
+import exception.ImageReadException;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Класс, определяющий чтение изображений через буфер для повторного использования.
+ * <p>
+ * Файл целиком читается крупными блоками через {@link FileChannel} в прямой буфер,
+ * который передается декодеру OpenCV без копирования. Буфер увеличивается только
+ * при чтении файла большего размера, поэтому при чтении изображений одного формата
+ * память под сжатые данные выделяется один раз. Экземпляр не является потокобезопасным:
+ * каждому потоку нужен свой экземпляр
+ */
+public class ImageReader {
+
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+    /**
+     * Метод для загрузки изображения по указанному пути в заданном представлении
+     *
+     * @param path путь к изображению
+     * @param mode представление изображения
+     * @return загруженное изображение
+     * @throws ImageReadException если возникла ошибка при чтении или декодировании изображения
+     */
+    public Mat read(Path path, ImageIO.LoadMode mode) throws ImageReadException {
+        // Чтение сжатых данных в буфер
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ImageReadException("Слишком большой файл изображения: " + path);
+            }
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE, Math.max(size, 2L * buffer.capacity())));
+            }
+            buffer.clear();
+            buffer.limit((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Чтение продолжается до заполнения буфера или конца файла
+            }
+            buffer.flip();
+        } catch (IOException e) {
+            throw new ImageReadException("Не удалось прочитать файл изображения: " + e.getMessage());
+        }
+        if (!buffer.hasRemaining()) {
+            throw new ImageReadException("Загружено пустое изображение!");
+        }
+
+        // Декодирование изображения из буфера без копирования сжатых данных
+        Mat encoded = new Mat(1, buffer.limit(), CvType.CV_8UC1, buffer);
+        Mat image;
+        try {
+            image = Imgcodecs.imdecode(encoded, mode.getFlags());
+        } finally {
+            encoded.release();
+        }
+        if (image.empty()) {
+            image.release();
+            throw new ImageReadException("Загружено пустое изображение!");
+        }
+        return image;
+    }
+}
@@ -0,0 +1,144 @@
+package util;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Класс, описывающий маску проверяемой области шаблона в разрешении результата
+ * сравнения с шаблоном.
+ * <p>
+ * Кроме самой маски хранится ограничивающая ее область, расширенная на половину окна
+ * сравнения и выровненная по сетке центров окон ({@link MatchSettings}). Окна всех
+ * центров сетки внутри маски целиком лежат в этой области, поэтому мера, дилатация
+ * и поиск контуров вычисляются только над ней, а их значения внутри маски совпадают
+ * со значениями, вычисленными над всем изображением
+ */
+public class InspectionMask {
+
+    private final Mat mask;
+    private final Rect region;
+
+    private InspectionMask(Mat mask, Rect region) {
+        this.mask = mask;
+        this.region = region;
+    }
+
+    /**
+     * Метод для объединения маски проверяемых областей и маски игнорируемых областей
+     * в одну маску исходного разрешения
+     *
+     * @param roi    маска проверяемых областей (ненулевые пиксели проверяются) или {@code null},
+     *               если проверяется все изображение
+     * @param ignore маска игнорируемых областей (ненулевые пиксели не проверяются) или {@code null}
+     * @return новая маска CV_8UC1, ненулевая в проверяемых пикселях, или {@code null}, если обе маски отсутствуют
+     */
+    public static Mat combine(Mat roi, Mat ignore) {
+        if (roi == null && ignore == null) {
+            return null;
+        }
+        if (roi != null && ignore != null && !roi.size().equals(ignore.size())) {
+            throw new IllegalArgumentException("Размеры масок проверяемых и игнорируемых областей не совпадают");
+        }
+
+        // Проверяемые пиксели маски проверяемых областей без игнорируемых
+        Mat combined = new Mat();
+        if (roi != null) {
+            Imgproc.threshold(roi, combined, 0, 255, Imgproc.THRESH_BINARY);
+        } else {
+            combined.create(ignore.size(), CvType.CV_8UC1);
+            combined.setTo(Scalar.all(255));
+        }
+        if (ignore != null) {
+            combined.setTo(Scalar.all(0), ignore);
+        }
+        return combined;
+    }
+
+    /**
+     * Метод для приведения маски к разрешению подготовленного шаблона. Пиксель
+     * результата проверяется, если проверяется хотя бы часть соответствующей ему области маски
+     *
+     * @param mask     маска CV_8UC1, ненулевая в проверяемых пикселях
+     * @param size     размер подготовленного шаблона
+     * @param settings параметры окна и шага сетки окон, по которым выравнивается область проверки
+     * @return маска проверяемой области
+     * @throws IllegalArgumentException если маска не содержит проверяемых пикселей
+     */
+    public static InspectionMask of(Mat mask, Size size, MatchSettings settings) {
+        try (MatScope scope = new MatScope()) {
+            Mat resized = scope.newMat();
+            if (mask.size().equals(size)) {
+                mask.copyTo(resized);
+            } else {
+                Imgproc.resize(mask, resized, size, 0, 0, Imgproc.INTER_AREA);
+            }
+            Imgproc.threshold(resized, resized, 0, 255, Imgproc.THRESH_BINARY);
+            if (Core.countNonZero(resized) == 0) {
+                throw new IllegalArgumentException("Маска не содержит проверяемых пикселей");
+            }
+            return new InspectionMask(scope.detach(resized), computeRegion(resized, settings));
+        }
+    }
+
+    /**
+     * Метод для вычисления области, над которой выполняется проверка
+     *
+     * @param mask     маска проверяемой области
+     * @param settings параметры окна и шага сетки окон
+     * @return ограничивающая маску область, расширенная на половину окна и выровненная
+     * по сетке центров окон
+     */
+    private static Rect computeRegion(Mat mask, MatchSettings settings) {
+        Rect bounds = Imgproc.boundingRect(mask);
+        int half = settings.getHalf();
+        int left = Math.max(0, bounds.x - half);
+        int top = Math.max(0, bounds.y - half);
+        left -= left % settings.getStride();
+        top -= top % settings.getStride();
+        int right = Math.min(mask.cols(), bounds.x + bounds.width + half);
+        int bottom = Math.min(mask.rows(), bounds.y + bounds.height + half);
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Метод для обнуления изображения вне маски
+     *
+     * @param image изображение CV_8UC1 размером с маску
+     */
+    public void apply(Mat image) {
+        Core.bitwise_and(image, mask, image);
+    }
+
+    /**
+     * @return маска CV_8UC1, равная 255 в проверяемых пикселях и нулю в остальных
+     */
+    public Mat getMask() {
+        return mask;
+    }
+
+    /**
+     * @return область, над которой выполняется проверка
+     */
+    public Rect getRegion() {
+        return region;
+    }
+
+    /**
+     * @return размер маски в байтах
+     */
+    public long getNativeBytes() {
+        return mask.total() * mask.elemSize();
+    }
+
+    /**
+     * Метод для освобождения нативной памяти маски
+     */
+    public void release() {
+        MatScope.release(mask);
+    }
+}
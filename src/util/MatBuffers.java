@@ -0,0 +1,40 @@
+package util;
+
+import org.opencv.core.Mat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Класс, определяющий набор именованных матриц для повторного использования между вызовами.
+ * <p>
+ * Методы OpenCV, получающие выходную матрицу подходящего размера и типа, не выделяют
+ * для нее память повторно, поэтому при обработке изображений одного размера
+ * через один и тот же набор буферов нативная память выделяется только на первом
+ * изображении. Экземпляр не является потокобезопасным: каждому потоку нужен свой набор
+ */
+public class MatBuffers implements AutoCloseable {
+
+    private final Map<String, Mat> buffers = new HashMap<>();
+
+    /**
+     * Метод для получения буфера по имени. При первом обращении создается пустая матрица
+     *
+     * @param name имя буфера
+     * @return матрица, связанная с именем
+     */
+    public Mat get(String name) {
+        return buffers.computeIfAbsent(name, key -> new Mat());
+    }
+
+    /**
+     * Метод для освобождения всех буферов
+     */
+    @Override
+    public void close() {
+        for (Mat buffer : buffers.values()) {
+            MatScope.release(buffer);
+        }
+        buffers.clear();
+    }
+}
@@ -0,0 +1,138 @@
+package util;
+
+import org.opencv.core.Mat;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Класс, определяющий область владения матрицами OpenCV.
+ * <p>
+ * Все матрицы, созданные или зарегистрированные в области, освобождаются при ее закрытии,
+ * не дожидаясь финализации сборщиком мусора. Матрицы, которые должны пережить область
+ * (например, возвращаемый из метода результат), передаются вызывающему коду
+ * методом {@link #detach(Mat)} и освобождаются им через {@link #release(Mat)}.
+ * <p>
+ * При установленном системном свойстве {@value #LEAK_CHECK_PROPERTY} для каждой
+ * матрицы запоминается место ее создания, а {@link #printLeaks(PrintStream)}
+ * выводит все матрицы, которые были получены через области, но так и не освобождены.
+ * Экземпляр области не является потокобезопасным и должен использоваться одним потоком
+ */
+public class MatScope implements AutoCloseable {
+
+    /**
+     * Системное свойство, включающее режим поиска утечек матриц
+     */
+    public static final String LEAK_CHECK_PROPERTY = "surfacescout.leakCheck";
+
+    private static final boolean LEAK_CHECK = Boolean.getBoolean(LEAK_CHECK_PROPERTY);
+    private static final Map<Mat, Throwable> LIVE = new ConcurrentHashMap<>();
+
+    private final List<Mat> mats = new ArrayList<>();
+
+    /**
+     * Метод для создания пустой матрицы, принадлежащей области
+     *
+     * @return пустая матрица
+     */
+    public Mat newMat() {
+        return track(new Mat());
+    }
+
+    /**
+     * Метод для создания матрицы заданного размера и типа, принадлежащей области
+     *
+     * @param rows количество строк
+     * @param cols количество столбцов
+     * @param type тип матрицы
+     * @return неинициализированная матрица
+     */
+    public Mat newMat(int rows, int cols, int type) {
+        return track(new Mat(rows, cols, type));
+    }
+
+    /**
+     * Метод для передачи матрицы во владение области
+     *
+     * @param mat матрица, которую необходимо освободить при закрытии области
+     * @return та же матрица
+     */
+    public Mat track(Mat mat) {
+        mats.add(mat);
+        if (LEAK_CHECK) {
+            LIVE.putIfAbsent(mat, new Throwable("Матрица создана здесь"));
+        }
+        return mat;
+    }
+
+    /**
+     * Метод для передачи матрицы из области вызывающему коду.
+     * После вызова матрица не освобождается при закрытии области
+     *
+     * @param mat матрица, принадлежащая области
+     * @return та же матрица
+     */
+    public Mat detach(Mat mat) {
+        mats.remove(mat);
+        return mat;
+    }
+
+    /**
+     * Метод для освобождения нативной памяти матрицы
+     *
+     * @param mat матрица, которую необходимо освободить (допускается {@code null})
+     */
+    public static void release(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        mat.release();
+        if (LEAK_CHECK) {
+            LIVE.remove(mat);
+        }
+    }
+
+    /**
+     * @return {@code true}, если включен режим поиска утечек
+     */
+    public static boolean isLeakCheckEnabled() {
+        return LEAK_CHECK;
+    }
+
+    /**
+     * @return количество неосвобожденных матриц (только в режиме поиска утечек)
+     */
+    public static int getLiveCount() {
+        return LIVE.size();
+    }
+
+    /**
+     * Метод для вывода мест создания неосвобожденных матриц
+     *
+     * @param out поток, в который выводится отчет
+     */
+    public static void printLeaks(PrintStream out) {
+        if (!LEAK_CHECK || LIVE.isEmpty()) {
+            return;
+        }
+        out.println("Неосвобожденных матриц: " + LIVE.size());
+        for (Map.Entry<Mat, Throwable> entry : LIVE.entrySet()) {
+            out.println(entry.getKey());
+            entry.getValue().printStackTrace(out);
+        }
+    }
+
+    /**
+     * Метод для освобождения всех матриц, принадлежащих области
+     */
+    @Override
+    public void close() {
+        for (Mat mat : mats) {
+            release(mat);
+        }
+        mats.clear();
+    }
+}
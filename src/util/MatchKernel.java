@@ -0,0 +1,31 @@
+package util;
+
+/**
+ * Интерфейс ядра, вычисляющего меру {@link org.opencv.imgproc.Imgproc#TM_SQDIFF_NORMED}
+ * для окон сравнения с шаблоном целиком в Java над массивами пикселей.
+ * <p>
+ * Мера вычисляется для окон с центрами на сетке {@link MatchSettings} шаблона:
+ * в строках и столбцах {@code half, half + stride, ...} ({@link TemplatePixels#getSettings()}),
+ * окна которых не выходят за границы изображения. Значения в остальных элементах результата
+ * не определены. Для окон, в которых вычислена мера, результат побитово совпадает с
+ * {@link Processing#matchTemplateFast(org.opencv.core.Mat, org.opencv.core.Mat)}:
+ * суммы по окнам — целые числа, а произведение, корень и деление выполняются в float.
+ * <p>
+ * Реализации не хранят состояния между вызовами, поэтому один экземпляр используется всеми потоками
+ */
+public interface MatchKernel {
+
+    /**
+     * @return название ядра в конфигурации
+     */
+    String getName();
+
+    /**
+     * Метод для вычисления меры
+     *
+     * @param template пиксели шаблона и энергия его окон
+     * @param target   пиксели целевого изображения того же размера построчно
+     * @param ratio    массив для значений меры размером с изображение
+     */
+    void computeRatio(TemplatePixels template, byte[] target, float[] ratio);
+}
@@ -0,0 +1,146 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Утилитный класс, предоставляющий ядра {@link MatchKernel} и их выбор по конфигурации.
+ * <p>
+ * Ядро на Vector API ({@code util.VectorMatchKernel}) собирается из каталога {@code simd/src}
+ * с модулем {@code jdk.incubator.vector} и загружается по имени класса, поэтому основная
+ * сборка от этого модуля не зависит. Если класс или модуль недоступны во время выполнения,
+ * вместо него используется скалярное ядро
+ */
+public class MatchKernels {
+
+    /**
+     * Системное свойство, задающее движок сравнения с шаблоном: opencv (по умолчанию),
+     * java — скалярное ядро или vector — ядро на Vector API, для которого JVM запускается
+     * с параметром {@code --add-modules jdk.incubator.vector}
+     */
+    public static final String ENGINE_PROPERTY = "surfacescout.matchEngine";
+
+    private static final String VECTOR_KERNEL_CLASS = "util.VectorMatchKernel";
+
+    private static final MatchKernel SCALAR = new MatchKernel() {
+        @Override
+        public String getName() {
+            return "java";
+        }
+
+        @Override
+        public void computeRatio(TemplatePixels template, byte[] target, float[] ratio) {
+            int rows = template.getRows();
+            int cols = template.getCols();
+            byte[] pixels = template.getPixels();
+            int[] templateSqSums = template.getWindowSqSums();
+            int half = template.getSettings().getHalf();
+            int step = template.getSettings().getStride();
+            int[] diffColumns = new int[cols];
+            int[] targetColumns = new int[cols];
+
+            for (int cy = half; cy < rows - half; cy += step) {
+                // Суммы по столбцам окна для строки центров
+                Arrays.fill(diffColumns, 0);
+                Arrays.fill(targetColumns, 0);
+                for (int y = cy - half; y <= cy + half; y++) {
+                    int row = y * cols;
+                    for (int x = 0; x < cols; x++) {
+                        int value = target[row + x] & 0xFF;
+                        int diff = (pixels[row + x] & 0xFF) - value;
+                        diffColumns[x] += diff * diff;
+                        targetColumns[x] += value * value;
+                    }
+                }
+
+                // Суммы по окнам и мера для центров строки
+                int row = cy * cols;
+                for (int cx = half; cx < cols - half; cx += step) {
+                    int diffSum = 0;
+                    int targetSum = 0;
+                    for (int x = cx - half; x <= cx + half; x++) {
+                        diffSum += diffColumns[x];
+                        targetSum += targetColumns[x];
+                    }
+                    ratio[row + cx] = ratio(diffSum, templateSqSums[row + cx], targetSum);
+                }
+            }
+        }
+    };
+
+    /**
+     * Метод для получения ядра по названию из конфигурации
+     *
+     * @param name название движка: opencv, java или vector
+     * @return ядро или {@code null} для движка OpenCV
+     */
+    public static MatchKernel forName(String name) {
+        return switch (name) {
+            case "opencv" -> null;
+            case "java" -> scalar();
+            case "vector" -> vector();
+            default -> throw new IllegalArgumentException("Неизвестный движок сравнения с шаблоном: " + name);
+        };
+    }
+
+    /**
+     * Метод для получения ядра из конфигурации
+     *
+     * @return ядро по значению свойства {@value #ENGINE_PROPERTY} или {@code null} для движка OpenCV
+     */
+    public static MatchKernel fromConfig() {
+        return forName(System.getProperty(ENGINE_PROPERTY, "opencv").trim());
+    }
+
+    /**
+     * @return скалярное ядро
+     */
+    public static MatchKernel scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return ядро на Vector API или скалярное ядро, если Vector API недоступен
+     */
+    public static MatchKernel vector() {
+        MatchKernel kernel = loadVectorKernel();
+        if (kernel == null) {
+            System.err.println("Vector API недоступен, используется скалярное ядро сравнения с шаблоном");
+            return SCALAR;
+        }
+        return kernel;
+    }
+
+    /**
+     * @return {@code true}, если ядро на Vector API доступно
+     */
+    public static boolean isVectorAvailable() {
+        return loadVectorKernel() != null;
+    }
+
+    /**
+     * Метод для вычисления меры окна по суммам с теми же граничными случаями, что и в
+     * {@link Processing#matchTemplateFast(org.opencv.core.Mat, org.opencv.core.Mat)}
+     *
+     * @param diffSum       сумма квадратов разностей шаблона и изображения
+     * @param templateSqSum энергия окна шаблона
+     * @param targetSqSum   энергия окна изображения
+     * @return мера, ограниченная единицей
+     */
+    public static float ratio(int diffSum, int templateSqSum, int targetSqSum) {
+        float denominator = (float) Math.sqrt((float) templateSqSum * (float) targetSqSum);
+        return denominator > 0 ? Math.min(diffSum / denominator, 1f) : 1f;
+    }
+
+    /**
+     * Метод для загрузки ядра на Vector API
+     *
+     * @return ядро или {@code null}, если класс ядра или модуль Vector API недоступны
+     */
+    private static MatchKernel loadVectorKernel() {
+        try {
+            return (MatchKernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package util;
+
+/**
+ * Класс, описывающий параметры сравнения с шаблоном и выделения дефектов:
+ * сторону окна сравнения, шаг сетки центров окон, сторону примитива дилатации
+ * и порог яркости, выше которого пиксель результата считается дефектом.
+ * <p>
+ * Центры окон расположены в строках и столбцах {@code half, half + stride, ...},
+ * окна которых не выходят за границы изображения. Больший шаг уменьшает количество
+ * окон, в которых вычисляется мера, но может пропускать небольшие дефекты; подобрать
+ * наибольший допустимый шаг для линейки плат позволяет калибровка {@code batch.StrideTuner}.
+ * Параметры по умолчанию ({@link #DEFAULT}) соответствуют {@link Processing#matchTemplate}
+ */
+public class MatchSettings {
+
+    /**
+     * Системное свойство, задающее сторону окна сравнения; нечетное число не меньше трех
+     */
+    public static final String WINDOW_PROPERTY = "surfacescout.matchWindow";
+
+    /**
+     * Системное свойство, задающее шаг сетки центров окон; по умолчанию — половина окна
+     */
+    public static final String STRIDE_PROPERTY = "surfacescout.matchStride";
+
+    /**
+     * Системное свойство, задающее сторону примитива дилатации; по умолчанию — сторона окна
+     */
+    public static final String DILATE_SIZE_PROPERTY = "surfacescout.dilateSize";
+
+    /**
+     * Системное свойство, задающее порог яркости результата для поиска контуров дефектов
+     */
+    public static final String THRESHOLD_PROPERTY = "surfacescout.contourThreshold";
+
+    private static final int DEFAULT_WINDOW = 5;
+    private static final int DEFAULT_THRESHOLD = 127;
+
+    /**
+     * Наибольшая сторона окна, при которой суммы квадратов яркостей по окну помещаются в int
+     */
+    private static final int MAX_WINDOW = 31;
+
+    /**
+     * Параметры по умолчанию: окно 5x5 с шагом 2, дилатация 5x5 и порог 127
+     */
+    public static final MatchSettings DEFAULT =
+            new MatchSettings(DEFAULT_WINDOW, DEFAULT_WINDOW / 2, DEFAULT_WINDOW, DEFAULT_THRESHOLD);
+
+    private final int window;
+    private final int stride;
+    private final int dilateSize;
+    private final int threshold;
+
+    /**
+     * @param window     сторона окна сравнения; нечетное число от 3 до {@value #MAX_WINDOW}
+     * @param stride     шаг сетки центров окон; от 1 до стороны окна
+     * @param dilateSize сторона примитива дилатации; положительное число
+     * @param threshold  порог яркости результата от 0 до 254
+     */
+    public MatchSettings(int window, int stride, int dilateSize, int threshold) {
+        if (window < 3 || window > MAX_WINDOW || window % 2 == 0) {
+            throw new IllegalArgumentException("Сторона окна должна быть нечетным числом от 3 до "
+                    + MAX_WINDOW + ": " + window);
+        }
+        if (stride < 1 || stride > window) {
+            throw new IllegalArgumentException("Шаг окон должен быть от 1 до стороны окна: " + stride);
+        }
+        if (dilateSize < 1) {
+            throw new IllegalArgumentException("Сторона примитива дилатации должна быть положительной: " + dilateSize);
+        }
+        if (threshold < 0 || threshold > 254) {
+            throw new IllegalArgumentException("Порог яркости должен быть от 0 до 254: " + threshold);
+        }
+        this.window = window;
+        this.stride = stride;
+        this.dilateSize = dilateSize;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Метод для получения параметров из конфигурации
+     *
+     * @return параметры по значениям свойств {@value #WINDOW_PROPERTY}, {@value #STRIDE_PROPERTY},
+     * {@value #DILATE_SIZE_PROPERTY} и {@value #THRESHOLD_PROPERTY} или параметры по умолчанию
+     */
+    public static MatchSettings fromConfig() {
+        int window = Integer.getInteger(WINDOW_PROPERTY, DEFAULT_WINDOW);
+        return new MatchSettings(
+                window,
+                Integer.getInteger(STRIDE_PROPERTY, window / 2),
+                Integer.getInteger(DILATE_SIZE_PROPERTY, window),
+                Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD)
+        );
+    }
+
+    /**
+     * Метод для получения тех же параметров с другим шагом окон
+     *
+     * @param stride шаг сетки центров окон
+     * @return новые параметры
+     */
+    public MatchSettings withStride(int stride) {
+        return stride == this.stride ? this : new MatchSettings(window, stride, dilateSize, threshold);
+    }
+
+    /**
+     * @return сторона окна сравнения
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return расстояние от центра окна до его края
+     */
+    public int getHalf() {
+        return window / 2;
+    }
+
+    /**
+     * @return шаг сетки центров окон
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @return сторона примитива дилатации
+     */
+    public int getDilateSize() {
+        return dilateSize;
+    }
+
+    /**
+     * @return порог яркости результата для поиска контуров дефектов
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        return "окно " + window + ", шаг " + stride + ", дилатация " + dilateSize + ", порог " + threshold;
+    }
+}
@@ -4,14 +4,33 @@ import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Утилитный класс, предоставляющий статические методы для обработки изображений
  */
 public class Processing {
 
-    private static final int KERNEL_SIZE = 5;
+    private static final Point ANCHOR_CENTER = new Point(-1, -1);
+
+    /**
+     * Массивы пикселей целевого изображения и меры для {@link #matchTemplateKernel},
+     * создаваемые заново только при смене размера изображения
+     */
+    private static final ThreadLocal<byte[]> KERNEL_TARGET = ThreadLocal.withInitial(() -> new byte[0]);
+    private static final ThreadLocal<float[]> KERNEL_RATIO = ThreadLocal.withInitial(() -> new float[0]);
+
+    /**
+     * Примитивы дилатации потока по размеру стороны: дилатация результата и расширение
+     * кандидатов пирамиды используют разные размеры, поэтому каждый создается один раз
+     */
+    private static final ThreadLocal<Map<Integer, Mat>> DILATE_KERNELS = ThreadLocal.withInitial(HashMap::new);
 
     /**
      * Метод для поиска дефектов при помощи алгоритма сравнения с шаблоном
@@ -22,19 +41,21 @@ public class Processing {
      */
     public static Mat matchTemplate(Mat template,
                                     Mat target) {
-        // Результирующая матрица
-        Mat result = new Mat(template.size(), CvType.CV_32F);
+        // Результирующая матрица (пиксели вне сетки окон должны быть нулевыми,
+        // иначе неинициализированная память попадает в нормализацию)
+        Mat result = Mat.zeros(template.size(), CvType.CV_32F);
 
         // Структуры для хранения шаблонов и промежуточных результатов
-        Rect roi = new Rect(0, 0, KERNEL_SIZE, KERNEL_SIZE);
+        int kernelSize = MatchSettings.DEFAULT.getWindow();
+        Rect roi = new Rect(0, 0, kernelSize, kernelSize);
         Mat targetRegion, templateRegion;
         Mat matchResult = new Mat(1, 1, CvType.CV_32F);
         double[] matchValue;
 
         // Сравнение по парам ROI
-        int step = KERNEL_SIZE / 2;
-        for (int y = 0; y < template.rows() - KERNEL_SIZE + 1; y += step) {
-            for (int x = 0; x < template.cols() - KERNEL_SIZE + 1; x += step) {
+        int step = kernelSize / 2;
+        for (int y = 0; y < template.rows() - kernelSize + 1; y += step) {
+            for (int x = 0; x < template.cols() - kernelSize + 1; x += step) {
                 // Изменяем координаты ROI
                 roi.x = x;
                 roi.y = y;
@@ -50,8 +71,13 @@ public class Processing {
                 // корректируем координаты результата для соответствия центру ядра
                 matchValue = matchResult.get(0, 0);
                 result.put(y + step, x + step, matchValue[0]);
+
+                // Освобождаем заголовки подматриц, не дожидаясь сборщика мусора
+                targetRegion.release();
+                templateRegion.release();
             }
         }
+        matchResult.release();
 
         // Нормализуем полученную матрицу для визуализации изображения
         Core.normalize(result, result, 0, 255, Core.NORM_MINMAX, -1);
@@ -60,27 +86,776 @@ public class Processing {
         return result;
     }
 
+    /**
+     * Метод для поиска дефектов при помощи сравнения с шаблоном, выполняемого
+     * целиком над изображением без попарного перебора ROI.
+     * <p>
+     * Для каждого окна 5x5 ({@link MatchSettings#DEFAULT}) вычисляется та же мера
+     * {@link Imgproc#TM_SQDIFF_NORMED}, что и в {@link #matchTemplate(Mat, Mat)}:
+     * {@code sum((T - I)^2) / sqrt(sum(T^2) * sum(I^2))}, ограниченная сверху единицей
+     * (для окон с нулевой энергией результат также равен единице, как и в OpenCV).
+     * Суммы по окнам считаются ненормированным box-фильтром, после чего значения
+     * прореживаются с тем же шагом, равным половине окна.
+     * <p>
+     * Результат совпадает с {@link #matchTemplate(Mat, Mat)} с точностью до одного уровня
+     * яркости в каждом пикселе: OpenCV вычисляет сумму квадратов разностей через взаимную
+     * корреляцию в float, а здесь она считается напрямую, поэтому младший разряд после
+     * нормализации может отличаться. Пиксели вне сетки окон, как и в
+     * {@link #matchTemplate(Mat, Mat)}, равны нулю
+     *
+     * @param template шаблонное изображение
+     * @param target   целевое изображение
+     * @return изображение в оттенках серого с выделенными дефектами
+     */
+    public static Mat matchTemplateFast(Mat template,
+                                        Mat target) {
+        try (MatScope scope = new MatScope()) {
+            return matchTemplateFast(template, scope.track(computeWindowSqSum(template)), target);
+        }
+    }
+
+    /**
+     * Метод для поиска дефектов при помощи сравнения с шаблоном, выполняемого целиком
+     * над изображением, с заранее вычисленной энергией окон шаблона.
+     * Позволяет не пересчитывать статистику шаблона для каждого целевого изображения
+     *
+     * @param template      шаблонное изображение
+     * @param templateSqSum энергия окон шаблона, полученная {@link #computeWindowSqSum(Mat)}
+     * @param target        целевое изображение
+     * @return изображение в оттенках серого с выделенными дефектами
+     * @see #matchTemplateFast(Mat, Mat)
+     */
+    public static Mat matchTemplateFast(Mat template,
+                                        Mat templateSqSum,
+                                        Mat target) {
+        try (MatBuffers buffers = new MatBuffers()) {
+            Mat result = new Mat();
+            matchTemplateFast(template, templateSqSum, target, result, buffers);
+            return result;
+        }
+    }
+
+    /**
+     * Метод для поиска дефектов при помощи сравнения с шаблоном, выполняемого целиком
+     * над изображением, с записью результата в переданную матрицу.
+     * Все промежуточные матрицы берутся из {@code buffers}, поэтому при повторных вызовах
+     * для изображений того же размера нативная память не выделяется
+     *
+     * @param template      шаблонное изображение
+     * @param templateSqSum энергия окон шаблона, полученная {@link #computeWindowSqSum(Mat)}
+     * @param target        целевое изображение
+     * @param dst           матрица для изображения в оттенках серого с выделенными дефектами
+     * @param buffers       буферы промежуточных матриц вызывающего потока
+     * @see #matchTemplateFast(Mat, Mat)
+     */
+    public static void matchTemplateFast(Mat template,
+                                         Mat templateSqSum,
+                                         Mat target,
+                                         Mat dst,
+                                         MatBuffers buffers) {
+        matchTemplateFast(template, templateSqSum, target, null, MatchSettings.DEFAULT, dst, buffers);
+    }
+
+    /**
+     * Метод для поиска дефектов при помощи сравнения с шаблоном с заданными окном и шагом
+     * только внутри маски проверяемой области. Мера вычисляется лишь над областью маски
+     * ({@link InspectionMask#getRegion()}), а в результат попадают только центры окон внутри
+     * маски, поэтому значения вне маски равны нулю и не влияют на нормализацию.
+     * Без маски и с параметрами по умолчанию результат совпадает с {@link #matchTemplateFast(Mat, Mat)}
+     *
+     * @param template      шаблонное изображение
+     * @param templateSqSum энергия окон шаблона, полученная {@link #computeWindowSqSum(Mat, MatchSettings)}
+     *                      с теми же параметрами
+     * @param target        целевое изображение
+     * @param mask          маска проверяемой области размером с шаблон или {@code null}
+     * @param settings      параметры окна и шага сетки окон
+     * @param dst           матрица для изображения в оттенках серого с выделенными дефектами
+     * @param buffers       буферы промежуточных матриц вызывающего потока
+     */
+    public static void matchTemplateFast(Mat template,
+                                         Mat templateSqSum,
+                                         Mat target,
+                                         InspectionMask mask,
+                                         MatchSettings settings,
+                                         Mat dst,
+                                         MatBuffers buffers) {
+        int rows = template.rows();
+        int cols = template.cols();
+        Rect region = mask == null ? new Rect(0, 0, cols, rows) : mask.getRegion();
+        try (MatScope scope = new MatScope()) {
+            // Вычисление меры для окон области проверки
+            boolean whole = region.width == cols && region.height == rows;
+            Mat templateRegion = whole ? template : scope.track(template.submat(region));
+            Mat templateSqSumRegion = whole ? templateSqSum : scope.track(templateSqSum.submat(region));
+            Mat targetRegion = whole && target.size().equals(template.size())
+                    ? target
+                    : scope.track(target.submat(region));
+            Mat ratio = buffers.get("match.ratio");
+            computeMatchRatio(templateRegion, templateSqSumRegion, targetRegion, settings.getWindow(), ratio, buffers);
+            sampleAndNormalize(ratio, region, mask, rows, cols, settings, dst, buffers);
+        }
+    }
+
+    /**
+     * Метод для поиска дефектов при помощи сравнения с шаблоном, мера которого вычисляется
+     * ядром {@link MatchKernel} в Java. Целевое изображение копируется в массив одним
+     * обращением к OpenCV, а массивы пикселей и меры повторно используются потоком,
+     * поэтому обращения к OpenCV не зависят от количества окон. Прореживание и нормализация
+     * выполняются так же, как в {@link #matchTemplateFast(Mat, Mat)}, и результат с ним совпадает
+     *
+     * @param template пиксели шаблона, полученные {@link TemplatePixels#of(Mat)}
+     * @param target   целевое изображение CV_8UC1 не меньше шаблона
+     * @param kernel   ядро вычисления меры
+     * @param dst      матрица для изображения в оттенках серого с выделенными дефектами
+     * @param buffers  буферы промежуточных матриц вызывающего потока
+     */
+    public static void matchTemplateKernel(TemplatePixels template,
+                                           Mat target,
+                                           MatchKernel kernel,
+                                           Mat dst,
+                                           MatBuffers buffers) {
+        matchTemplateKernel(template, target, kernel, null, dst, buffers);
+    }
+
+    /**
+     * Метод для поиска дефектов при помощи сравнения с шаблоном ядром {@link MatchKernel}
+     * только внутри маски проверяемой области, как в
+     * {@link #matchTemplateFast(Mat, Mat, Mat, InspectionMask, MatchSettings, Mat, MatBuffers)}.
+     * Окно и шаг сетки окон задаются параметрами, с которыми получены пиксели шаблона
+     *
+     * @param template пиксели области маски шаблона ({@link InspectionMask#getRegion()})
+     *                 или всего шаблона, если маски нет
+     * @param target   целевое изображение CV_8UC1 не меньше шаблона
+     * @param kernel   ядро вычисления меры
+     * @param mask     маска проверяемой области размером с шаблон или {@code null}
+     * @param dst      матрица для изображения в оттенках серого с выделенными дефектами
+     * @param buffers  буферы промежуточных матриц вызывающего потока
+     */
+    public static void matchTemplateKernel(TemplatePixels template,
+                                           Mat target,
+                                           MatchKernel kernel,
+                                           InspectionMask mask,
+                                           Mat dst,
+                                           MatBuffers buffers) {
+        int rows = template.getRows();
+        int cols = template.getCols();
+        int length = rows * cols;
+        Rect region = mask == null ? new Rect(0, 0, cols, rows) : mask.getRegion();
+        if (region.width != cols || region.height != rows) {
+            throw new IllegalArgumentException("Пиксели шаблона не соответствуют области маски");
+        }
+        int totalRows = mask == null ? rows : mask.getMask().rows();
+        int totalCols = mask == null ? cols : mask.getMask().cols();
+        try (MatScope scope = new MatScope()) {
+            // Копирование области целевого изображения в массив потока
+            Mat targetRegion = target.size().equals(new Size(cols, rows))
+                    ? target
+                    : scope.track(target.submat(region));
+            if (!targetRegion.isContinuous()) {
+                targetRegion = scope.track(targetRegion.clone());
+            }
+            byte[] targetPixels = KERNEL_TARGET.get();
+            if (targetPixels.length != length) {
+                targetPixels = new byte[length];
+                KERNEL_TARGET.set(targetPixels);
+            }
+            targetRegion.get(0, 0, targetPixels);
+
+            // Вычисление меры и ее передача в OpenCV для прореживания и нормализации
+            float[] ratioValues = KERNEL_RATIO.get();
+            if (ratioValues.length != length) {
+                ratioValues = new float[length];
+                KERNEL_RATIO.set(ratioValues);
+            }
+            kernel.computeRatio(template, targetPixels, ratioValues);
+            Mat ratio = buffers.get("match.ratio");
+            ratio.create(rows, cols, CvType.CV_32F);
+            ratio.put(0, 0, ratioValues);
+            sampleAndNormalize(ratio, region, mask, totalRows, totalCols, template.getSettings(), dst, buffers);
+        }
+    }
+
+    /**
+     * Метод для поиска дефектов сравнением с шаблоном по пирамиде изображений,
+     * от грубого уровня к точному.
+     * <p>
+     * На самом грубом уровне мера вычисляется для всех окон. Окна, мера которых превышает
+     * порог уровня, вместе с соседними окнами образуют области-кандидаты; на следующем,
+     * вдвое более точном уровне мера вычисляется только внутри увеличенных вдвое областей.
+     * На нулевом уровне значения прореживаются по сетке окон и нормализуются так же, как
+     * в {@link #matchTemplateFast(Mat, Mat)}. Внутри областей-кандидатов нулевого уровня мера
+     * совпадает с {@link #matchTemplateFast(Mat, Mat)}, вне их результат равен нулю, поэтому
+     * для платы без кандидатов на грубом уровне результат полностью нулевой
+     *
+     * @param templateLevels уровни пирамиды шаблона, начиная с нулевого; каждый следующий
+     *                       получен {@link Imgproc#pyrDown(Mat, Mat)} из предыдущего
+     * @param templateSqSums энергии окон каждого уровня шаблона, полученные {@link #computeWindowSqSum(Mat)}
+     * @param target         целевое изображение разрешения нулевого уровня
+     * @param thresholds     пороги меры для отбора кандидатов; {@code thresholds[i - 1]} относится к уровню {@code i}
+     * @param dst            матрица для изображения в оттенках серого с выделенными дефектами
+     * @param buffers        буферы промежуточных матриц вызывающего потока
+     */
+    public static void matchTemplatePyramid(List<Mat> templateLevels,
+                                            List<Mat> templateSqSums,
+                                            Mat target,
+                                            double[] thresholds,
+                                            Mat dst,
+                                            MatBuffers buffers) {
+        matchTemplatePyramid(templateLevels, templateSqSums, target, thresholds, null, MatchSettings.DEFAULT, dst, buffers);
+    }
+
+    /**
+     * Метод для поиска дефектов сравнением с шаблоном по пирамиде изображений
+     * с заданными окном и шагом сетки окон только внутри маски проверяемой области.
+     * Маска применяется к мере нулевого уровня до нормализации, как в
+     * {@link #matchTemplateFast(Mat, Mat, Mat, InspectionMask, MatchSettings, Mat, MatBuffers)},
+     * поэтому значения вне маски не влияют на нормализацию
+     *
+     * @param templateLevels уровни пирамиды шаблона, начиная с нулевого
+     * @param templateSqSums энергии окон каждого уровня шаблона, полученные
+     *                       {@link #computeWindowSqSum(Mat, MatchSettings)} с теми же параметрами
+     * @param target         целевое изображение разрешения нулевого уровня
+     * @param thresholds     пороги меры для отбора кандидатов; {@code thresholds[i - 1]} относится к уровню {@code i}
+     * @param mask           маска проверяемой области размером с нулевой уровень шаблона или {@code null}
+     * @param settings       параметры окна и шага сетки окон
+     * @param dst            матрица для изображения в оттенках серого с выделенными дефектами
+     * @param buffers        буферы промежуточных матриц вызывающего потока
+     * @see #matchTemplatePyramid(List, List, Mat, double[], Mat, MatBuffers)
+     */
+    public static void matchTemplatePyramid(List<Mat> templateLevels,
+                                            List<Mat> templateSqSums,
+                                            Mat target,
+                                            double[] thresholds,
+                                            InspectionMask mask,
+                                            MatchSettings settings,
+                                            Mat dst,
+                                            MatBuffers buffers) {
+        int levels = templateLevels.size();
+        Mat template = templateLevels.get(0);
+        if (thresholds.length < levels - 1) {
+            throw new IllegalArgumentException("Не заданы пороги для всех уровней пирамиды: " + thresholds.length);
+        }
+
+        try (MatScope scope = new MatScope()) {
+            // Пирамида целевого изображения тех же размеров, что и пирамида шаблона
+            List<Mat> targetLevels = new ArrayList<>(levels);
+            targetLevels.add(target.size().equals(template.size())
+                    ? target
+                    : scope.track(target.submat(0, template.rows(), 0, template.cols())));
+            for (int level = 1; level < levels; level++) {
+                Mat targetLevel = buffers.get("pyramid.target" + level);
+                Imgproc.pyrDown(targetLevels.get(level - 1), targetLevel, templateLevels.get(level).size());
+                targetLevels.add(targetLevel);
+            }
+
+            // Мера для всех окон самого грубого уровня
+            int coarsest = levels - 1;
+            Mat ratio = buffers.get("pyramid.ratio" + coarsest % 2);
+            computeMatchRatio(templateLevels.get(coarsest), templateSqSums.get(coarsest),
+                    targetLevels.get(coarsest), settings.getWindow(), ratio, buffers);
+
+            // Уточнение меры в областях-кандидатах на более точных уровнях
+            Mat candidates = buffers.get("pyramid.candidates");
+            for (int level = coarsest - 1; level >= 0; level--) {
+                Core.compare(ratio, Scalar.all(thresholds[level]), candidates, Core.CMP_GT);
+                Imgproc.dilate(candidates, candidates, getDilateKernel(settings.getWindow()));
+
+                ratio = buffers.get("pyramid.ratio" + level % 2);
+                refineCandidates(templateLevels.get(level), templateSqSums.get(level),
+                        targetLevels.get(level), candidates, settings.getWindow(), ratio, buffers);
+            }
+
+            // Прореживание и нормализация только внутри маски
+            Rect region = mask == null ? new Rect(0, 0, ratio.cols(), ratio.rows()) : mask.getRegion();
+            Mat regionRatio = mask == null ? ratio : scope.track(ratio.submat(region));
+            sampleAndNormalize(regionRatio, region, mask, ratio.rows(), ratio.cols(), settings, dst, buffers);
+        }
+    }
+
+    /**
+     * Метод для вычисления меры внутри областей-кандидатов, найденных на вдвое более грубом уровне
+     *
+     * @param template      шаблонное изображение уровня
+     * @param templateSqSum энергия окон шаблона уровня
+     * @param target        целевое изображение уровня того же размера, что и шаблон
+     * @param candidates    маска CV_8UC1 областей-кандидатов грубого уровня
+     * @param window        сторона окна сравнения
+     * @param ratio         матрица для значений меры CV_32F, нулевых вне областей-кандидатов
+     * @param buffers       буферы промежуточных матриц вызывающего потока
+     */
+    private static void refineCandidates(Mat template,
+                                         Mat templateSqSum,
+                                         Mat target,
+                                         Mat candidates,
+                                         int window,
+                                         Mat ratio,
+                                         MatBuffers buffers) {
+        int rows = template.rows();
+        int cols = template.cols();
+        int margin = window / 2;
+        ratio.create(rows, cols, CvType.CV_32F);
+        ratio.setTo(Scalar.all(0));
+
+        // Связные области-кандидаты грубого уровня
+        List<MatOfPoint> contours = new ArrayList<>();
+        Imgproc.findContours(candidates, contours, buffers.get("pyramid.hierarchy"),
+                Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+        try (MatScope scope = new MatScope()) {
+            contours.forEach(scope::track);
+            for (MatOfPoint contour : contours) {
+                // Область точного уровня и ее расширение на половину окна, внутри которого
+                // суммы по окнам для пикселей области совпадают с вычисленными по всему изображению
+                Rect rect = Imgproc.boundingRect(contour);
+                Rect inner = clip(rect.x * 2 - margin, rect.y * 2 - margin,
+                        (rect.x + rect.width) * 2 + margin, (rect.y + rect.height) * 2 + margin, rows, cols);
+                if (inner.empty()) {
+                    continue;
+                }
+                Rect outer = clip(inner.x - margin, inner.y - margin,
+                        inner.x + inner.width + margin, inner.y + inner.height + margin, rows, cols);
+
+                // Вычисление меры в расширенной области и перенос значений основной области
+                Mat outerRatio = buffers.get("pyramid.outerRatio");
+                computeMatchRatio(
+                        scope.track(template.submat(outer)),
+                        scope.track(templateSqSum.submat(outer)),
+                        scope.track(target.submat(outer)),
+                        window,
+                        outerRatio,
+                        buffers
+                );
+                Rect offset = new Rect(inner.x - outer.x, inner.y - outer.y, inner.width, inner.height);
+                scope.track(outerRatio.submat(offset)).copyTo(scope.track(ratio.submat(inner)));
+            }
+        }
+    }
+
+    /**
+     * Метод для ограничения прямоугольника, заданного углами, границами изображения
+     *
+     * @param x0   левая граница
+     * @param y0   верхняя граница
+     * @param x1   правая граница (не включительно)
+     * @param y1   нижняя граница (не включительно)
+     * @param rows количество строк изображения
+     * @param cols количество столбцов изображения
+     * @return прямоугольник внутри изображения, возможно пустой
+     */
+    private static Rect clip(int x0, int y0, int x1, int y1, int rows, int cols) {
+        int left = Math.max(0, x0);
+        int top = Math.max(0, y0);
+        int right = Math.min(cols, x1);
+        int bottom = Math.min(rows, y1);
+        return new Rect(left, top, Math.max(0, right - left), Math.max(0, bottom - top));
+    }
+
+    /**
+     * Метод для прореживания меры, вычисленной над областью изображения, по сетке окон
+     * внутри маски и ее нормализации в изображение CV_8UC1
+     *
+     * @param ratio    значения меры CV_32F для окон с центром в каждом пикселе области
+     * @param region   область изображения, над которой вычислена мера
+     * @param mask     маска проверяемой области или {@code null}
+     * @param rows     количество строк изображения
+     * @param cols     количество столбцов изображения
+     * @param settings параметры окна и шага сетки окон
+     * @param dst      матрица для изображения в оттенках серого с выделенными дефектами
+     * @param buffers  буферы промежуточных матриц вызывающего потока
+     */
+    private static void sampleAndNormalize(Mat ratio,
+                                           Rect region,
+                                           InspectionMask mask,
+                                           int rows,
+                                           int cols,
+                                           MatchSettings settings,
+                                           Mat dst,
+                                           MatBuffers buffers) {
+        // Прореживание результата по сетке окон внутри маски
+        Mat sampled = buffers.get("match.sampled");
+        sampled.create(rows, cols, CvType.CV_32F);
+        sampled.setTo(Scalar.all(0));
+        Mat strideMask = buffers.get("match.strideMask." + settings.getWindow() + "." + settings.getStride());
+        if (strideMask.rows() != rows || strideMask.cols() != cols) {
+            fillStrideMask(strideMask, 0, rows, rows, cols, settings);
+        }
+        if (mask == null) {
+            ratio.copyTo(sampled, strideMask);
+        } else {
+            Mat sampleMask = buffers.get("match.sampleMask");
+            Core.bitwise_and(strideMask, mask.getMask(), sampleMask);
+            try (MatScope scope = new MatScope()) {
+                ratio.copyTo(scope.track(sampled.submat(region)), scope.track(sampleMask.submat(region)));
+            }
+        }
+
+        // Нормализуем полученную матрицу для визуализации изображения
+        Core.normalize(sampled, sampled, 0, 255, Core.NORM_MINMAX, -1);
+        sampled.convertTo(dst, CvType.CV_8UC1);
+    }
+
+    /**
+     * Метод для поиска дефектов при помощи сравнения с шаблоном, выполняемого по
+     * горизонтальным полосам в пуле fork-join.
+     * <p>
+     * Каждая полоса дополняется сверху и снизу строками, покрывающими окна на ее границах,
+     * поэтому значения меры в ней совпадают с {@link #matchTemplateFast(Mat, Mat)}.
+     * Нормализация выполняется по глобальным минимуму и максимуму: первый проход
+     * вычисляет их по всем полосам, второй повторно вычисляет меру и записывает
+     * нормализованные значения в результат. Промежуточные матрицы CV_32F создаются
+     * только размером с полосу, поэтому пиковое потребление памяти определяется
+     * размером полосы, а не всего изображения
+     *
+     * @param template шаблонное изображение
+     * @param target   целевое изображение
+     * @param tileRows высота полосы в строках (округляется вверх до кратной шагу окна)
+     * @param pool     пул, в котором обрабатываются полосы
+     * @return изображение в оттенках серого с выделенными дефектами
+     */
+    public static Mat matchTemplateTiled(Mat template,
+                                         Mat target,
+                                         int tileRows,
+                                         ForkJoinPool pool) {
+        return matchTemplateTiled(template, target, tileRows, null, MatchSettings.DEFAULT, pool);
+    }
+
+    /**
+     * Метод для поиска дефектов при помощи сравнения с шаблоном по полосам
+     * с заданными окном и шагом сетки окон только внутри маски проверяемой области.
+     * Значения вне маски обнуляются в обоих проходах, поэтому не влияют на глобальные
+     * минимум и максимум, и результат совпадает с
+     * {@link #matchTemplateFast(Mat, Mat, Mat, InspectionMask, MatchSettings, Mat, MatBuffers)}
+     *
+     * @param template шаблонное изображение
+     * @param target   целевое изображение
+     * @param tileRows высота полосы в строках (округляется вверх до кратной шагу окна)
+     * @param mask     маска проверяемой области размером с шаблон или {@code null}
+     * @param settings параметры окна и шага сетки окон
+     * @param pool     пул, в котором обрабатываются полосы
+     * @return изображение в оттенках серого с выделенными дефектами
+     * @see #matchTemplateTiled(Mat, Mat, int, ForkJoinPool)
+     */
+    public static Mat matchTemplateTiled(Mat template,
+                                         Mat target,
+                                         int tileRows,
+                                         InspectionMask mask,
+                                         MatchSettings settings,
+                                         ForkJoinPool pool) {
+        int rows = template.rows();
+        int cols = template.cols();
+        int step = settings.getStride();
+        int height = Math.max(step, (tileRows + step - 1) / step * step);
+
+        // Границы полос; начало каждой полосы выровнено по сетке окон
+        List<int[]> tiles = new ArrayList<>();
+        for (int start = 0; start < rows; start += height) {
+            tiles.add(new int[]{start, Math.min(rows, start + height)});
+        }
+
+        // Первый проход: глобальные минимум и максимум меры
+        List<Callable<Core.MinMaxLocResult>> minMaxTasks = new ArrayList<>();
+        for (int[] tile : tiles) {
+            minMaxTasks.add(() -> {
+                try (MatBuffers buffers = new MatBuffers()) {
+                    Mat tileResult = buffers.get("tile");
+                    computeTile(template, target, tile[0], tile[1], mask, settings, tileResult, buffers);
+                    return Core.minMaxLoc(tileResult);
+                }
+            });
+        }
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (Future<Core.MinMaxLocResult> future : pool.invokeAll(minMaxTasks)) {
+            Core.MinMaxLocResult minMax = join(future);
+            min = Math.min(min, minMax.minVal);
+            max = Math.max(max, minMax.maxVal);
+        }
+
+        // Коэффициенты нормализации, аналогичные Core.normalize с NORM_MINMAX
+        double scale = max - min > 2.220446049250313E-16 ? 255 / (max - min) : 0;
+        double shift = -min * scale;
+
+        // Второй проход: запись нормализованных полос в результат
+        Mat result = new Mat(rows, cols, CvType.CV_8UC1);
+        List<Callable<Void>> writeTasks = new ArrayList<>();
+        for (int[] tile : tiles) {
+            writeTasks.add(() -> {
+                try (MatBuffers buffers = new MatBuffers(); MatScope scope = new MatScope()) {
+                    Mat tileResult = buffers.get("tile");
+                    computeTile(template, target, tile[0], tile[1], mask, settings, tileResult, buffers);
+                    tileResult.convertTo(
+                            scope.track(result.submat(tile[0], tile[1], 0, cols)), CvType.CV_8UC1, scale, shift);
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> future : pool.invokeAll(writeTasks)) {
+            join(future);
+        }
+
+        return result;
+    }
+
+    /**
+     * Метод для вычисления прореженной меры в строках {@code [start, end)} изображения
+     *
+     * @param template шаблонное изображение
+     * @param target   целевое изображение
+     * @param start    первая строка полосы
+     * @param end      строка, следующая за последней строкой полосы
+     * @param mask     маска проверяемой области размером с шаблон или {@code null}
+     * @param settings параметры окна и шага сетки окон
+     * @param tile     матрица для результата CV_32F высотой {@code end - start},
+     *                 ненулевого только в центрах окон внутри маски
+     * @param buffers  буферы промежуточных матриц вызывающего потока
+     */
+    private static void computeTile(Mat template,
+                                    Mat target,
+                                    int start,
+                                    int end,
+                                    InspectionMask mask,
+                                    MatchSettings settings,
+                                    Mat tile,
+                                    MatBuffers buffers) {
+        int rows = template.rows();
+        int cols = template.cols();
+        int margin = settings.getHalf();
+
+        try (MatScope scope = new MatScope()) {
+            // Полоса с дополнительными строками для окон на ее границах
+            int sliceStart = Math.max(0, start - margin);
+            int sliceEnd = Math.min(rows, end + margin);
+            Mat templateSlice = scope.track(template.submat(sliceStart, sliceEnd, 0, cols));
+            Mat templateSqSum = buffers.get("tile.templateSqSum");
+            computeWindowSqSum(templateSlice, templateSqSum, settings.getWindow(), buffers);
+            Mat ratio = buffers.get("tile.ratio");
+            computeMatchRatio(
+                    templateSlice,
+                    templateSqSum,
+                    scope.track(target.submat(sliceStart, sliceEnd, 0, cols)),
+                    settings.getWindow(),
+                    ratio,
+                    buffers
+            );
+
+            // Прореживание по глобальной сетке окон
+            tile.create(end - start, cols, CvType.CV_32F);
+            tile.setTo(Scalar.all(0));
+            Mat strideMask = buffers.get("tile.strideMask");
+            fillStrideMask(strideMask, start, end - start, rows, cols, settings);
+            if (mask != null) {
+                Core.bitwise_and(strideMask, scope.track(mask.getMask().submat(start, end, 0, cols)), strideMask);
+            }
+            scope.track(ratio.submat(start - sliceStart, end - sliceStart, 0, cols)).copyTo(tile, strideMask);
+        }
+    }
+
+    /**
+     * Метод для вычисления меры {@link Imgproc#TM_SQDIFF_NORMED} для окон с центром в каждом пикселе
+     *
+     * @param template      шаблонное изображение
+     * @param templateSqSum энергия окон шаблона
+     * @param target        целевое изображение того же размера, что и шаблон
+     * @param window        сторона окна сравнения
+     * @param ratio         матрица для значений меры CV_32F, ограниченных единицей
+     * @param buffers       буферы промежуточных матриц вызывающего потока
+     */
+    private static void computeMatchRatio(Mat template,
+                                          Mat templateSqSum,
+                                          Mat target,
+                                          int window,
+                                          Mat ratio,
+                                          MatBuffers buffers) {
+        // Перевод изображений в float для вычисления сумм по окнам
+        Mat templateF = buffers.get("ratio.templateF");
+        Mat targetF = buffers.get("ratio.targetF");
+        template.convertTo(templateF, CvType.CV_32F);
+        target.convertTo(targetF, CvType.CV_32F);
+
+        // Сумма квадратов разностей по каждому окну
+        Mat sqDiff = buffers.get("ratio.sqDiff");
+        Core.subtract(templateF, targetF, sqDiff);
+        Core.multiply(sqDiff, sqDiff, sqDiff);
+        Mat sqDiffSum = buffers.get("ratio.sqDiffSum");
+        boxSum(sqDiff, sqDiffSum, window);
+
+        // Энергия окон целевого изображения
+        Core.multiply(targetF, targetF, targetF);
+        Mat targetSqSum = buffers.get("ratio.targetSqSum");
+        boxSum(targetF, targetSqSum, window);
+
+        // Нормирующий знаменатель sqrt(sum(T^2) * sum(I^2))
+        Mat denominator = buffers.get("ratio.denominator");
+        Core.multiply(templateSqSum, targetSqSum, denominator);
+        Core.sqrt(denominator, denominator);
+
+        // Нормированная мера с теми же граничными случаями, что и в OpenCV
+        Core.divide(sqDiffSum, denominator, ratio);
+        Mat zeroEnergy = buffers.get("ratio.zeroEnergy");
+        Core.compare(denominator, Scalar.all(0), zeroEnergy, Core.CMP_LE);
+        ratio.setTo(Scalar.all(1), zeroEnergy);
+        Core.min(ratio, Scalar.all(1), ratio);
+    }
+
+    /**
+     * Метод для получения результата завершенной задачи пула
+     *
+     * @param future завершенная задача
+     * @param <T>    тип результата задачи
+     * @return результат задачи
+     */
+    private static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Метод для вычисления энергии (суммы квадратов яркостей) окна 5x5
+     * с центром в каждом пикселе
+     *
+     * @param src изображение в оттенках серого
+     * @return матрица CV_32F энергий окон
+     */
+    public static Mat computeWindowSqSum(Mat src) {
+        return computeWindowSqSum(src, MatchSettings.DEFAULT);
+    }
+
+    /**
+     * Метод для вычисления энергии окна заданного размера с центром в каждом пикселе
+     *
+     * @param src      изображение в оттенках серого
+     * @param settings параметры окна сравнения
+     * @return матрица CV_32F энергий окон
+     */
+    public static Mat computeWindowSqSum(Mat src, MatchSettings settings) {
+        try (MatBuffers buffers = new MatBuffers()) {
+            Mat result = new Mat();
+            computeWindowSqSum(src, result, settings.getWindow(), buffers);
+            return result;
+        }
+    }
+
+    /**
+     * Метод для вычисления энергии окон с записью результата в переданную матрицу
+     *
+     * @param src     изображение в оттенках серого
+     * @param dst     матрица для энергий окон CV_32F
+     * @param window  сторона окна
+     * @param buffers буферы промежуточных матриц вызывающего потока
+     */
+    private static void computeWindowSqSum(Mat src, Mat dst, int window, MatBuffers buffers) {
+        Mat srcF = buffers.get("sqSum.srcF");
+        src.convertTo(srcF, CvType.CV_32F);
+        Core.multiply(srcF, srcF, srcF);
+        boxSum(srcF, dst, window);
+    }
+
+    /**
+     * Метод для вычисления суммы значений по квадратному окну с центром в каждом пикселе
+     *
+     * @param src    исходная матрица
+     * @param dst    матрица для сумм по окнам
+     * @param window сторона окна
+     */
+    private static void boxSum(Mat src, Mat dst, int window) {
+        Imgproc.boxFilter(src, dst, -1, new Size(window, window), ANCHOR_CENTER, false);
+    }
+
+    /**
+     * Метод для заполнения маски центров окон сетки для полосы изображения; с параметрами
+     * по умолчанию это центры окон, обходимых в {@link #matchTemplate(Mat, Mat)}
+     *
+     * @param mask      матрица для маски CV_8UC1 размером с полосу, ненулевой в центрах окон
+     * @param rowOffset первая строка полосы в изображении
+     * @param rows      количество строк полосы
+     * @param totalRows количество строк всего изображения
+     * @param cols      количество столбцов изображения
+     * @param settings  параметры окна и шага сетки окон
+     */
+    private static void fillStrideMask(Mat mask, int rowOffset, int rows, int totalRows, int cols,
+                                       MatchSettings settings) {
+        int window = settings.getWindow();
+        int step = settings.getStride();
+        int half = settings.getHalf();
+        byte[] data = new byte[rows * cols];
+        for (int y = 0; y < totalRows - window + 1; y += step) {
+            int row = y + half - rowOffset;
+            if (row < 0 || row >= rows) {
+                continue;
+            }
+            int offset = row * cols + half;
+            for (int x = 0; x < cols - window + 1; x += step) {
+                data[offset + x] = 1;
+            }
+        }
+
+        mask.create(rows, cols, CvType.CV_8UC1);
+        mask.put(0, 0, data);
+    }
+
     /**
      * Метод для поиска контуров на изображении
      *
      * @param img исходное изображение
-     * @return список найденных контуров
+     * @return список найденных контуров, матрицы которых освобождает вызывающий код
      */
     public static List<MatOfPoint> findContours(Mat img) {
-        // Пороговая обработка для получения бинарного изображения
-        Mat thresholdImg = new Mat();
-        Imgproc.threshold(img, thresholdImg, 127, 1, Imgproc.THRESH_BINARY);
+        try (MatBuffers buffers = new MatBuffers()) {
+            return findContours(img, buffers);
+        }
+    }
+
+    /**
+     * Метод для поиска контуров на изображении с повторным использованием
+     * промежуточных матриц пороговой обработки и иерархии
+     *
+     * @param img     исходное изображение
+     * @param buffers буферы промежуточных матриц вызывающего потока
+     * @return список найденных контуров, матрицы которых освобождает вызывающий код
+     */
+    public static List<MatOfPoint> findContours(Mat img, MatBuffers buffers) {
+        return findContours(img, null, MatchSettings.DEFAULT, buffers);
+    }
 
-        // Поиск контуров
+    /**
+     * Метод для поиска контуров с заданным порогом яркости только внутри области изображения,
+     * например, области маски проверяемой области ({@link InspectionMask#getRegion()})
+     *
+     * @param img      исходное изображение
+     * @param region   область поиска или {@code null} для всего изображения
+     * @param settings параметры с порогом яркости дефектов
+     * @param buffers  буферы промежуточных матриц вызывающего потока
+     * @return список найденных контуров в координатах изображения, матрицы которых
+     * освобождает вызывающий код
+     */
+    public static List<MatOfPoint> findContours(Mat img, Rect region, MatchSettings settings, MatBuffers buffers) {
         List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(
-                thresholdImg,
-                contours,
-                hierarchy,
-                Imgproc.RETR_EXTERNAL,
-                Imgproc.CHAIN_APPROX_SIMPLE
-        );
+        try (MatScope scope = new MatScope()) {
+            // Пороговая обработка для получения бинарного изображения
+            Mat source = region == null ? img : scope.track(img.submat(region));
+            Mat thresholdImg = buffers.get("contours.threshold");
+            Imgproc.threshold(source, thresholdImg, settings.getThreshold(), 1, Imgproc.THRESH_BINARY);
+
+            // Поиск контуров со сдвигом координат к началу изображения
+            Mat hierarchy = buffers.get("contours.hierarchy");
+            Imgproc.findContours(
+                    thresholdImg,
+                    contours,
+                    hierarchy,
+                    Imgproc.RETR_EXTERNAL,
+                    Imgproc.CHAIN_APPROX_SIMPLE,
+                    region == null ? new Point() : region.tl()
+            );
+        }
 
         return contours;
     }
@@ -106,13 +881,55 @@ public class Processing {
      * @return изображение, после выполнения операции дилатации
      */
     public static Mat dilateImage(Mat src) {
-        // Создание примитива
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(KERNEL_SIZE, KERNEL_SIZE));
-
-        // Дилатацию изображения
         Mat result = new Mat();
-        Imgproc.dilate(src, result, kernel);
-
+        dilateImage(src, result);
         return result;
     }
+
+    /**
+     * Метод для выполнения морфологической операции дилатации с записью результата
+     * в переданную матрицу. Примитив создается один раз для каждого потока
+     *
+     * @param src исходное изображение
+     * @param dst матрица для изображения после выполнения операции дилатации
+     */
+    public static void dilateImage(Mat src, Mat dst) {
+        dilateImage(src, dst, null, MatchSettings.DEFAULT);
+    }
+
+    /**
+     * Метод для выполнения дилатации с примитивом заданного размера, при наличии
+     * области — только внутри нее. Вне области исходное изображение должно быть нулевым,
+     * как результат сравнения с шаблоном по маске; результат вне области также равен нулю
+     *
+     * @param src      исходное изображение
+     * @param dst      матрица для изображения после выполнения операции дилатации; может совпадать с {@code src}
+     * @param region   область дилатации или {@code null} для всего изображения
+     * @param settings параметры с размером примитива дилатации
+     */
+    public static void dilateImage(Mat src, Mat dst, Rect region, MatchSettings settings) {
+        Mat kernel = getDilateKernel(settings.getDilateSize());
+        if (region == null) {
+            Imgproc.dilate(src, dst, kernel);
+            return;
+        }
+        if (dst.nativeObj != src.nativeObj) {
+            dst.create(src.size(), src.type());
+            dst.setTo(Scalar.all(0));
+        }
+        try (MatScope scope = new MatScope()) {
+            Imgproc.dilate(scope.track(src.submat(region)), scope.track(dst.submat(region)), kernel);
+        }
+    }
+
+    /**
+     * Метод для получения прямоугольного примитива дилатации потока
+     *
+     * @param size сторона примитива
+     * @return примитив, который создается потоком только при первом запросе этого размера
+     */
+    private static Mat getDilateKernel(int size) {
+        return DILATE_KERNELS.get().computeIfAbsent(size,
+                side -> Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(side, side)));
+    }
 }
@@ -0,0 +1,118 @@
+package util;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+
+/**
+ * Класс, описывающий пиксели шаблона в массиве Java и энергию его окон
+ * для сравнения с шаблоном ядрами {@link MatchKernel} без обращений к OpenCV.
+ * Окно и шаг сетки окон задаются параметрами {@link MatchSettings}, с которыми создан объект.
+ * Создается один раз для шаблона и используется всеми потоками
+ */
+public class TemplatePixels {
+
+    private final byte[] pixels;
+    private final int[] windowSqSums;
+    private final int rows;
+    private final int cols;
+    private final MatchSettings settings;
+
+    private TemplatePixels(byte[] pixels, int rows, int cols, MatchSettings settings) {
+        this.pixels = pixels;
+        this.rows = rows;
+        this.cols = cols;
+        this.settings = settings;
+
+        // Энергия окон с центрами во внутренних пикселях
+        int half = settings.getHalf();
+        windowSqSums = new int[rows * cols];
+        int[] columnSums = new int[cols];
+        for (int cy = half; cy < rows - half; cy++) {
+            Arrays.fill(columnSums, 0);
+            for (int y = cy - half; y <= cy + half; y++) {
+                int row = y * cols;
+                for (int x = 0; x < cols; x++) {
+                    int value = pixels[row + x] & 0xFF;
+                    columnSums[x] += value * value;
+                }
+            }
+            int row = cy * cols;
+            for (int cx = half; cx < cols - half; cx++) {
+                int sum = 0;
+                for (int x = cx - half; x <= cx + half; x++) {
+                    sum += columnSums[x];
+                }
+                windowSqSums[row + cx] = sum;
+            }
+        }
+    }
+
+    /**
+     * Метод для копирования пикселей шаблона из матрицы для окна 5x5 с шагом 2
+     *
+     * @param template шаблон CV_8UC1
+     * @return пиксели шаблона и энергия его окон
+     */
+    public static TemplatePixels of(Mat template) {
+        return of(template, MatchSettings.DEFAULT);
+    }
+
+    /**
+     * Метод для копирования пикселей шаблона из матрицы
+     *
+     * @param template шаблон CV_8UC1
+     * @param settings параметры окна и шага сетки окон
+     * @return пиксели шаблона и энергия его окон
+     */
+    public static TemplatePixels of(Mat template, MatchSettings settings) {
+        if (template.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("Шаблон должен быть изображением в оттенках серого");
+        }
+        byte[] pixels = new byte[template.rows() * template.cols()];
+        if (template.isContinuous()) {
+            template.get(0, 0, pixels);
+        } else {
+            try (MatScope scope = new MatScope()) {
+                scope.track(template.clone()).get(0, 0, pixels);
+            }
+        }
+        return new TemplatePixels(pixels, template.rows(), template.cols(), settings);
+    }
+
+    /**
+     * @return яркости пикселей построчно
+     */
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return энергия окна с центром в каждом пикселе; для окон, выходящих за границы, — ноль
+     */
+    public int[] getWindowSqSums() {
+        return windowSqSums;
+    }
+
+    /**
+     * @return количество строк
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return количество столбцов
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return параметры окна и шага сетки окон
+     */
+    public MatchSettings getSettings() {
+        return settings;
+    }
+}